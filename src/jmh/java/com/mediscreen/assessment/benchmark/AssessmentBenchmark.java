@@ -0,0 +1,114 @@
+package com.mediscreen.assessment.benchmark;
+
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.config.RiskClassificationProperties;
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.metrics.AssessmentMetrics;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.AccentFolder;
+import com.mediscreen.assessment.scoring.NoteTriggerCountCache;
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.webclient.HistoryWebClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the assessment hot path, on synthetic corpora of 1 to 1000 notes.
+ * <p>
+ * Run with: mvn -Pbenchmark test-compile exec:exec
+ * The gc profiler is enabled by default and reports the allocation rate next to the throughput.
+ * The downstream clients are stubbed, so the numbers only cover the work of the assessment service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AssessmentBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    int nbrOfNotes;
+
+    // Whether the per-note trigger count memo is used, it is bypassed for notes without ID
+    @Param({"false", "true"})
+    boolean memo;
+
+    private AssessmentService assessmentService;
+
+    private AssessmentResultStore assessmentResultStore;
+
+    private Patient patient;
+
+    private List<History> histories;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        patient = new Patient(1, "Doe", "John", "M", LocalDate.of(1980, 5, 15), null, null);
+        histories = NoteCorpus.histories(patient.getId(), nbrOfNotes, memo, 20231018L);
+
+        // Stubbed client, without the interception cost of a mocking library
+        HistoryWebClient historyWebClient = new HistoryWebClient() {
+            @Override
+            public Mono<List<History>> findById(Integer id) {
+                return Mono.just(histories);
+            }
+        };
+
+        assessmentService = new AssessmentService();
+        assessmentResultStore = new AssessmentResultStore(1000);
+        ReflectionTestUtils.setField(assessmentService, "historyWebClient", historyWebClient);
+        ReflectionTestUtils.setField(assessmentService, "noteTriggerCountCache", new NoteTriggerCountCache(100_000));
+        ReflectionTestUtils.setField(assessmentService, "assessmentResultStore", assessmentResultStore);
+        ReflectionTestUtils.setField(assessmentService, "assessmentMetrics", new AssessmentMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(assessmentService, "triggerVocabulary", new TriggerVocabulary(null));
+        ReflectionTestUtils.setField(assessmentService, "riskClassifier", new RiskClassifier(new RiskClassificationProperties().getRules()));
+    }
+
+    @Benchmark
+    public void toLowerCaseWithoutAccents(Blackhole blackhole) {
+        for (History history : histories) {
+            blackhole.consume(assessmentService.toLowerCaseWithoutAccents(history.getNotes()));
+        }
+    }
+
+    // Baseline of the folding: NFD decomposition, regex and lower case
+    @Benchmark
+    public void toLowerCaseWithoutAccentsWithNormalizer(Blackhole blackhole) {
+        for (History history : histories) {
+            blackhole.consume(AccentFolder.foldWithNormalizer(history.getNotes()));
+        }
+    }
+
+    @Benchmark
+    public int calculateTriggerTerms() {
+        return assessmentService.calculateTriggerTerms(histories);
+    }
+
+    @Benchmark
+    public String calculateLevelOfRisk() {
+        return assessmentService.calculateLevelOfRisk(patient.getSex(), 43, nbrOfNotes % 10);
+    }
+
+    // Full assessment, the stored result being removed so it is computed every time
+    @Benchmark
+    public AssessmentDTO getAssessment() {
+        assessmentResultStore.invalidate(patient.getId());
+        return assessmentService.getAssessment(patient);
+    }
+}
@@ -0,0 +1,84 @@
+package com.mediscreen.assessment.benchmark;
+
+import com.mediscreen.assessment.model.History;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic consultation notes, in French and English, of the length of real notes.
+ */
+public final class NoteCorpus {
+
+    private static final String[] FRENCH_SENTENCES = {
+            "Le patient déclare qu'il se sent très bien.",
+            "Poids égal ou inférieur au poids recommandé.",
+            "Le patient déclare qu'il ressent beaucoup de stress au travail.",
+            "Il se plaint également que son audition est anormale dernièrement.",
+            "Le patient déclare avoir fait une réaction aux médicaments au cours des 3 derniers mois.",
+            "Il remarque également que son audition continue d'être anormale.",
+            "Tests de laboratoire indiquant une microalbumine élevée.",
+            "Le patient déclare qu'il fume depuis longtemps, fumeur régulier.",
+            "Hémoglobine A1C supérieure au niveau recommandé.",
+            "Taille, Poids, Cholestérol, Vertige et Réaction.",
+            "Le patient déclare avoir des vertiges depuis la rechute.",
+            "Anticorps élevés, à surveiller lors de la prochaine visite.",
+    };
+
+    private static final String[] ENGLISH_SENTENCES = {
+            "Patient states that they are feeling terrific.",
+            "Weight at or below recommended level.",
+            "Patient states that they are feeling a great deal of stress at work.",
+            "Patient also complains that their hearing seems Abnormal as of late.",
+            "Patient states that they have had a Reaction to medication within last 3 months.",
+            "Patient also complains that their hearing continues to be problematic.",
+            "Lab reports Microalbumin elevated.",
+            "Patient states that they are a Smoker and have been for a long time.",
+            "Hemoglobin A1C above recommended level.",
+            "Body Height, Body Weight, Cholesterol, Dizziness and Reaction.",
+            "Patient reports Dizziness since the Relapse.",
+            "Antibodies elevated, to be checked on next visit.",
+    };
+
+    private NoteCorpus() {
+    }
+
+    /**
+     * Generates the history records of a patient.
+     *
+     * @param patId The ID of the patient.
+     * @param nbrOfNotes The number of notes.
+     * @param withIds Whether the notes have an ID, a note without ID is never memoized.
+     * @param seed The seed of the generator, the same seed giving the same notes.
+     * @return The history records, half in French and half in English.
+     */
+    public static List<History> histories(Integer patId, int nbrOfNotes, boolean withIds, long seed) {
+        Random random = new Random(seed);
+        List<History> histories = new ArrayList<>(nbrOfNotes);
+        for (int i = 0; i < nbrOfNotes; i++) {
+            History history = new History();
+            history.setId(withIds ? patId + "-" + i : null);
+            history.setPatId(patId);
+            history.setPatient("Patient " + patId);
+            history.setCreationDate(LocalDate.of(2020, 1, 1).plusDays(i));
+            history.setNotes(note(random, i % 2 == 0 ? FRENCH_SENTENCES : ENGLISH_SENTENCES));
+            histories.add(history);
+        }
+        return histories;
+    }
+
+    // Between 2 and 8 sentences, 100 to 500 characters
+    private static String note(Random random, String[] sentences) {
+        StringBuilder note = new StringBuilder();
+        int nbrOfSentences = 2 + random.nextInt(7);
+        for (int i = 0; i < nbrOfSentences; i++) {
+            if (i > 0) {
+                note.append(' ');
+            }
+            note.append(sentences[random.nextInt(sentences.length)]);
+        }
+        return note.toString();
+    }
+}
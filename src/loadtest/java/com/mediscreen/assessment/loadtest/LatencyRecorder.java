@@ -0,0 +1,56 @@
+package com.mediscreen.assessment.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latencies of the requests of one endpoint, and computes their percentiles.
+ */
+class LatencyRecorder {
+
+    final String endpoint;
+
+    private final long[] latencies;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final LongAdder errors = new LongAdder();
+
+    LatencyRecorder(String endpoint, int capacity) {
+        this.endpoint = endpoint;
+        this.latencies = new long[capacity];
+    }
+
+    void record(long latencyNanos, boolean success) {
+        int index = count.getAndIncrement();
+        if (index < latencies.length) {
+            latencies[index] = latencyNanos;
+        }
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    Summary summarize(double seconds) {
+        int recorded = Math.min(count.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, recorded);
+        Arrays.sort(sorted);
+        return new Summary(endpoint, recorded, errors.sum(), recorded / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                recorded == 0 ? 0 : sorted[recorded - 1] / 1e6);
+    }
+
+    // In milliseconds
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    record Summary(String endpoint, long requests, long errors, double throughput,
+                   double p50, double p99, double p999, double max) {
+    }
+}
@@ -0,0 +1,187 @@
+package com.mediscreen.assessment.loadtest;
+
+import com.mediscreen.assessment.AssessmentApplication;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the assessment app against in-process stubs of the Patient and History microservices.
+ * <p>
+ * Requests are sent at a fixed rate whatever the response times (open model), and each latency is measured from
+ * the time the request was due, so a slow app is not hidden by the harness slowing down. The p50, p99 and p999
+ * latencies and the throughput of each endpoint are printed and appended to the results file, to compare runs.
+ * <p>
+ * Run with: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--rate=200 --duration=30s --label=baseline"
+ */
+public class LoadTestHarness {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+
+        StubServices stubs = new StubServices(options);
+        stubs.start();
+
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--PATIENT.PROXY=" + stubs.patientUrl(),
+                "--HISTORY.PROXY=" + stubs.historyUrl(),
+                "--logging.level.com.mediscreen=WARN"));
+        if (!options.caches) {
+            appArgs.addAll(List.of(
+                    "--assessment.cache.patient.max-size=0",
+                    "--assessment.cache.history.max-size=0",
+                    "--assessment.cache.notes.max-size=0",
+                    "--assessment.cache.results.max-size=0"));
+        }
+        appArgs.addAll(options.appArgs);
+        ConfigurableApplicationContext app = SpringApplication.run(AssessmentApplication.class, appArgs.toArray(String[]::new));
+        int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+
+        try {
+            List<LatencyRecorder.Summary> summaries = run(options, "http://localhost:" + port);
+            report(options, summaries);
+        } finally {
+            app.close();
+            stubs.stop();
+        }
+    }
+
+    private static List<LatencyRecorder.Summary> run(LoadTestOptions options, String baseUrl) {
+        ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+                .maxConnections(10_000)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        HttpClient client = HttpClient.create(connections).baseUrl(baseUrl);
+
+        int capacity = (int) (options.rate * options.duration.toSeconds() * 1.1) + 1000;
+        Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+        options.endpoints.forEach(endpoint -> recorders.put(endpoint, new LatencyRecorder(endpoint, capacity)));
+        AtomicInteger inFlight = new AtomicInteger();
+
+        long intervalNanos = 1_000_000_000L / options.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmup.toNanos();
+        long end = measureFrom + options.duration.toNanos();
+        System.out.printf("Load test %s: %d req/s for %s after %s of warmup%n",
+                options.label, options.rate, options.duration, options.warmup);
+
+        for (long i = 0; ; i++) {
+            long due = start + i * intervalNanos;
+            if (due >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            String endpoint = options.endpoints.get((int) (i % options.endpoints.size()));
+            int patId = 1 + ThreadLocalRandom.current().nextInt(options.patients);
+            LatencyRecorder recorder = due >= measureFrom ? recorders.get(endpoint) : null;
+
+            inFlight.incrementAndGet();
+            send(client, endpoint, patId)
+                    .subscribe(
+                            status -> {
+                                if (recorder != null) {
+                                    recorder.record(System.nanoTime() - due, status == 200);
+                                }
+                            },
+                            e -> {
+                                if (recorder != null) {
+                                    recorder.record(System.nanoTime() - due, false);
+                                }
+                                inFlight.decrementAndGet();
+                            },
+                            inFlight::decrementAndGet);
+        }
+
+        // Waits for the last responses
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(Duration.ofMillis(10).toNanos());
+        }
+        connections.dispose();
+
+        double seconds = options.duration.toNanos() / 1e9;
+        return recorders.values().stream().map(recorder -> recorder.summarize(seconds)).toList();
+    }
+
+    private static Mono<Integer> send(HttpClient client, String endpoint, int patId) {
+        return switch (endpoint) {
+            case "risk" -> client.get()
+                    .uri("/assess/risk/" + patId)
+                    .responseSingle((response, body) -> body.then(Mono.just(response.status().code())));
+            case "id" -> postForm(client, "/assess/id", "patId=" + patId);
+            case "name" -> postForm(client, "/assess/name", "family=Family" + patId + "&given=Given" + patId);
+            default -> throw new IllegalArgumentException("Unknown endpoint " + endpoint + ", expected risk, id or name");
+        };
+    }
+
+    private static Mono<Integer> postForm(HttpClient client, String uri, String form) {
+        // Sent with a Content-Length, a chunked body would hold a servlet thread while the chunks arrive
+        byte[] bytes = form.getBytes(StandardCharsets.UTF_8);
+        return client.headers(headers -> headers
+                        .set(HttpHeaderNames.CONTENT_TYPE, "application/x-www-form-urlencoded")
+                        .set(HttpHeaderNames.CONTENT_LENGTH, bytes.length))
+                .post()
+                .uri(uri)
+                .send(ByteBufFlux.fromString(Mono.just(form), StandardCharsets.UTF_8, ByteBufAllocator.DEFAULT))
+                .responseSingle((response, body) -> body.then(Mono.just(response.status().code())));
+    }
+
+    private static void report(LoadTestOptions options, List<LatencyRecorder.Summary> summaries) throws IOException {
+        PrintStream out = System.out;
+        out.printf("%-8s %10s %8s %12s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (LatencyRecorder.Summary summary : summaries) {
+            out.printf(Locale.ROOT, "%-8s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    summary.endpoint(), summary.requests(), summary.errors(), summary.throughput(),
+                    summary.p50(), summary.p99(), summary.p999(), summary.max());
+        }
+
+        Path results = Path.of(options.resultsFile);
+        if (results.getParent() != null) {
+            Files.createDirectories(results.getParent());
+        }
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(results)) {
+            lines.add("timestamp,label,endpoint,rate,duration_s,latency_ms,error_rate,notes,note_length,caches,app_args,"
+                    + "requests,errors,throughput,p50_ms,p99_ms,p999_ms,max_ms");
+        }
+        String timestamp = Instant.now().toString();
+        for (LatencyRecorder.Summary summary : summaries) {
+            lines.add(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.4f,%d,%d,%b,\"%s\",%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f",
+                    timestamp, options.label, summary.endpoint(), options.rate, options.duration.toSeconds(),
+                    options.latency.toMillis(), options.errorRate, options.notesPerPatient, options.noteLength,
+                    options.caches, String.join(" ", options.appArgs),
+                    summary.requests(), summary.errors(), summary.throughput(),
+                    summary.p50(), summary.p99(), summary.p999(), summary.max()));
+        }
+        Files.write(results, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        out.println("Results appended to " + results.toAbsolutePath());
+    }
+}
@@ -0,0 +1,81 @@
+package com.mediscreen.assessment.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Options of a load test run, read from "--name=value" arguments.
+ * Arguments starting with "--app." are given to the assessment app, without the prefix.
+ */
+public class LoadTestOptions {
+
+    // Name of the run in the results file
+    String label = "run";
+
+    // Requests per second sent to the assessment app
+    int rate = 100;
+
+    Duration duration = Duration.ofSeconds(30);
+
+    // Requests sent before the measurement starts
+    Duration warmup = Duration.ofSeconds(10);
+
+    List<String> endpoints = List.of("risk", "id", "name");
+
+    int patients = 1000;
+
+    // Latency of each stub response, with a random jitter on top
+    Duration latency = Duration.ofMillis(20);
+
+    Duration jitter = Duration.ofMillis(5);
+
+    // Share of the stub responses failing with a 500
+    double errorRate = 0.0;
+
+    int notesPerPatient = 20;
+
+    int noteLength = 300;
+
+    // Whether the caches of the assessment app are kept, they hide the downstream latency otherwise measured
+    boolean caches = false;
+
+    String resultsFile = "target/loadtest/results.csv";
+
+    List<String> appArgs = new ArrayList<>();
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg + ", expected --name=value");
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.startsWith("app.")) {
+                options.appArgs.add("--" + name.substring(4) + "=" + value);
+                continue;
+            }
+            switch (name) {
+                case "label" -> options.label = value;
+                case "rate" -> options.rate = Integer.parseInt(value);
+                case "duration" -> options.duration = DurationStyle.detectAndParse(value);
+                case "warmup" -> options.warmup = DurationStyle.detectAndParse(value);
+                case "endpoints" -> options.endpoints = Arrays.asList(value.split(","));
+                case "patients" -> options.patients = Integer.parseInt(value);
+                case "latency" -> options.latency = DurationStyle.detectAndParse(value);
+                case "jitter" -> options.jitter = DurationStyle.detectAndParse(value);
+                case "error-rate" -> options.errorRate = Double.parseDouble(value);
+                case "notes" -> options.notesPerPatient = Integer.parseInt(value);
+                case "note-length" -> options.noteLength = Integer.parseInt(value);
+                case "caches" -> options.caches = Boolean.parseBoolean(value);
+                case "results" -> options.resultsFile = value;
+                default -> throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,135 @@
+package com.mediscreen.assessment.loadtest;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * In-process stubs of the Patient and History microservices, with a configurable latency, payload size and error rate.
+ * <p>
+ * Patient N is "Given{N} Family{N}", and each patient has the same number of notes of the same length.
+ */
+public class StubServices {
+
+    private static final String[] SENTENCES = {
+            "Le patient déclare qu'il se sent très bien.",
+            "Poids égal ou inférieur au poids recommandé.",
+            "Tests de laboratoire indiquant une microalbumine élevée.",
+            "Hémoglobine A1C supérieure au niveau recommandé.",
+            "Patient states that they are feeling a great deal of stress at work.",
+            "Patient states that they are a Smoker and have been for a long time.",
+            "Body Height, Body Weight, Cholesterol, Dizziness and Reaction.",
+            "Antibodies elevated, to be checked on next visit.",
+    };
+
+    private final LoadTestOptions options;
+
+    private final List<String> notes = new ArrayList<>();
+
+    private DisposableServer patientServer;
+
+    private DisposableServer historyServer;
+
+    StubServices(LoadTestOptions options) {
+        this.options = options;
+        for (int i = 0; i < options.notesPerPatient; i++) {
+            StringBuilder note = new StringBuilder();
+            while (note.length() < options.noteLength) {
+                note.append(SENTENCES[(i + note.length()) % SENTENCES.length]).append(' ');
+            }
+            notes.add(note.substring(0, options.noteLength));
+        }
+    }
+
+    void start() {
+        patientServer = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/patient/all", (request, response) -> respond(response, this::allPatientsJson))
+                        .get("/patient/{id}", (request, response) ->
+                                respond(response, () -> patientJson(Integer.parseInt(request.param("id")))))
+                        .get("/patient", (request, response) -> {
+                            String family = new QueryStringDecoder(request.uri()).parameters().get("family").get(0);
+                            return respond(response, () -> patientJson(Integer.parseInt(family.substring("Family".length()))));
+                        }))
+                .bindNow();
+        historyServer = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/patHistory", (request, response) -> {
+                            String patId = new QueryStringDecoder(request.uri()).parameters().get("patId").get(0);
+                            return respond(response, () -> historyJson(Integer.parseInt(patId)));
+                        }))
+                .bindNow();
+    }
+
+    void stop() {
+        patientServer.disposeNow();
+        historyServer.disposeNow();
+    }
+
+    String patientUrl() {
+        return "http://localhost:" + patientServer.port();
+    }
+
+    String historyUrl() {
+        return "http://localhost:" + historyServer.port();
+    }
+
+    private Mono<Void> respond(HttpServerResponse response, Supplier<String> body) {
+        long jitterNanos = options.jitter.toNanos();
+        long delayNanos = options.latency.toNanos() + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0);
+        return Mono.delay(Duration.ofNanos(delayNanos))
+                .then(Mono.defer(() -> {
+                    if (ThreadLocalRandom.current().nextDouble() < options.errorRate) {
+                        return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send().then();
+                    }
+                    return response.header("Content-Type", "application/json")
+                            .sendString(Mono.fromSupplier(body), StandardCharsets.UTF_8)
+                            .then();
+                }));
+    }
+
+    private String patientJson(int id) {
+        LocalDate dob = LocalDate.of(1940, 1, 1).plusDays(id * 37L % 25_000);
+        return "{\"id\":" + id
+                + ",\"family\":\"Family" + id + "\""
+                + ",\"given\":\"Given" + id + "\""
+                + ",\"sex\":\"" + (id % 2 == 0 ? "F" : "M") + "\""
+                + ",\"dob\":\"" + dob + "\""
+                + ",\"address\":\"" + id + " Main Street\""
+                + ",\"phone\":\"100-222-3333\"}";
+    }
+
+    private String allPatientsJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int id = 1; id <= options.patients; id++) {
+            json.append(id > 1 ? "," : "").append(patientJson(id));
+        }
+        return json.append(']').toString();
+    }
+
+    private String historyJson(int patId) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < notes.size(); i++) {
+            json.append(i > 0 ? "," : "")
+                    .append("{\"id\":\"").append(patId).append('-').append(i).append('"')
+                    .append(",\"patId\":").append(patId)
+                    .append(",\"patient\":\"Family").append(patId).append('"')
+                    .append(",\"creationDate\":\"").append(LocalDate.of(2020, 1, 1).plusDays(i)).append('"')
+                    .append(",\"notes\":\"").append(notes.get(i)).append("\"}");
+        }
+        return json.append(']').toString();
+    }
+}
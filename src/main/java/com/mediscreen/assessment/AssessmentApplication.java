@@ -5,10 +5,12 @@ import com.mediscreen.assessment.webclient.PatientWebClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.List;
 
 @SpringBootApplication
+@EnableScheduling
 public class AssessmentApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,282 @@
+package com.mediscreen.assessment.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Store of the computed assessments, so a repeated request is served without any call to the downstream microservices.
+ * <p>
+ * An assessment is kept with a fingerprint of its inputs (sex, date of birth and notes) and stays valid until the
+ * patient's next birthday, the age being part of the assessment and deciding the risk band. It is removed when the
+ * patient or their history changes, and is not returned once the trigger vocabulary it was computed with changed.
+ * <p>
+ * A computation reads its inputs before it stores its result, so an invalidation can come in between. Each removal
+ * bumps the generation of the patient: a computation captures it with {@link #generation(Integer)} before reading the
+ * inputs, and its result is only stored if no invalidation came since.
+ */
+@Component
+public class AssessmentResultStore {
+
+    // Generations of the patients, striped by ID: a patient sharing the stripe of an invalidated one only loses a store
+    private static final int GENERATION_STRIPES = 4096;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Fingerprint of a history without record, to be extended with {@link #fingerprint(long, History)}.
+     */
+    public static final long EMPTY_HISTORY = FNV_OFFSET_BASIS;
+
+    /**
+     * Fingerprint of an assessment computed from part of the history, such as a streamed history read until the
+     * highest risk level was reached. It matches no inputs, and is never removed by {@link #invalidateIfChanged}.
+     */
+    public static final long PARTIAL_HISTORY = 0L;
+
+    private final Cache<Integer, StoredAssessment> assessments;
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * A computed assessment, with the fingerprint of its inputs, the first day it is no longer valid, the version
+     * of the vocabulary it was computed with, and the time it expires when it was computed from older inputs.
+     */
+    public record StoredAssessment(AssessmentDTO assessment, long fingerprint, LocalDate validUntil, int vocabularyVersion,
+                                   Instant expiresAt) {
+    }
+
+    /**
+     * @param maxSize The maximum number of stored assessments.
+     */
+    public AssessmentResultStore(@Value("${assessment.cache.results.max-size:100000}") long maxSize) {
+        this.assessments = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Retrieves the stored assessment of a patient, if it is still valid today.
+     *
+     * @param patId The ID of the patient.
+     * @param vocabularyVersion The version of the vocabulary in use.
+     * @return The stored assessment, or an empty Optional if there is none, it expired or it was computed with
+     * another vocabulary.
+     */
+    public Optional<AssessmentDTO> get(Integer patId, int vocabularyVersion) {
+        StoredAssessment stored = assessments.getIfPresent(patId);
+        if (stored == null) {
+            return Optional.empty();
+        }
+        if (!LocalDate.now().isBefore(stored.validUntil()) || stored.vocabularyVersion() != vocabularyVersion
+                || !Instant.now().isBefore(stored.expiresAt())) {
+            assessments.asMap().remove(patId, stored);
+            return Optional.empty();
+        }
+        return Optional.of(stored.assessment());
+    }
+
+    /**
+     * Returns the generation of a patient, to capture before reading the inputs of an assessment.
+     *
+     * @param patId The ID of the patient.
+     * @return The current generation, changed by each invalidation of the patient.
+     */
+    public long generation(Integer patId) {
+        return generations.get(stripe(patId));
+    }
+
+    /**
+     * Stores the assessment computed from the given inputs, unless the patient was invalidated since the computation
+     * started.
+     *
+     * @param patient The assessed patient.
+     * @param histories The history records of the patient.
+     * @param vocabularyVersion The version of the vocabulary the assessment was computed with.
+     * @param assessment The computed assessment.
+     * @param generation The generation of the patient when the computation started, see {@link #generation(Integer)}.
+     * @return The stored assessment, with the fingerprint of its inputs, or an empty Optional if it is outdated.
+     */
+    public Optional<StoredAssessment> put(Patient patient, List<History> histories, int vocabularyVersion,
+                                          AssessmentDTO assessment, long generation) {
+        return put(patient, fingerprint(patient, histories), vocabularyVersion, assessment, generation);
+    }
+
+    /**
+     * Stores the assessment computed from inputs whose fingerprint is already computed, unless the patient was
+     * invalidated since the computation started.
+     *
+     * @param patient The assessed patient.
+     * @param fingerprint The fingerprint of the inputs, see {@link #fingerprint(Patient, List)}.
+     * @param vocabularyVersion The version of the vocabulary the assessment was computed with.
+     * @param assessment The computed assessment.
+     * @param generation The generation of the patient when the computation started, see {@link #generation(Integer)}.
+     * @return The stored assessment, or an empty Optional if it is outdated.
+     */
+    public Optional<StoredAssessment> put(Patient patient, long fingerprint, int vocabularyVersion,
+                                          AssessmentDTO assessment, long generation) {
+        return put(patient, fingerprint, vocabularyVersion, assessment, generation, Instant.MAX);
+    }
+
+    /**
+     * Stores an assessment computed from inputs that may have changed since they were read, such as those of a
+     * snapshot, for a limited time.
+     *
+     * @param patient The assessed patient.
+     * @param fingerprint The fingerprint of the inputs, see {@link #fingerprint(Patient, List)}.
+     * @param vocabularyVersion The version of the vocabulary the assessment was computed with.
+     * @param assessment The computed assessment.
+     * @param generation The generation of the patient when the computation started, see {@link #generation(Integer)}.
+     * @param expiresAt The time after which the assessment is computed again from the current inputs.
+     * @return The stored assessment, or an empty Optional if it is outdated.
+     */
+    public Optional<StoredAssessment> put(Patient patient, long fingerprint, int vocabularyVersion,
+                                          AssessmentDTO assessment, long generation, Instant expiresAt) {
+        StoredAssessment stored = new StoredAssessment(
+                assessment,
+                fingerprint,
+                nextAgeChange(patient.getDob(), LocalDate.now()),
+                vocabularyVersion,
+                expiresAt);
+        int stripe = stripe(patient.getId());
+        // Checked under the lock of the entry, so an invalidation either comes before and wins, or removes this one
+        StoredAssessment current = assessments.asMap().compute(patient.getId(),
+                (patId, previous) -> generations.get(stripe) == generation ? stored : previous);
+        return current == stored ? Optional.of(stored) : Optional.empty();
+    }
+
+    /**
+     * Removes the stored assessment of a patient, and keeps the assessments in progress from being stored.
+     *
+     * @param patId The ID of the patient.
+     * @return The removed assessment, or an empty Optional if there was none.
+     */
+    public Optional<StoredAssessment> invalidate(Integer patId) {
+        generations.incrementAndGet(stripe(patId));
+        return Optional.ofNullable(assessments.asMap().remove(patId));
+    }
+
+    /**
+     * Removes the stored assessment of a patient if it was computed from other inputs, to catch up with the changes
+     * whose notification was missed.
+     *
+     * @param patId The ID of the patient.
+     * @param fingerprint The fingerprint of the current inputs of the patient.
+     * @return true if an assessment computed from other inputs was removed. An assessment of a
+     * {@link #PARTIAL_HISTORY} can not be compared, and is kept.
+     */
+    public boolean invalidateIfChanged(Integer patId, long fingerprint) {
+        StoredAssessment stored = assessments.getIfPresent(patId);
+        if (stored == null || stored.fingerprint() == fingerprint || stored.fingerprint() == PARTIAL_HISTORY) {
+            return false;
+        }
+        generations.incrementAndGet(stripe(patId));
+        return assessments.asMap().remove(patId, stored);
+    }
+
+    /**
+     * Removes all the stored assessments, and keeps the assessments in progress from being stored.
+     */
+    public void invalidateAll() {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+        assessments.invalidateAll();
+    }
+
+    /**
+     * Computes the fingerprint of the inputs of an assessment.
+     *
+     * @param patient The assessed patient.
+     * @param histories The history records of the patient.
+     * @return A 64-bit hash of the sex, the date of birth and the notes of the patient.
+     */
+    public static long fingerprint(Patient patient, List<History> histories) {
+        long historyFingerprint = EMPTY_HISTORY;
+        for (History history : histories) {
+            historyFingerprint = fingerprint(historyFingerprint, history);
+        }
+        return fingerprint(patient, historyFingerprint);
+    }
+
+    /**
+     * Computes the fingerprint of the inputs of an assessment, the history being already hashed.
+     *
+     * @param patient The assessed patient.
+     * @param historyFingerprint The fingerprint of the history, see {@link #fingerprint(long, History)}.
+     * @return A 64-bit hash of the sex, the date of birth and the notes of the patient.
+     */
+    public static long fingerprint(Patient patient, long historyFingerprint) {
+        long hash = hash(FNV_OFFSET_BASIS, patient.getSex());
+        hash = hash(hash, patient.getDob() == null ? null : patient.getDob().toString());
+        hash = (hash ^ historyFingerprint) * FNV_PRIME;
+        return mix(hash);
+    }
+
+    /**
+     * Extends the fingerprint of a history with its next record, so a history can be hashed as it is read.
+     *
+     * @param historyFingerprint The fingerprint of the previous records, {@link #EMPTY_HISTORY} for the first one.
+     * @param history The next history record of the patient.
+     * @return The fingerprint of the previous records and this one.
+     */
+    public static long fingerprint(long historyFingerprint, History history) {
+        return hash(hash(historyFingerprint, history.getId()), history.getNotes());
+    }
+
+    // FNV-1a over the characters, after their number so that the boundaries between values count
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return (hash ^ 0xFF) * FNV_PRIME;
+        }
+        hash = (hash ^ value.length()) * FNV_PRIME;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // Final mix of MurmurHash3, spreading the last characters over all the bits
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static int stripe(Integer patId) {
+        return Math.floorMod(patId == null ? 0 : patId, GENERATION_STRIPES);
+    }
+
+    /**
+     * Computes the first day the age of a patient changes.
+     *
+     * @param dob The date of birth of the patient.
+     * @param today The current date.
+     * @return The date of the next birthday, as counted by the age calculation.
+     */
+    public static LocalDate nextAgeChange(LocalDate dob, LocalDate today) {
+        int age = Period.between(dob, today).getYears();
+        LocalDate nextChange = dob.plusYears(age + 1L);
+        // A birthday on February 29th is counted on March 1st in non-leap years
+        while (Period.between(dob, nextChange).getYears() <= age) {
+            nextChange = nextChange.plusDays(1);
+        }
+        return nextChange;
+    }
+}
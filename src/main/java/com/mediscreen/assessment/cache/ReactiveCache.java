@@ -0,0 +1,120 @@
+package com.mediscreen.assessment.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * In-process cache of the values emitted by a Mono, bounded in size and expiring after a TTL.
+ * <p>
+ * Eviction uses the W-TinyLFU policy of Caffeine. Concurrent misses on the same key share a single
+ * load, and a failed or empty load is not cached. The hits, misses and evictions are bound to the
+ * meter registry under the name of the cache.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the cached values.
+ */
+public class ReactiveCache<K, V> implements MeterBinder {
+
+    private final String name;
+
+    private final AsyncCache<K, V> cache;
+
+    /**
+     * @param name The name of the cache, used in the metrics.
+     * @param maxSize The maximum number of entries.
+     * @param ttl The time after which an entry expires.
+     */
+    public ReactiveCache(String name, long maxSize, Duration ttl) {
+        this.name = name;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Returns the cached value of the key, loading it on a miss.
+     *
+     * @param key The key of the value.
+     * @param loader The function loading the value of a key.
+     * @return A Mono emitting the cached or loaded value.
+     */
+    public Mono<V> get(K key, Function<K, Mono<V>> loader) {
+        // The load is shared, a caller cancelling must not cancel it for the others
+        return Mono.fromFuture(() -> cache.get(key, (k, executor) -> loader.apply(k).toFuture()), true);
+    }
+
+    /**
+     * Returns the cached values of the keys, loading all the missing ones at once.
+     * The keys being loaded by another call are not loaded again, and a key the loader does not return is left out.
+     *
+     * @param keys The keys of the values.
+     * @param loader The function loading the values of the missing keys.
+     * @return A Mono emitting the cached or loaded values, by key.
+     */
+    public Mono<Map<K, V>> getAll(Collection<K> keys, Function<Set<K>, Mono<Map<K, V>>> loader) {
+        return Mono.fromFuture(() -> cache.getAll(keys,
+                (missing, executor) -> loader.apply(Set.copyOf(missing)).toFuture()), true);
+    }
+
+    /**
+     * Removes the value of the key.
+     *
+     * @param key The key of the value.
+     */
+    public void invalidate(K key) {
+        cache.synchronous().invalidate(key);
+    }
+
+    /**
+     * Removes the loaded values matching the predicate.
+     *
+     * @param predicate The predicate matching the values to remove.
+     */
+    public void invalidateIf(Predicate<V> predicate) {
+        cache.asMap().forEach((key, future) -> {
+            if (isLoaded(future) && predicate.test(future.join())) {
+                cache.asMap().remove(key, future);
+            }
+        });
+    }
+
+    /**
+     * Removes all the values.
+     */
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new CaffeineCacheMetrics<>(cache.synchronous(), name, Tags.empty()).bindTo(registry);
+    }
+
+    private static boolean isLoaded(CompletableFuture<?> future) {
+        return future.isDone() && !future.isCompletedExceptionally() && future.join() != null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.mediscreen.assessment.codec;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Media types offered by the assessment endpoints, on top of the ones defined by {@link MediaType}.
+ */
+public final class AssessmentMediaTypes {
+
+    /**
+     * Binary JSON encoding of Jackson, used by the internal callers.
+     */
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType(APPLICATION_SMILE_VALUE);
+
+    private AssessmentMediaTypes() {
+    }
+}
@@ -0,0 +1,44 @@
+package com.mediscreen.assessment.codec;
+
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes an assessment as the legacy free-text line ({@link AssessmentDTO#toString()}) when text/plain is negotiated,
+ * on the reactive stack.
+ */
+public class AssessmentTextEncoder extends AbstractEncoder<AssessmentDTO> {
+
+    public AssessmentTextEncoder() {
+        super(MimeTypeUtils.TEXT_PLAIN);
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return AssessmentDTO.class.isAssignableFrom(elementType.toClass()) && super.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<? extends AssessmentDTO> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(assessment -> encodeValue(assessment, bufferFactory, elementType, mimeType, hints));
+    }
+
+    @Override
+    public DataBuffer encodeValue(AssessmentDTO assessment, DataBufferFactory bufferFactory,
+                                  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+        Charset charset = mimeType != null && mimeType.getCharset() != null ? mimeType.getCharset() : StandardCharsets.UTF_8;
+        return bufferFactory.wrap(assessment.toString().getBytes(charset));
+    }
+}
@@ -0,0 +1,53 @@
+package com.mediscreen.assessment.codec;
+
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes an assessment as the legacy free-text line ({@link AssessmentDTO#toString()}) when text/plain is negotiated,
+ * on the servlet stack.
+ */
+public class AssessmentTextHttpMessageConverter extends AbstractHttpMessageConverter<AssessmentDTO> {
+
+    public AssessmentTextHttpMessageConverter() {
+        super(StandardCharsets.UTF_8, MediaType.TEXT_PLAIN);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return AssessmentDTO.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    // Only when text/plain is negotiated: the server-sent events ask for no media type, their data is then sent as JSON
+    @Override
+    protected boolean canWrite(MediaType mediaType) {
+        return mediaType != null && super.canWrite(mediaType);
+    }
+
+    @Override
+    protected AssessmentDTO readInternal(Class<? extends AssessmentDTO> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("The text format of an assessment can not be read", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(AssessmentDTO assessment, HttpOutputMessage outputMessage) throws IOException {
+        MediaType contentType = outputMessage.getHeaders().getContentType();
+        Charset charset = contentType != null && contentType.getCharset() != null
+                ? contentType.getCharset() : StandardCharsets.UTF_8;
+        StreamUtils.copy(assessment.toString(), charset, outputMessage.getBody());
+    }
+}
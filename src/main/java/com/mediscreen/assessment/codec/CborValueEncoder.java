@@ -0,0 +1,26 @@
+package com.mediscreen.assessment.codec;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+
+/**
+ * Jackson CBOR encoder of the reactive stack.
+ * <p>
+ * The Spring encoder only encodes single values and rejects the publisher WebFlux hands over even for a Mono body.
+ * Each element is encoded as one CBOR data item instead.
+ */
+public class CborValueEncoder extends Jackson2CborEncoder {
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints));
+    }
+}
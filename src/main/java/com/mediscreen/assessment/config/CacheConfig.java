@@ -0,0 +1,36 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.cache.ReactiveCache;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Caches of the patient and history records retrieved from the downstream microservices.
+ */
+@Configuration
+@EnableConfigurationProperties(DownstreamCacheProperties.class)
+public class CacheConfig {
+
+    @Bean
+    public ReactiveCache<Integer, Patient> patientCache(DownstreamCacheProperties properties) {
+        DownstreamCacheProperties.Settings settings = properties.getPatient();
+        return new ReactiveCache<>("patient", settings.getMaxSize(), settings.getTtl());
+    }
+
+    @Bean
+    public ReactiveCache<String, Patient> patientByNameCache(DownstreamCacheProperties properties) {
+        DownstreamCacheProperties.Settings settings = properties.getPatient();
+        return new ReactiveCache<>("patient-by-name", settings.getMaxSize(), settings.getTtl());
+    }
+
+    @Bean
+    public ReactiveCache<Integer, List<History>> historyCache(DownstreamCacheProperties properties) {
+        DownstreamCacheProperties.Settings settings = properties.getHistory();
+        return new ReactiveCache<>("history", settings.getMaxSize(), settings.getTtl());
+    }
+}
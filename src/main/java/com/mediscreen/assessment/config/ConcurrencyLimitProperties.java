@@ -0,0 +1,32 @@
+package com.mediscreen.assessment.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Adaptive limit of the assessment requests in progress, see {@code AdaptiveConcurrencyLimiter}.
+ */
+@Data
+@ConfigurationProperties(prefix = "assessment.concurrency-limit")
+public class ConcurrencyLimitProperties {
+
+    private int initialLimit = 20;
+
+    private int minLimit = 4;
+
+    private int maxLimit = 200;
+
+    // A request slower than this lowers the limit
+    private Duration latencyTarget = Duration.ofSeconds(1);
+
+    // Ratio applied to the limit when it is lowered
+    private double backoffRatio = 0.9;
+
+    // Share of the limit the bulk requests can use, the rest is kept for the interactive requests
+    private double bulkShare = 0.5;
+
+    // Sent in the Retry-After header of the rejected requests
+    private Duration retryAfter = Duration.ofSeconds(1);
+}
@@ -0,0 +1,43 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.codec.AssessmentTextEncoder;
+import com.mediscreen.assessment.codec.AssessmentTextHttpMessageConverter;
+import com.mediscreen.assessment.codec.CborValueEncoder;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+
+/**
+ * Formats offered by the assessment endpoints: the legacy text line, JSON, CBOR, Smile and NDJSON.
+ * <p>
+ * On the servlet stack, Spring MVC registers the CBOR and Smile converters itself once the Jackson data formats are on
+ * the classpath. WebFlux only registers Smile, so CBOR is added here.
+ */
+@Configuration
+public class ContentNegotiationConfig {
+
+    /**
+     * Picked up by Spring Boot and added to the Spring MVC message converters.
+     *
+     * @return The converter writing an assessment as the legacy text line.
+     */
+    @Bean
+    public AssessmentTextHttpMessageConverter assessmentTextHttpMessageConverter() {
+        return new AssessmentTextHttpMessageConverter();
+    }
+
+    /**
+     * Applied by Spring Boot to the WebFlux server codecs, used in the "reactive" profile.
+     *
+     * @return The customizer registering the legacy text line and the CBOR codecs.
+     */
+    @Bean
+    public CodecCustomizer assessmentCodecCustomizer() {
+        return configurer -> {
+            configurer.customCodecs().register(new AssessmentTextEncoder());
+            configurer.customCodecs().register(new CborValueEncoder());
+            configurer.customCodecs().register(new Jackson2CborDecoder());
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package com.mediscreen.assessment.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Size and TTL of the in-process caches in front of the downstream microservices.
+ */
+@Data
+@ConfigurationProperties(prefix = "assessment.cache")
+public class DownstreamCacheProperties {
+
+    private Settings patient = new Settings();
+
+    private Settings history = new Settings();
+
+    @Data
+    public static class Settings {
+
+        // Maximum number of entries, 0 disables the cache
+        private long maxSize = 10_000;
+
+        private Duration ttl = Duration.ofMinutes(1);
+    }
+}
@@ -0,0 +1,44 @@
+package com.mediscreen.assessment.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Connection pool and timeout settings of the WebClient of each downstream microservice.
+ */
+@Data
+@ConfigurationProperties(prefix = "assessment.client")
+public class DownstreamClientProperties {
+
+    private Settings patient = new Settings();
+
+    private Settings history = new Settings();
+
+    @Data
+    public static class Settings {
+
+        // Maximum number of open connections to the service
+        private int maxConnections = 50;
+
+        // Maximum number of requests waiting for a connection when the pool is exhausted
+        private int pendingAcquireMaxCount = 500;
+
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+
+        // Idle connections are closed after this time
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+
+        private Duration connectTimeout = Duration.ofSeconds(2);
+
+        private Duration readTimeout = Duration.ofSeconds(5);
+
+        private Duration responseTimeout = Duration.ofSeconds(5);
+
+        private boolean keepAlive = true;
+
+        // Upgrades to HTTP/2 over cleartext when the service supports it
+        private boolean http2 = false;
+    }
+}
@@ -0,0 +1,35 @@
+package com.mediscreen.assessment.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Retry budget and hedging of the calls to each downstream microservice.
+ * The circuit breakers, bulkheads, retries and time limiters are configured under "resilience4j".
+ */
+@Data
+@ConfigurationProperties(prefix = "assessment.resilience")
+public class DownstreamResilienceProperties {
+
+    private Settings patient = new Settings();
+
+    private Settings history = new Settings();
+
+    @Data
+    public static class Settings {
+
+        // Retries allowed on top of the reserve, as a share of the requests
+        private double retryBudgetRatio = 0.1;
+
+        // Retries always allowed per second, so a low traffic still gets retried
+        private int retryBudgetMinPerSecond = 5;
+
+        // Window over which the requests and the retries are counted
+        private Duration retryBudgetWindow = Duration.ofSeconds(10);
+
+        // Delay after which a second request is sent if the first has not answered, 0 disables hedging
+        private Duration hedgeDelay = Duration.ZERO;
+    }
+}
@@ -0,0 +1,86 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.logging.CorrelationId;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * Configuration of the WebFlux run mode, enabled with the "reactive" profile.
+ * <p>
+ * The app then runs on Netty instead of Tomcat, with the same controllers.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServerConfig {
+
+    /**
+     * Runs the reactive stack on Netty, Tomcat being on the classpath for the servlet mode.
+     *
+     * @return The Netty web server factory.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Sets the correlation ID of each request in the response and in the Reactor context, where the WebClient filter
+     * reads it. Threads change along a reactive request, so it is not kept in the MDC.
+     *
+     * @return The web filter of the correlation ID.
+     */
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public WebFilter correlationIdWebFilter() {
+        return (ServerWebExchange exchange, WebFilterChain chain) -> {
+            String correlationId = CorrelationId.resolve(exchange.getRequest().getHeaders().getFirst(CorrelationId.HEADER));
+            exchange.getResponse().getHeaders().set(CorrelationId.HEADER, correlationId);
+            return chain.filter(exchange).contextWrite(Context.of(CorrelationId.KEY, correlationId));
+        };
+    }
+
+    /**
+     * WebFlux only binds the simple controller parameters from the query string, unlike Spring MVC.
+     * This filter exposes the url encoded form fields as request parameters, so the POST endpoints
+     * accept the same requests in both modes.
+     *
+     * @return The web filter merging the form fields into the request parameters.
+     */
+    @Bean
+    public WebFilter formDataAsRequestParamsWebFilter() {
+        return (ServerWebExchange exchange, WebFilterChain chain) -> {
+            MediaType contentType = exchange.getRequest().getHeaders().getContentType();
+            if (contentType == null || !MediaType.APPLICATION_FORM_URLENCODED.isCompatibleWith(contentType)) {
+                return chain.filter(exchange);
+            }
+            return exchange.getFormData().flatMap(form -> {
+                if (form.isEmpty()) {
+                    return chain.filter(exchange);
+                }
+                MultiValueMap<String, String> params = new LinkedMultiValueMap<>(exchange.getRequest().getQueryParams());
+                form.forEach(params::addAll);
+                ServerHttpRequest request = new ServerHttpRequestDecorator(exchange.getRequest()) {
+                    @Override
+                    public MultiValueMap<String, String> getQueryParams() {
+                        return params;
+                    }
+                };
+                return chain.filter(exchange.mutate().request(request).build());
+            });
+        };
+    }
+}
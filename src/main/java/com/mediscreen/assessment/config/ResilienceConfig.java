@@ -0,0 +1,59 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter;
+import com.mediscreen.assessment.resilience.DownstreamResilience;
+import com.mediscreen.assessment.resilience.RetryBudget;
+import io.github.resilience4j.common.retry.configuration.RetryConfigCustomizer;
+import io.github.resilience4j.retry.RetryConfig;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Retry budgets of the downstream microservices, plugged into the resilience4j retries of the same name,
+ * and adaptive concurrency limit of the assessment requests.
+ */
+@Configuration
+@EnableConfigurationProperties({DownstreamResilienceProperties.class, ConcurrencyLimitProperties.class})
+public class ResilienceConfig {
+
+    @Bean
+    public AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter(ConcurrencyLimitProperties properties) {
+        return new AdaptiveConcurrencyLimiter(properties.getInitialLimit(), properties.getMinLimit(),
+                properties.getMaxLimit(), properties.getLatencyTarget(), properties.getBackoffRatio(),
+                properties.getBulkShare(), properties.getRetryAfter());
+    }
+
+    @Bean
+    public RetryBudget patientRetryBudget(DownstreamResilienceProperties properties) {
+        return retryBudget(DownstreamResilience.PATIENT, properties.getPatient());
+    }
+
+    @Bean
+    public RetryBudget historyRetryBudget(DownstreamResilienceProperties properties) {
+        return retryBudget(DownstreamResilience.HISTORY, properties.getHistory());
+    }
+
+    @Bean
+    public RetryConfigCustomizer patientRetryCustomizer(@Qualifier("patientRetryBudget") RetryBudget retryBudget) {
+        return RetryConfigCustomizer.of(DownstreamResilience.PATIENT,
+                builder -> retryWithin(builder, retryBudget));
+    }
+
+    @Bean
+    public RetryConfigCustomizer historyRetryCustomizer(@Qualifier("historyRetryBudget") RetryBudget retryBudget) {
+        return RetryConfigCustomizer.of(DownstreamResilience.HISTORY,
+                builder -> retryWithin(builder, retryBudget));
+    }
+
+    // The customizer hands a raw builder, seen through a wildcard so the call is checked
+    private static void retryWithin(RetryConfig.Builder<?> builder, RetryBudget retryBudget) {
+        builder.retryOnException(DownstreamResilience.retryWithin(retryBudget));
+    }
+
+    private static RetryBudget retryBudget(String name, DownstreamResilienceProperties.Settings settings) {
+        return new RetryBudget(name, settings.getRetryBudgetRatio(), settings.getRetryBudgetMinPerSecond(),
+                settings.getRetryBudgetWindow());
+    }
+}
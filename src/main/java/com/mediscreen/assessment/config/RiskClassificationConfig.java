@@ -0,0 +1,19 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Risk classifier compiled from the rules of the configuration.
+ */
+@Configuration
+@EnableConfigurationProperties(RiskClassificationProperties.class)
+public class RiskClassificationConfig {
+
+    @Bean
+    public RiskClassifier riskClassifier(RiskClassificationProperties properties) {
+        return new RiskClassifier(properties.getRules());
+    }
+}
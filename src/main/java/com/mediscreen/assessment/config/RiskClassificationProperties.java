@@ -0,0 +1,56 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.scoring.RiskLevel;
+import com.mediscreen.assessment.scoring.Sex;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rules of the diabetes risk classification, by sex and age band.
+ * <p>
+ * The first rule matching the patient applies. Its thresholds give the number of trigger terms from which each level
+ * is reached, a level without threshold being skipped. A patient matching no rule is not evaluated.
+ */
+@Data
+@ConfigurationProperties(prefix = "assessment.risk")
+public class RiskClassificationProperties {
+
+    private List<Rule> rules = new ArrayList<>(List.of(
+            new Rule(null, 30, Integer.MAX_VALUE, thresholds(2, 6, 8)),
+            new Rule(Sex.MALE, 0, 30, thresholds(null, 3, 5)),
+            new Rule(Sex.FEMALE, 0, 30, thresholds(null, 4, 7))));
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Rule {
+
+        // Any sex when unset
+        private Sex sex;
+
+        private int minAge = 0;
+
+        // Excluded
+        private int maxAge = Integer.MAX_VALUE;
+
+        // Number of trigger terms from which each level is reached
+        private Map<RiskLevel, Integer> thresholds = new EnumMap<>(RiskLevel.class);
+    }
+
+    private static Map<RiskLevel, Integer> thresholds(Integer borderline, Integer inDanger, Integer earlyOnset) {
+        Map<RiskLevel, Integer> thresholds = new EnumMap<>(RiskLevel.class);
+        if (borderline != null) {
+            thresholds.put(RiskLevel.BORDERLINE, borderline);
+        }
+        thresholds.put(RiskLevel.IN_DANGER, inDanger);
+        thresholds.put(RiskLevel.EARLY_ONSET, earlyOnset);
+        return thresholds;
+    }
+}
@@ -0,0 +1,83 @@
+package com.mediscreen.assessment.config;
+
+import com.mediscreen.assessment.logging.CorrelationId;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared WebClient of each downstream microservice, built once with its own connection pool.
+ */
+@Configuration
+@EnableConfigurationProperties(DownstreamClientProperties.class)
+public class WebClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider patientConnectionProvider(DownstreamClientProperties properties) {
+        return connectionProvider("patient", properties.getPatient());
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider historyConnectionProvider(DownstreamClientProperties properties) {
+        return connectionProvider("history", properties.getHistory());
+    }
+
+    /**
+     * @return The WebClient used to communicate with the Patient microservice.
+     */
+    @Bean
+    public WebClient patientClient(WebClient.Builder builder, DownstreamClientProperties properties,
+                                   @Qualifier("patientConnectionProvider") ConnectionProvider connectionProvider) {
+        return webClient(builder, properties.getPatient(), connectionProvider);
+    }
+
+    /**
+     * @return The WebClient used to communicate with the History microservice.
+     */
+    @Bean
+    public WebClient historyClient(WebClient.Builder builder, DownstreamClientProperties properties,
+                                   @Qualifier("historyConnectionProvider") ConnectionProvider connectionProvider) {
+        return webClient(builder, properties.getHistory(), connectionProvider);
+    }
+
+    private static ConnectionProvider connectionProvider(String name, DownstreamClientProperties.Settings settings) {
+        return ConnectionProvider.builder(name)
+                .maxConnections(settings.getMaxConnections())
+                .pendingAcquireMaxCount(settings.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(settings.getPendingAcquireTimeout())
+                .maxIdleTime(settings.getMaxIdleTime())
+                .build();
+    }
+
+    private static WebClient webClient(WebClient.Builder builder, DownstreamClientProperties.Settings settings,
+                                       ConnectionProvider connectionProvider) {
+        long readTimeoutMillis = settings.getReadTimeout().toMillis();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) settings.getConnectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, settings.isKeepAlive())
+                .keepAlive(settings.isKeepAlive())
+                .responseTimeout(settings.getResponseTimeout())
+                .protocol(settings.isHttp2()
+                        ? new HttpProtocol[]{HttpProtocol.HTTP11, HttpProtocol.H2C}
+                        : new HttpProtocol[]{HttpProtocol.HTTP11})
+                // Handlers added on connection are removed when the connection goes back to the pool
+                .doOnConnected(connection -> connection.addHandlerLast(
+                        new ReadTimeoutHandler(readTimeoutMillis, TimeUnit.MILLISECONDS)));
+
+        // The Spring Boot builder is cloned to keep its codecs and customizers
+        return builder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(CorrelationId.propagate())
+                .build();
+    }
+}
@@ -1,9 +1,12 @@
 package com.mediscreen.assessment.controller;
 
+import com.mediscreen.assessment.codec.AssessmentMediaTypes;
+import com.mediscreen.assessment.directory.PatientDirectory;
 import com.mediscreen.assessment.dto.AssessmentDTO;
-import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.logging.CorrelationId;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter.Priority;
 import com.mediscreen.assessment.service.AssessmentService;
-import com.mediscreen.assessment.webclient.PatientWebClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,19 +16,30 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 /**
  * Controller class responsible for handling assessment-related HTTP requests.
+ * <p>
+ * The requests go through the adaptive concurrency limit, the bulk assessment with a lower priority. Those above
+ * the limit are answered at once with a 503, see {@link OverloadExceptionHandler}, and are not assembled at all.
  */
 @RestController
 public class AssessmentController {
 
     @Autowired
-    PatientWebClient patientWebClient;
+    AssessmentService assessmentService;
 
     @Autowired
-    AssessmentService assessmentService;
+    PatientDirectory patientDirectory;
+
+    @Autowired
+    AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
 
     private static Logger logger = LoggerFactory.getLogger(AssessmentController.class);
 
@@ -33,48 +47,77 @@ public class AssessmentController {
      * Retrieves the risk assessment for a given patient based on their patient ID.
      *
      * @param patientId The ID of the patient for whom the risk assessment is requested.
-     * @return the risk assessment information.
+     * @return A Mono emitting the risk assessment information, as JSON, CBOR or Smile.
      */
-    @GetMapping(value = "assess/risk/{patientId}")
-    public AssessmentDTO getRisk(@PathVariable("patientId") Integer patientId){
-        logger.info("Patient " + patientId + " assessment requested");
-
-        Patient patient = patientWebClient.findById(patientId).block();
-        AssessmentDTO assessment = assessmentService.getAssessment(patient);
+    @GetMapping(value = "assess/risk/{patientId}", produces = {MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_CBOR_VALUE, AssessmentMediaTypes.APPLICATION_SMILE_VALUE})
+    public Mono<AssessmentDTO> getRisk(@PathVariable("patientId") Integer patientId){
+        logger.info("Patient {} assessment requested", patientId);
 
-        return assessment;
+        return adaptiveConcurrencyLimiter.limit(Priority.INTERACTIVE, Mono.defer(() -> assessmentService.assess(patientId)))
+                .contextWrite(CorrelationId.fromMdc());
     }
 
     /**
      * Retrieves the risk assessment for a patient based on their patient ID provided in the request body.
      *
+     * The legacy text line is sent by default, JSON, CBOR or Smile when asked in the Accept header.
+     *
      * @param patId The ID of the patient for whom the risk assessment is requested.
-     * @return A ResponseEntity containing the risk assessment information as a String.
+     * @return A Mono emitting a ResponseEntity containing the risk assessment information.
      */
-    @PostMapping(value="/assess/id", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
-    public ResponseEntity<String> getAssessmentById(Integer patId)  {
-        logger.info("Patient " + patId + " assessment requested");
+    @PostMapping(value="/assess/id", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE, produces = {
+            MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE,
+            AssessmentMediaTypes.APPLICATION_SMILE_VALUE})
+    public Mono<ResponseEntity<AssessmentDTO>> getAssessmentById(Integer patId)  {
+        logger.info("Patient {} assessment requested", patId);
 
-        Patient patient = patientWebClient.findById(patId).block();
-        AssessmentDTO assessment = assessmentService.getAssessment(patient);
-
-        return new ResponseEntity<>(assessment.toString(), HttpStatus.OK);
+        return adaptiveConcurrencyLimiter.limit(Priority.INTERACTIVE, Mono.defer(() -> assessmentService.assess(patId)))
+                .map(assessment -> new ResponseEntity<>(assessment, HttpStatus.OK))
+                .contextWrite(CorrelationId.fromMdc());
     }
 
     /**
      * Retrieves the risk assessment for a patient based on their family name and given name provided in the request body.
      *
+     * The legacy text line is sent by default, JSON, CBOR or Smile when asked in the Accept header.
+     * The name is resolved in the local patient directory, ignoring case and accents.
+     *
      * @param family The family name of the patient.
      * @param given The given name of the patient.
-     * @return A ResponseEntity containing the risk assessment information as a String.
+     * @return A Mono emitting a ResponseEntity containing the risk assessment information,
+     * or a 409 error when several patients have this name.
      */
-    @PostMapping(value="/assess/name", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
-    public ResponseEntity<String> getAssessmentByName(String family, String given)  {
-        logger.info("Patient " + family + " " + given + " assessment requested");
+    @PostMapping(value="/assess/name", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE, produces = {
+            MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE,
+            AssessmentMediaTypes.APPLICATION_SMILE_VALUE})
+    public Mono<ResponseEntity<AssessmentDTO>> getAssessmentByName(String family, String given)  {
+        logger.info("Patient {} {} assessment requested", family, given);
+
+        Mono<AssessmentDTO> byName = Mono.defer(() -> patientDirectory.findByName(family, given)
+                .flatMap(assessmentService::assess));
+        return adaptiveConcurrencyLimiter.limit(Priority.INTERACTIVE, byName)
+                .map(assessment -> new ResponseEntity<>(assessment, HttpStatus.OK))
+                .contextWrite(CorrelationId.fromMdc());
+    }
 
-        Patient patient = patientWebClient.findByName(family, given).block();
-        AssessmentDTO assessment = assessmentService.getAssessment(patient);
+    /**
+     * Streams the risk assessment of several patients, each assessment being sent as soon as it is ready.
+     *
+     * @param patIds The IDs of the patients to assess. All the patients are assessed when omitted.
+     * @return A Flux emitting the risk assessment information of each patient, as NDJSON or server-sent events.
+     * A JSON or Smile array is sent instead when asked in the Accept header, once all the patients are assessed.
+     */
+    @GetMapping(value = "/assess/all", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE,
+            MediaType.APPLICATION_JSON_VALUE, AssessmentMediaTypes.APPLICATION_SMILE_VALUE})
+    public Flux<AssessmentDTO> getAllRisks(@RequestParam(value = "patIds", required = false) List<Integer> patIds) {
+        if (patIds == null || patIds.isEmpty()) {
+            logger.info("Bulk assessment requested for all patients");
+        } else {
+            logger.info("Bulk assessment requested for {} patients", patIds.size());
+        }
 
-        return new ResponseEntity<>(assessment.toString(), HttpStatus.OK);
+        return adaptiveConcurrencyLimiter.limit(Priority.BULK, Flux.defer(() -> assessmentService.assessAll(patIds)))
+                .contextWrite(CorrelationId.fromMdc());
     }
 }
@@ -0,0 +1,121 @@
+package com.mediscreen.assessment.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.directory.PatientDirectory;
+import com.mediscreen.assessment.scoring.NoteTriggerCountCache;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.subscription.RiskSubscriptions;
+import com.mediscreen.assessment.webclient.HistoryWebClient;
+import com.mediscreen.assessment.webclient.PatientWebClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Controller class used by the Patient and History microservices to invalidate the cached records when they change,
+ * and to follow the caches.
+ */
+@RestController
+public class CacheController {
+
+    @Autowired
+    PatientWebClient patientWebClient;
+
+    @Autowired
+    HistoryWebClient historyWebClient;
+
+    @Autowired
+    NoteTriggerCountCache noteTriggerCountCache;
+
+    @Autowired
+    AssessmentResultStore assessmentResultStore;
+
+    @Autowired
+    AssessmentService assessmentService;
+
+    @Autowired
+    PatientDirectory patientDirectory;
+
+    @Autowired
+    RiskSubscriptions riskSubscriptions;
+
+    private static Logger logger = LoggerFactory.getLogger(CacheController.class);
+
+    /**
+     * Invalidates the cached record of a patient, and recomputes their stored or followed assessment.
+     *
+     * @param patId The ID of the patient whose record changed.
+     * @return An empty ResponseEntity.
+     */
+    @PostMapping(value = "/cache/invalidate/patient/{patId}")
+    public ResponseEntity<Void> invalidatePatient(@PathVariable("patId") Integer patId) {
+        logger.info("Patient {} cache invalidated", patId);
+
+        patientWebClient.invalidate(patId);
+        patientDirectory.refresh(patId);
+        assessmentService.refresh(patId);
+        riskSubscriptions.recompute(patId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Invalidates the cached history records of a patient, and recomputes their stored or followed assessment.
+     *
+     * @param patId The ID of the patient whose history changed.
+     * @return An empty ResponseEntity.
+     */
+    @PostMapping(value = "/cache/invalidate/history/{patId}")
+    public ResponseEntity<Void> invalidateHistory(@PathVariable("patId") Integer patId) {
+        logger.info("Patient {} history cache invalidated", patId);
+
+        historyWebClient.invalidate(patId);
+        assessmentService.refresh(patId);
+        riskSubscriptions.recompute(patId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Invalidates all the cached patient and history records, and the stored assessments.
+     * The followed assessments are recomputed.
+     *
+     * @return An empty ResponseEntity.
+     */
+    @PostMapping(value = "/cache/invalidate")
+    public ResponseEntity<Void> invalidateAll() {
+        logger.info("All caches invalidated");
+
+        patientWebClient.invalidateAll();
+        historyWebClient.invalidateAll();
+        assessmentResultStore.invalidateAll();
+        patientDirectory.refreshAll();
+        riskSubscriptions.recomputeAll();
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Retrieves the hits and misses of the per-note trigger count memo.
+     *
+     * @return The statistics of the memo.
+     */
+    @GetMapping(value = "/cache/notes/stats")
+    public Map<String, Object> getNoteCacheStats() {
+        CacheStats stats = noteTriggerCountCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", noteTriggerCountCache.size());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("savedChars", noteTriggerCountCache.savedChars());
+        return result;
+    }
+}
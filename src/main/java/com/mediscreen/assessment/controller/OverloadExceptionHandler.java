@@ -0,0 +1,26 @@
+package com.mediscreen.assessment.controller;
+
+import com.mediscreen.assessment.resilience.ServiceOverloadedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers the requests rejected by the concurrency limit with a 503 and a Retry-After header, on both web stacks.
+ */
+@RestControllerAdvice
+public class OverloadExceptionHandler {
+
+    /**
+     * @param e The rejection.
+     * @return An empty 503 response, with the delay in seconds after which the request can be sent again.
+     */
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<Void> handleOverload(ServiceOverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())))
+                .build();
+    }
+}
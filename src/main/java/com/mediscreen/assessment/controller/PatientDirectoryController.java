@@ -0,0 +1,43 @@
+package com.mediscreen.assessment.controller;
+
+import com.mediscreen.assessment.directory.PatientDirectory;
+import com.mediscreen.assessment.directory.PatientNameIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Controller class searching the local patient directory by name.
+ */
+@RestController
+public class PatientDirectoryController {
+
+    private static final int MAX_LIMIT = 100;
+
+    @Autowired
+    PatientDirectory patientDirectory;
+
+    private static Logger logger = LoggerFactory.getLogger(PatientDirectoryController.class);
+
+    /**
+     * Searches the patients by the beginning of their name, ignoring case and accents.
+     *
+     * @param family The family name, or its beginning when the given name is omitted.
+     * @param given The beginning of the given name, the family name being then complete.
+     * @param limit The maximum number of patients returned, at most 100.
+     * @return The ID and the folded names of the matching patients, ordered by name.
+     */
+    @GetMapping(value = "/directory/patients")
+    public List<PatientNameIndex.Match> searchPatients(@RequestParam("family") String family,
+                                                       @RequestParam(value = "given", defaultValue = "") String given,
+                                                       @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        logger.info("Patient directory searched for {} {}", family, given);
+
+        return patientDirectory.search(family, given, Math.max(0, Math.min(limit, MAX_LIMIT)));
+    }
+}
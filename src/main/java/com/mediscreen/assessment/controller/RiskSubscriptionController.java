@@ -0,0 +1,51 @@
+package com.mediscreen.assessment.controller;
+
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.logging.CorrelationId;
+import com.mediscreen.assessment.subscription.RiskSubscriptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * Controller class pushing the risk level changes of a set of patients, instead of polling /assess/risk.
+ */
+@RestController
+public class RiskSubscriptionController {
+
+    @Autowired
+    RiskSubscriptions riskSubscriptions;
+
+    private static Logger logger = LoggerFactory.getLogger(RiskSubscriptionController.class);
+
+    /**
+     * Follows the risk level of patients as server-sent events.
+     * An "assessment" event is sent with the current assessment of each patient, then each time a level changes.
+     * A comment is sent when idle, to keep the connection open. The current assessments are a bulk request: over
+     * its share of the concurrency limit, the subscription is answered with a 503 and a Retry-After header.
+     *
+     * @param patIds The IDs of the patients, at most {@code assessment.subscriptions.max-patients}.
+     * @return A Flux emitting the events, until the client disconnects.
+     */
+    @GetMapping(value = "/assess/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AssessmentDTO>> subscribe(@RequestParam("patIds") List<Integer> patIds) {
+        logger.info("Risk level subscription requested for {} patients", patIds.size());
+
+        Flux<ServerSentEvent<AssessmentDTO>> assessments = riskSubscriptions.subscribe(patIds)
+                .map(assessment -> ServerSentEvent.builder(assessment)
+                        .event("assessment")
+                        .build());
+        Flux<ServerSentEvent<AssessmentDTO>> heartbeats = riskSubscriptions.heartbeats()
+                .map(tick -> ServerSentEvent.<AssessmentDTO>builder().comment("heartbeat").build());
+        return assessments.mergeWith(heartbeats)
+                .contextWrite(CorrelationId.fromMdc());
+    }
+}
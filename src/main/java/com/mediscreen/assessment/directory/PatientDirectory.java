@@ -0,0 +1,278 @@
+package com.mediscreen.assessment.directory;
+
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.webclient.PatientWebClient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Local directory of the patient names, resolving a name to a patient ID without calling the Patient microservice.
+ * <p>
+ * Names are folded like the notes (case and accents), so "DUPONT Hélène" finds "Dupont Helene". The directory is an
+ * immutable {@link PatientNameIndex} of all the patients, rebuilt at a fixed interval, plus the patients changed since
+ * the last rebuild, read again one by one when the Patient microservice reports a change. Both are swapped together
+ * atomically, readers never lock.
+ * <p>
+ * A name missing from the directory is looked up on the Patient microservice, so new patients are found before the
+ * next rebuild, and everything keeps working while the directory is not loaded.
+ * <p>
+ * Past {@code assessment.directory.max-changes}, one rebuild is started early, retried with an exponential backoff
+ * while it fails. The changes are capped at twice that number: beyond, the names found by lookups are no longer
+ * recorded, and a changed patient empties the directory until a rebuild started after it, all names then being looked
+ * up on the Patient microservice.
+ */
+@Component
+public class PatientDirectory implements MeterBinder {
+
+    @Autowired
+    PatientWebClient patientWebClient;
+
+    // Changes kept before a rebuild is started
+    @Value("${assessment.directory.max-changes:1000}")
+    int maxChanges = 1000;
+
+    @Value("${assessment.directory.refresh-interval:PT10M}")
+    Duration refreshInterval = Duration.ofMinutes(10);
+
+    // Delay before an early rebuild is tried again after a failure, doubled up to the refresh interval
+    @Value("${assessment.directory.rebuild-backoff:PT30S}")
+    Duration rebuildBackoff = Duration.ofSeconds(30);
+
+    private static Logger logger = LoggerFactory.getLogger(PatientDirectory.class);
+
+    // Key of a changed patient, null when the patient was deleted
+    private record Change(long sequence, String key) {
+    }
+
+    // Emptied when changes were dropped: only a rebuild started from the sequence validFrom on is then published
+    private record State(PatientNameIndex index, Map<Integer, Change> changes, long validFrom, boolean emptied) {
+    }
+
+    private final AtomicReference<State> current =
+            new AtomicReference<>(new State(PatientNameIndex.EMPTY, Map.of(), 0, false));
+
+    // Orders the changes and the rebuilds
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // System.nanoTime() before which no early rebuild is started
+    private final AtomicLong earlyRebuildNotBefore = new AtomicLong(System.nanoTime());
+
+    private final AtomicInteger failedRebuilds = new AtomicInteger();
+
+    /**
+     * Finds the IDs of the patients with the given name.
+     *
+     * @param family The family name.
+     * @param given The given name.
+     * @return The IDs of the patients, in ascending order, empty when the name is unknown.
+     */
+    public List<Integer> findIds(String family, String given) {
+        State state = current.get();
+        String key = PatientNameIndex.key(family, given);
+        List<Integer> ids = state.index.find(key, state.changes::containsKey);
+        state.changes.forEach((id, change) -> {
+            if (key.equals(change.key)) {
+                ids.add(id);
+            }
+        });
+        ids.sort(Comparator.naturalOrder());
+        return ids;
+    }
+
+    /**
+     * Finds the patients whose family name starts with the given prefix, or with the given family name and a given
+     * name starting with the given prefix.
+     *
+     * @param family The family name, or its beginning when the given name is empty.
+     * @param given The beginning of the given name, may be empty.
+     * @param limit The maximum number of patients returned.
+     * @return The matching patients, with their folded names, ordered by name.
+     */
+    public List<PatientNameIndex.Match> search(String family, String given, int limit) {
+        State state = current.get();
+        String prefix = PatientNameIndex.prefix(family, given);
+        List<PatientNameIndex.Match> found = state.index.findPrefix(prefix, state.changes::containsKey, limit);
+        state.changes.forEach((id, change) -> {
+            if (change.key != null && change.key.startsWith(prefix)) {
+                found.add(PatientNameIndex.match(id, change.key));
+            }
+        });
+        found.sort(Comparator.comparing(PatientNameIndex.Match::family)
+                .thenComparing(PatientNameIndex.Match::given)
+                .thenComparingInt(PatientNameIndex.Match::id));
+        return found.size() > limit ? found.subList(0, limit) : found;
+    }
+
+    /**
+     * Retrieves the patient with the given name, resolved in the directory, or on the Patient microservice when
+     * the directory does not know the name.
+     *
+     * @param family The family name.
+     * @param given The given name.
+     * @return A Mono emitting the patient, or a 409 error when several patients have this name.
+     */
+    public Mono<Patient> findByName(String family, String given) {
+        List<Integer> ids = findIds(family, given);
+        if (ids.size() == 1) {
+            return patientWebClient.findById(ids.get(0));
+        }
+        if (ids.size() > 1) {
+            return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Several patients named " + family + " " + given + ": " + ids));
+        }
+        return patientWebClient.findByName(family, given)
+                .doOnNext(this::put);
+    }
+
+    /**
+     * Adds or updates a patient in the directory, until the next rebuild.
+     *
+     * @param patient The patient.
+     */
+    public void put(Patient patient) {
+        if (patient.getId() != null) {
+            record(patient.getId(), sequence.incrementAndGet(),
+                    PatientNameIndex.key(patient.getFamily(), patient.getGiven()), false);
+        }
+    }
+
+    /**
+     * Reads again a patient whose record changed, removing them from the directory when they no longer exist.
+     * To be called once the cached record of the patient is invalidated.
+     *
+     * @param patId The ID of the patient whose record changed.
+     */
+    public void refresh(Integer patId) {
+        // Numbered before the read: a rebuild started after it reads a record at least as recent, and drops it
+        long changeSequence = sequence.incrementAndGet();
+        patientWebClient.findById(patId)
+                .map(patient -> Optional.of(PatientNameIndex.key(patient.getFamily(), patient.getGiven())))
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.just(Optional.empty()))
+                .subscribe(
+                        key -> record(patId, changeSequence, key.orElse(null), true),
+                        e -> logger.warn("Patient {} not refreshed in the directory: {}", patId, e.getMessage()));
+    }
+
+    /**
+     * Rebuilds the directory from all the patients of the Patient microservice.
+     * The changes recorded after the start of the rebuild are kept.
+     *
+     * @return A Mono emitting the number of patients in the directory, empty when a rebuild is already running.
+     */
+    public Mono<Integer> rebuild() {
+        return Mono.defer(() -> {
+            if (!rebuilding.compareAndSet(false, true)) {
+                return Mono.empty();
+            }
+            long since = sequence.get();
+            return patientWebClient.findAll()
+                    .map(PatientNameIndex::build)
+                    .map(index -> publish(index, since))
+                    .doOnSuccess(size -> rebuilt())
+                    .doOnError(e -> rebuildFailed())
+                    .doFinally(signal -> rebuilding.set(false));
+        });
+    }
+
+    /**
+     * Rebuilds the directory in the background, at a fixed interval and the first time at startup.
+     */
+    @Scheduled(fixedDelayString = "${assessment.directory.refresh-interval:PT10M}")
+    public void refreshAll() {
+        rebuild().subscribe(
+                size -> logger.info("Patient directory rebuilt with {} patients", size),
+                e -> logger.warn("Patient directory not rebuilt: {}", e.getMessage()));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("assessment.directory.patients", current, reference -> reference.get().index.size())
+                .description("Number of patients in the directory index, changes since the last rebuild excluded")
+                .register(registry);
+        Gauge.builder("assessment.directory.changes", current, reference -> reference.get().changes.size())
+                .description("Number of patients changed since the last rebuild of the directory")
+                .register(registry);
+    }
+
+    // A required change is a patient record that changed, the others are names found by a lookup
+    private void record(int id, long changeSequence, String key, boolean required) {
+        State state = current.updateAndGet(previous -> {
+            Change change = previous.changes.get(id);
+            if (change != null && change.sequence > changeSequence) {
+                return previous;
+            }
+            if (change == null && previous.changes.size() >= 2 * maxChanges) {
+                // Forgetting a changed patient could resolve their former name, the directory is emptied instead
+                return required ? new State(PatientNameIndex.EMPTY, Map.of(id, new Change(changeSequence, key)),
+                        changeSequence, true) : previous;
+            }
+            Map<Integer, Change> changes = new HashMap<>(previous.changes);
+            changes.put(id, new Change(changeSequence, key));
+            return new State(previous.index, Map.copyOf(changes), previous.validFrom, previous.emptied);
+        });
+        if (state.changes.size() > maxChanges || state.emptied) {
+            rebuildEarly();
+        }
+    }
+
+    // At most one early rebuild at a time, and not before the backoff of the last failure
+    private void rebuildEarly() {
+        long notBefore = earlyRebuildNotBefore.get();
+        long now = System.nanoTime();
+        if (now - notBefore < 0 || !earlyRebuildNotBefore.compareAndSet(notBefore, now + refreshInterval.toNanos())) {
+            return;
+        }
+        logger.info("Patient directory rebuilt early, {} changes since the last rebuild", current.get().changes.size());
+        refreshAll();
+    }
+
+    private void rebuilt() {
+        failedRebuilds.set(0);
+        earlyRebuildNotBefore.set(System.nanoTime());
+    }
+
+    private void rebuildFailed() {
+        int failures = Math.min(failedRebuilds.incrementAndGet(), 20);
+        long backoff = Math.min(rebuildBackoff.toNanos() << (failures - 1), refreshInterval.toNanos());
+        earlyRebuildNotBefore.set(System.nanoTime() + Math.max(0, backoff));
+    }
+
+    private int publish(PatientNameIndex index, long since) {
+        State state = current.updateAndGet(previous -> {
+            if (since < previous.validFrom) {
+                return previous;
+            }
+            Map<Integer, Change> changes = new HashMap<>(previous.changes);
+            changes.values().removeIf(change -> change.sequence <= since);
+            return new State(index, Map.copyOf(changes), previous.validFrom, false);
+        });
+        if (state.index != index) {
+            logger.info("Patient directory rebuild dropped, it started before the directory was emptied");
+        }
+        return index.size();
+    }
+}
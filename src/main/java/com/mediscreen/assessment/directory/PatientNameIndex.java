@@ -0,0 +1,185 @@
+package com.mediscreen.assessment.directory;
+
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.AccentFolder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable index of the patient names, sorted by folded family name, then given name, then ID.
+ * <p>
+ * The keys are packed in a single char array with an offset array and an ID array, three objects whatever the number
+ * of patients: about 2 bytes per name character and 8 bytes per patient, where a sorted map of strings would cost
+ * over 100 bytes per patient. Lookups are binary searches over the packed keys, without allocating a key per entry.
+ */
+public final class PatientNameIndex {
+
+    // Sorts before any name character, so the patients of a family are contiguous and ordered by given name
+    static final char SEPARATOR = '\u0000';
+
+    public static final PatientNameIndex EMPTY = new PatientNameIndex(new char[0], new int[]{0}, new int[0]);
+
+    /**
+     * A patient of the index, with the folded names.
+     */
+    public record Match(int id, String family, String given) {
+    }
+
+    private final char[] names;
+
+    // Key i spans names[offsets[i]..offsets[i + 1]]
+    private final int[] offsets;
+
+    private final int[] ids;
+
+    private PatientNameIndex(char[] names, int[] offsets, int[] ids) {
+        this.names = names;
+        this.offsets = offsets;
+        this.ids = ids;
+    }
+
+    /**
+     * Builds the index of the given patients. Patients without ID are skipped.
+     *
+     * @param patients The patients to index.
+     * @return The index.
+     */
+    public static PatientNameIndex build(Collection<Patient> patients) {
+        record Entry(String key, int id) {
+        }
+        List<Entry> entries = new ArrayList<>(patients.size());
+        int length = 0;
+        for (Patient patient : patients) {
+            if (patient.getId() != null) {
+                String key = key(patient.getFamily(), patient.getGiven());
+                entries.add(new Entry(key, patient.getId()));
+                length += key.length();
+            }
+        }
+        entries.sort(Comparator.comparing(Entry::key).thenComparingInt(Entry::id));
+
+        char[] names = new char[length];
+        int[] offsets = new int[entries.size() + 1];
+        int[] ids = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            entry.key().getChars(0, entry.key().length(), names, offsets[i]);
+            offsets[i + 1] = offsets[i] + entry.key().length();
+            ids[i] = entry.id();
+        }
+        return new PatientNameIndex(names, offsets, ids);
+    }
+
+    /**
+     * Folds a name with the case and accent rules of the notes, ignoring the surrounding blanks.
+     *
+     * @param name The family or given name, may be null.
+     * @return The folded name, empty when null.
+     */
+    public static String fold(String name) {
+        return name == null ? "" : AccentFolder.fold(name.strip());
+    }
+
+    /**
+     * The key of a patient name.
+     *
+     * @param family The family name.
+     * @param given The given name.
+     * @return The folded family name and given name, separated.
+     */
+    public static String key(String family, String given) {
+        return fold(family) + SEPARATOR + fold(given);
+    }
+
+    /**
+     * The key prefix matching a family name prefix, or a family name and a given name prefix.
+     *
+     * @param family The family name, or its beginning when the given name is empty.
+     * @param given The beginning of the given name, may be empty.
+     * @return The key prefix.
+     */
+    public static String prefix(String family, String given) {
+        String foldedGiven = fold(given);
+        return foldedGiven.isEmpty() ? fold(family) : fold(family) + SEPARATOR + foldedGiven;
+    }
+
+    /**
+     * @return The number of patients in the index.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Finds the patients with exactly the given key.
+     *
+     * @param key The key, see {@link #key(String, String)}.
+     * @param excluded The IDs to leave out.
+     * @return The IDs of the patients, in ascending order.
+     */
+    public List<Integer> find(String key, IntPredicate excluded) {
+        List<Integer> found = new ArrayList<>(1);
+        for (int i = lowerBound(key); i < ids.length && compare(i, key, false) == 0; i++) {
+            if (!excluded.test(ids[i])) {
+                found.add(ids[i]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the patients whose key starts with the given prefix, in the order of the index.
+     *
+     * @param prefix The key prefix, see {@link #prefix(String, String)}.
+     * @param excluded The IDs to leave out.
+     * @param limit The maximum number of patients returned.
+     * @return The matching patients.
+     */
+    public List<Match> findPrefix(String prefix, IntPredicate excluded, int limit) {
+        List<Match> found = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < ids.length && found.size() < limit && compare(i, prefix, true) == 0; i++) {
+            if (!excluded.test(ids[i])) {
+                found.add(match(ids[i], new String(names, offsets[i], offsets[i + 1] - offsets[i])));
+            }
+        }
+        return found;
+    }
+
+    // First entry whose key is not lower than the given key
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = ids.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Compares key i with the given key, or with its first characters when prefix is set
+    private int compare(int i, String key, boolean prefix) {
+        int start = offsets[i];
+        int length = offsets[i + 1] - start;
+        int common = Math.min(length, key.length());
+        for (int j = 0; j < common; j++) {
+            int difference = names[start + j] - key.charAt(j);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return prefix && length >= key.length() ? 0 : length - key.length();
+    }
+
+    static Match match(int id, String key) {
+        int separator = key.indexOf(SEPARATOR);
+        return new Match(id, key.substring(0, separator), key.substring(separator + 1));
+    }
+}
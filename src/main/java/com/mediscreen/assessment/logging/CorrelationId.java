@@ -0,0 +1,77 @@
+package com.mediscreen.assessment.logging;
+
+import org.slf4j.MDC;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Correlation ID of a request, sent back to the caller and to the downstream microservices, and added to the logs.
+ * <p>
+ * On the request thread it is kept in the MDC. Reactive code runs on other threads, so the ID is carried in the
+ * Reactor context of the assessment, where the WebClient filter reads it.
+ */
+public final class CorrelationId {
+
+    public static final String HEADER = "X-Correlation-Id";
+
+    // Key in the MDC and in the Reactor context
+    public static final String KEY = "correlationId";
+
+    private static final int MAX_LENGTH = 64;
+
+    private CorrelationId() {
+    }
+
+    /**
+     * Keeps the correlation ID sent by the caller when it is safe to log, otherwise generates a new one.
+     *
+     * @param header The correlation ID header of the request, may be null.
+     * @return The correlation ID of the request.
+     */
+    public static String resolve(String header) {
+        if (header != null && !header.isEmpty() && header.length() <= MAX_LENGTH && isSafe(header)) {
+            return header;
+        }
+        // Random 64 bits, without the lock of the SecureRandom behind UUID.randomUUID()
+        String random = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        return "0".repeat(16 - random.length()) + random;
+    }
+
+    /**
+     * Copies the correlation ID of the current thread into the Reactor context, at assembly time.
+     * The context is left unchanged when the thread has none, e.g. when the reactive WebFilter already set it.
+     *
+     * @return The function to give to contextWrite.
+     */
+    public static Function<Context, Context> fromMdc() {
+        String correlationId = MDC.get(KEY);
+        return context -> correlationId == null ? context : context.put(KEY, correlationId);
+    }
+
+    /**
+     * WebClient filter adding the correlation ID of the Reactor context to the downstream requests.
+     *
+     * @return The filter function.
+     */
+    public static ExchangeFilterFunction propagate() {
+        return (request, next) -> Mono.deferContextual(context -> next.exchange(context.<String>getOrEmpty(KEY)
+                .map(correlationId -> ClientRequest.from(request).header(HEADER, correlationId).build())
+                .orElse(request)));
+    }
+
+    // Letters, digits, dashes, dots and underscores only, so a caller can not forge log lines
+    private static boolean isSafe(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mediscreen.assessment.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logback filter keeping about one in {@code sampleEvery} INFO and lower events of the loggers under a prefix.
+ * <p>
+ * Used on the high-rate assessment request logs. Warnings and errors are always kept. As a turbo filter it runs
+ * before the event is created, so a dropped event costs neither formatting nor a slot in the async queue.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+    private String loggerPrefix = "";
+
+    private int sampleEvery = 1;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (sampleEvery <= 1 || level == null || level.isGreaterOrEqual(Level.WARN)
+                || !logger.getName().startsWith(loggerPrefix)) {
+            return FilterReply.NEUTRAL;
+        }
+        return ThreadLocalRandom.current().nextInt(sampleEvery) == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    public void setLoggerPrefix(String loggerPrefix) {
+        this.loggerPrefix = loggerPrefix;
+    }
+
+    public void setSampleEvery(int sampleEvery) {
+        this.sampleEvery = sampleEvery;
+    }
+}
@@ -0,0 +1,139 @@
+package com.mediscreen.assessment.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the assessment: latency of the calls to the downstream microservices, time spent in each scoring stage,
+ * and the size of the histories scored.
+ * <p>
+ * Exposed on /actuator/prometheus with the other Spring Boot meters.
+ */
+@Component
+public class AssessmentMetrics {
+
+    public static final String DOWNSTREAM_REQUESTS = "assessment.downstream.requests";
+    public static final String SCORING_STAGE = "assessment.scoring.stage";
+    public static final String HISTORY_NOTES = "assessment.history.notes";
+    public static final String NOTE_LENGTH = "assessment.note.length";
+
+    /**
+     * Stages of the scoring of a patient.
+     */
+    public enum Stage {
+        NORMALIZATION("normalization"),
+        MATCHING("matching"),
+        CLASSIFICATION("classification");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry registry;
+
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+
+    private final DistributionSummary notesPerPatient;
+
+    private final DistributionSummary noteLength;
+
+    public AssessmentMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(SCORING_STAGE)
+                    .description("Time spent in a stage of the scoring")
+                    .tag("stage", stage.tag)
+                    .register(registry));
+        }
+        this.notesPerPatient = DistributionSummary.builder(HISTORY_NOTES)
+                .description("Number of notes in the history of an assessed patient")
+                .baseUnit("notes")
+                .register(registry);
+        this.noteLength = DistributionSummary.builder(NOTE_LENGTH)
+                .description("Length of the notes scored")
+                .baseUnit("characters")
+                .register(registry);
+    }
+
+    /**
+     * Times a call to a downstream microservice, from the subscription to its success, error or cancellation.
+     *
+     * @param call The name of the call, e.g. patient-by-id.
+     * @param request The Mono sending the request.
+     * @return The Mono sending the request, timed.
+     */
+    public <T> Mono<T> timeDownstream(String call, Mono<T> request) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return request
+                    .doOnSuccess(value -> stop(sample, call, "success"))
+                    .doOnError(e -> stop(sample, call, "error"))
+                    .doOnCancel(() -> stop(sample, call, "cancelled"));
+        });
+    }
+
+    /**
+     * Times a streamed call to a downstream microservice, from the subscription to its completion, error or
+     * cancellation.
+     *
+     * @param call The name of the call, e.g. history-stream.
+     * @param request The Flux sending the request.
+     * @return The Flux sending the request, timed.
+     */
+    public <T> Flux<T> timeDownstream(String call, Flux<T> request) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return request
+                    .doOnComplete(() -> stop(sample, call, "success"))
+                    .doOnError(e -> stop(sample, call, "error"))
+                    .doOnCancel(() -> stop(sample, call, "cancelled"));
+        });
+    }
+
+    /**
+     * Records the time spent in a scoring stage.
+     *
+     * @param stage The scoring stage.
+     * @param startNanos The {@link System#nanoTime()} at the start of the stage.
+     */
+    public void recordStage(Stage stage, long startNanos) {
+        stageTimers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the number of notes in the history of an assessed patient.
+     *
+     * @param count The number of notes.
+     */
+    public void recordNotesPerPatient(int count) {
+        notesPerPatient.record(count);
+    }
+
+    /**
+     * Records the length of a scored note.
+     *
+     * @param length The number of characters of the note.
+     */
+    public void recordNoteLength(int length) {
+        noteLength.record(length);
+    }
+
+    private void stop(Timer.Sample sample, String call, String outcome) {
+        sample.stop(Timer.builder(DOWNSTREAM_REQUESTS)
+                .description("Latency of the calls to the Patient and History microservices")
+                .tag("call", call)
+                .tag("outcome", outcome)
+                .register(registry));
+    }
+}
@@ -0,0 +1,69 @@
+package com.mediscreen.assessment.rescoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint of the population re-scoring, on /actuator/rescoring.
+ * <p>
+ * A GET shows the progress of the run in progress and the report of the last run, a POST with an empty JSON object
+ * starts a run in the background.
+ */
+@Component
+@Endpoint(id = "rescoring")
+@ConditionalOnProperty(prefix = "assessment.snapshot", name = "directory")
+public class RescoringEndpoint {
+
+    private final RescoringJob rescoringJob;
+
+    private static Logger logger = LoggerFactory.getLogger(RescoringEndpoint.class);
+
+    public RescoringEndpoint(RescoringJob rescoringJob) {
+        this.rescoringJob = rescoringJob;
+    }
+
+    /**
+     * @return The progress of the run in progress, if any, and the report of the last run.
+     */
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        RescoringJob.Progress progress = rescoringJob.progress();
+        result.put("running", progress != null);
+        if (progress != null) {
+            result.put("startedAt", progress.startedAt());
+            result.put("partitions", progress.partitions());
+            result.put("scoredPartitions", progress.scoredPartitions().get());
+            result.put("scoredPatients", progress.scoredPatients().sum());
+        }
+        result.put("lastReport", rescoringJob.lastReport());
+        return result;
+    }
+
+    /**
+     * Starts a re-scoring of the population in the background.
+     *
+     * @return The status, see {@link #status()}.
+     * @throws InvalidEndpointRequestException If a run is already in progress, answered with a 400.
+     */
+    @WriteOperation
+    public Map<String, Object> start() {
+        if (rescoringJob.progress() != null) {
+            throw new InvalidEndpointRequestException("A re-scoring is already in progress", "Already in progress");
+        }
+        logger.info("Re-scoring requested");
+        rescoringJob.start().subscribe(
+                report -> logger.info("Re-scoring report written to {}", report.transitionsFile()),
+                e -> logger.warn("Re-scoring failed: {}", e.getMessage()));
+        return status();
+    }
+}
@@ -0,0 +1,358 @@
+package com.mediscreen.assessment.rescoring;
+
+import com.mediscreen.assessment.config.RiskClassificationProperties;
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import com.mediscreen.assessment.scoring.RiskLevel;
+import com.mediscreen.assessment.scoring.Sex;
+import com.mediscreen.assessment.scoring.TriggerTermMatcher;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.snapshot.PatientSnapshot;
+import com.mediscreen.assessment.snapshot.PatientSnapshotStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Re-scores every patient of the local snapshot and reports who moved between risk levels, to run after a change of
+ * the trigger vocabulary or of the risk classification rules.
+ * <p>
+ * The shards of the snapshot are cut into partitions of {@code assessment.rescoring.partition-size} patients, scored
+ * in parallel on a fork-join pool with {@link AssessmentService#calculateTriggerTerms(PatientSnapshot, int,
+ * TriggerTermMatcher)} and a {@link RiskClassifier}. The partitions share nothing but the read-only snapshot, the
+ * matcher and the classifier, so the throughput grows with the number of threads.
+ * <p>
+ * The terms and the rules of each run are recorded. The next run scores the current snapshot twice, with the recorded
+ * terms and rules and with the current ones, so the patients who moved did so because of the change of the terms or
+ * of the rules only, not because their notes, their age or the population changed between the runs. The patients who
+ * moved are written to {@code transitions.csv}, and the current terms and rules become the baseline of the next run.
+ * <p>
+ * Each scored partition is checkpointed to a file of the run directory. A run interrupted by a failure or a restart
+ * resumes from its checkpoints, as long as the snapshot, the trigger terms, the rules and the baseline are the same.
+ * <p>
+ * Enabled with the snapshot, when {@code assessment.snapshot.directory} is set.
+ */
+@Component
+@ConditionalOnProperty(prefix = "assessment.snapshot", name = "directory")
+public class RescoringJob {
+
+    // Levels of the last run
+    static final String LEVELS_FILE = "levels.bin";
+
+    // Terms and rules of the last run, the baseline of the next one
+    static final String BASELINE_FILE = "scoring.bin";
+
+    static final String TRANSITIONS_FILE = "transitions.csv";
+
+    static final String RUN_DIRECTORY = "run";
+
+    // Identifies what the checkpoints of the run directory were scored with
+    static final String RUN_FILE = "run.txt";
+
+    @Autowired
+    PatientSnapshotStore patientSnapshotStore;
+
+    @Autowired
+    AssessmentService assessmentService;
+
+    @Autowired
+    TriggerVocabulary triggerVocabulary;
+
+    @Autowired
+    RiskClassificationProperties riskClassificationProperties;
+
+    @Value("${assessment.rescoring.directory:${assessment.snapshot.directory}/rescoring}")
+    Path directory;
+
+    @Value("${assessment.rescoring.partition-size:10000}")
+    int partitionSize = 10000;
+
+    // Threads scoring the partitions, the number of cores when 0
+    @Value("${assessment.rescoring.parallelism:0}")
+    int parallelism;
+
+    private static Logger logger = LoggerFactory.getLogger(RescoringJob.class);
+
+    private final AtomicReference<Progress> running = new AtomicReference<>();
+
+    private volatile RescoringReport lastReport;
+
+    /**
+     * Progress of a run.
+     *
+     * @param startedAt The time the run started.
+     * @param partitions The number of partitions to score, twice those of the population when the baseline is
+     *                   scored again.
+     * @param scoredPartitions The partitions scored, or read back from their checkpoint.
+     * @param scoredPatients The patients scored by this run.
+     */
+    public record Progress(Instant startedAt, int partitions, AtomicInteger scoredPartitions, LongAdder scoredPatients) {
+    }
+
+    // Patients [start, end[ of a shard, the terms and rules to score them with, and the checkpoint file of their levels
+    private record Partition(PatientSnapshot shard, int start, int end, TriggerTermMatcher matcher,
+                             RiskClassifier classifier, Path checkpoint) {
+    }
+
+    /**
+     * Runs the re-scoring in the background.
+     *
+     * @return A Mono emitting the report of the run.
+     */
+    public Mono<RescoringReport> start() {
+        return Mono.fromCallable(this::run).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Re-scores the population of the current snapshot, resuming the interrupted run when there is one.
+     * Blocks until all the partitions are scored, prefer {@link #start()} on the request path.
+     *
+     * @return The report of the run.
+     * @throws IllegalStateException If there is no snapshot, or if a run is already in progress.
+     * @throws UncheckedIOException If the baseline can not be read, or a checkpoint, the baseline or the transitions
+     * can not be written.
+     */
+    public RescoringReport run() {
+        List<PatientSnapshot> shards = patientSnapshotStore.shards();
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("No patient snapshot to re-score yet");
+        }
+        TriggerVocabulary.Snapshot vocabulary = triggerVocabulary.current();
+        ScoringSettings settings = new ScoringSettings(shards.get(0).createdAt(), vocabulary.terms(),
+                riskClassificationProperties.getRules());
+        ScoringSettings baseline = readBaseline();
+        // With the same terms and rules, the baseline levels are the current ones
+        boolean rescoreBaseline = baseline != null && !baseline.digest().equals(settings.digest());
+        Path runDirectory = directory.resolve(RUN_DIRECTORY);
+        List<Partition> partitions = partition(shards, runDirectory, "partition-",
+                vocabulary.matcher(), new RiskClassifier(settings.rules()));
+        List<Partition> baselinePartitions = rescoreBaseline
+                ? partition(shards, runDirectory, "baseline-",
+                        new TriggerTermMatcher(baseline.terms()), new RiskClassifier(baseline.rules()))
+                : List.of();
+        List<Partition> all = new ArrayList<>(partitions);
+        all.addAll(baselinePartitions);
+        Progress progress = new Progress(Instant.now(), all.size(), new AtomicInteger(), new LongAdder());
+        if (!running.compareAndSet(null, progress)) {
+            throw new IllegalStateException("A re-scoring is already in progress");
+        }
+        try {
+            prepare(runDirectory, runIdentity(shards.get(0), settings, rescoreBaseline ? baseline : null));
+            List<Partition> remaining = new ArrayList<>();
+            for (Partition partition : all) {
+                if (Files.exists(partition.checkpoint())) {
+                    progress.scoredPartitions().incrementAndGet();
+                } else {
+                    remaining.add(partition);
+                }
+            }
+            int resumed = all.size() - remaining.size();
+            if (resumed > 0) {
+                logger.info("Re-scoring resumed, {} of {} partitions already scored", resumed, all.size());
+            }
+
+            int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new ScoreTask(remaining, progress));
+            } finally {
+                pool.shutdown();
+            }
+            long elapsed = Math.max(1, Duration.between(progress.startedAt(), Instant.now()).toMillis());
+            logger.info("{} patients re-scored in {} ms on {} threads, {} patients/s",
+                    progress.scoredPatients().sum(), elapsed, threads, progress.scoredPatients().sum() * 1000 / elapsed);
+
+            RiskLevels current = merge(partitions);
+            RiskLevels previous = baseline == null ? null : rescoreBaseline ? merge(baselinePartitions) : current;
+            RescoringReport report = compare(current, previous, settings, baseline, progress, resumed);
+            deleteRecursively(runDirectory);
+            lastReport = report;
+            logger.info("Re-scoring done, {} patients, transitions {}", report.patients(), report.transitions());
+            return report;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            running.set(null);
+        }
+    }
+
+    /**
+     * @return The progress of the run in progress, or null when none is.
+     */
+    public Progress progress() {
+        return running.get();
+    }
+
+    /**
+     * @return The report of the last run completed since startup, or null when none is.
+     */
+    public RescoringReport lastReport() {
+        return lastReport;
+    }
+
+    private List<Partition> partition(List<PatientSnapshot> shards, Path runDirectory, String prefix,
+                                      TriggerTermMatcher matcher, RiskClassifier classifier) {
+        List<Partition> partitions = new ArrayList<>();
+        for (PatientSnapshot shard : shards) {
+            for (int start = 0; start < shard.size(); start += partitionSize) {
+                Path checkpoint = runDirectory.resolve(prefix + shard.shard() + "-" + start + ".bin");
+                partitions.add(new Partition(shard, start, Math.min(start + partitionSize, shard.size()),
+                        matcher, classifier, checkpoint));
+            }
+        }
+        return partitions;
+    }
+
+    private static RiskLevels merge(List<Partition> partitions) throws IOException {
+        List<RiskLevels> parts = new ArrayList<>(partitions.size());
+        for (Partition partition : partitions) {
+            parts.add(RiskLevels.read(partition.checkpoint()));
+        }
+        return RiskLevels.merge(parts);
+    }
+
+    private ScoringSettings readBaseline() {
+        Path baselineFile = directory.resolve(BASELINE_FILE);
+        try {
+            return Files.exists(baselineFile) ? ScoringSettings.read(baselineFile) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Keeps the checkpoints scored with the same snapshot, terms, rules and baseline, removes them otherwise
+    private void prepare(Path runDirectory, String identity) throws IOException {
+        Path runFile = runDirectory.resolve(RUN_FILE);
+        if (Files.exists(runFile) && Files.readString(runFile).equals(identity)) {
+            return;
+        }
+        deleteRecursively(runDirectory);
+        Files.createDirectories(runDirectory);
+        Files.writeString(runFile, identity);
+    }
+
+    private String runIdentity(PatientSnapshot shard, ScoringSettings settings, ScoringSettings baseline) {
+        return "snapshot=" + shard.createdAt().toEpochMilli() + "\n"
+                + "shards=" + shard.shardCount() + "\n"
+                + "partition-size=" + partitionSize + "\n"
+                + "scoring=" + settings.digest() + "\n"
+                + "baseline=" + (baseline == null ? "none" : baseline.digest()) + "\n";
+    }
+
+    // Compares the levels of the same patients with the baseline and current terms and rules, writes the transitions,
+    // then makes the current terms and rules the baseline
+    private RescoringReport compare(RiskLevels current, RiskLevels previous, ScoringSettings settings,
+                                    ScoringSettings baseline, Progress progress, int resumed) throws IOException {
+        Map<String, Integer> transitions = new TreeMap<>();
+
+        Path transitionsFile = directory.resolve(TRANSITIONS_FILE);
+        Path temporary = transitionsFile.resolveSibling(TRANSITIONS_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary)) {
+            writer.write("patId,from,to\n");
+            if (previous != null) {
+                // Both are the patients of the snapshot, sorted by ID
+                for (int i = 0; i < current.size(); i++) {
+                    RiskLevel from = previous.level(i);
+                    RiskLevel to = current.level(i);
+                    if (from != to) {
+                        transitions.merge(from.getLabel() + " -> " + to.getLabel(), 1, Integer::sum);
+                        writer.write(current.id(i) + "," + from.getLabel() + "," + to.getLabel() + "\n");
+                    }
+                }
+            }
+        }
+        Files.move(temporary, transitionsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        current.write(directory.resolve(LEVELS_FILE));
+        settings.write(directory.resolve(BASELINE_FILE));
+
+        return new RescoringReport(progress.startedAt(), Instant.now(), settings.snapshotCreatedAt(),
+                baseline == null ? null : baseline.snapshotCreatedAt(), current.size(), progress.partitions(), resumed,
+                baseline == null, transitions, transitionsFile.toString());
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // Splits the partitions in halves down to a single partition, scored and checkpointed by one worker. Never
+    // serialized: ForkJoinTask is Serializable only to carry exceptions across, which this job does not rely on
+    @SuppressWarnings("serial")
+    private final class ScoreTask extends RecursiveAction {
+
+        private final List<Partition> partitions;
+
+        private final Progress progress;
+
+        private ScoreTask(List<Partition> partitions, Progress progress) {
+            this.partitions = partitions;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (partitions.size() > 1) {
+                int middle = partitions.size() / 2;
+                invokeAll(new ScoreTask(partitions.subList(0, middle), progress),
+                        new ScoreTask(partitions.subList(middle, partitions.size()), progress));
+            } else if (partitions.size() == 1) {
+                score(partitions.get(0));
+            }
+        }
+
+        private void score(Partition partition) {
+            PatientSnapshot shard = partition.shard();
+            int size = partition.end() - partition.start();
+            int[] ids = new int[size];
+            byte[] levels = new byte[size];
+            for (int i = 0; i < size; i++) {
+                int index = partition.start() + i;
+                ids[i] = shard.id(index);
+                LocalDate dob = shard.dob(index);
+                RiskLevel level = dob == null ? RiskLevel.NOT_EVALUATED : partition.classifier().classify(
+                        Sex.fromCode(shard.sex(index)),
+                        assessmentService.calculateAge(dob),
+                        assessmentService.calculateTriggerTerms(shard, index, partition.matcher()));
+                levels[i] = (byte) level.ordinal();
+            }
+            try {
+                new RiskLevels(ids, levels).write(partition.checkpoint());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            progress.scoredPartitions().incrementAndGet();
+            progress.scoredPatients().add(size);
+        }
+    }
+}
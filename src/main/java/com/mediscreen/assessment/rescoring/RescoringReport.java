@@ -0,0 +1,33 @@
+package com.mediscreen.assessment.rescoring;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Outcome of a re-scoring of the whole population.
+ *
+ * @param startedAt The time the run started.
+ * @param finishedAt The time the run finished.
+ * @param snapshotCreatedAt The time the patient snapshot scored was taken.
+ * @param baselineSnapshotCreatedAt The time the snapshot of the previous run was taken, null on the first run. Its
+ *                                  terms and rules were applied to the current snapshot, whatever changed since then.
+ * @param patients The number of patients scored.
+ * @param partitions The number of partitions scored, twice those of the population when the baseline was scored again.
+ * @param resumedPartitions The partitions already scored by an interrupted run, read back from their checkpoint.
+ * @param baseline True when there was no previous run to compare with, the terms and rules are then only recorded.
+ * @param transitions The number of patients who moved because of the change of the terms or of the rules, by
+ *                    "from -> to" labels of the levels.
+ * @param transitionsFile The CSV file listing each patient who moved.
+ */
+public record RescoringReport(
+        Instant startedAt,
+        Instant finishedAt,
+        Instant snapshotCreatedAt,
+        Instant baselineSnapshotCreatedAt,
+        int patients,
+        int partitions,
+        int resumedPartitions,
+        boolean baseline,
+        Map<String, Integer> transitions,
+        String transitionsFile) {
+}
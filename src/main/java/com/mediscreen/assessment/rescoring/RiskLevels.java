@@ -0,0 +1,142 @@
+package com.mediscreen.assessment.rescoring;
+
+import com.mediscreen.assessment.scoring.RiskLevel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable risk levels of a set of patients, sorted by patient ID, and their file.
+ * <p>
+ * Layout, big-endian: magic, count, the IDs, then one byte per patient for the ordinal of the level.
+ * The file is written next to its destination and moved in place, readers see either the previous file or the new one.
+ */
+public final class RiskLevels {
+
+    static final int MAGIC = 0x4D52534C;
+
+    private static final RiskLevel[] LEVELS = RiskLevel.values();
+
+    private final int[] ids;
+
+    private final byte[] levels;
+
+    /**
+     * @param ids The IDs of the patients, in ascending order.
+     * @param levels The ordinals of the risk levels, one per patient.
+     */
+    public RiskLevels(int[] ids, byte[] levels) {
+        if (ids.length != levels.length) {
+            throw new IllegalArgumentException(ids.length + " IDs for " + levels.length + " levels");
+        }
+        this.ids = ids;
+        this.levels = levels;
+    }
+
+    /**
+     * Merges levels of distinct patients, such as the partitions of a population.
+     *
+     * @param parts The levels to merge, no patient being in two of them.
+     * @return The levels of all the patients, sorted by ID.
+     */
+    public static RiskLevels merge(List<RiskLevels> parts) {
+        int size = parts.stream().mapToInt(RiskLevels::size).sum();
+        // The ID in the high bits and the level in the low byte, sorted at once
+        long[] packed = new long[size];
+        int i = 0;
+        for (RiskLevels part : parts) {
+            for (int j = 0; j < part.size(); j++) {
+                packed[i++] = (long) part.ids[j] << 8 | part.levels[j];
+            }
+        }
+        Arrays.sort(packed);
+        int[] ids = new int[size];
+        byte[] levels = new byte[size];
+        for (i = 0; i < size; i++) {
+            ids[i] = (int) (packed[i] >> 8);
+            levels[i] = (byte) (packed[i] & 0xFF);
+        }
+        return new RiskLevels(ids, levels);
+    }
+
+    /**
+     * Reads a file written by {@link #write(Path)}.
+     *
+     * @param file The file.
+     * @return The levels of the file.
+     * @throws IOException If the file can not be read.
+     * @throws IllegalArgumentException If the file is not a complete risk levels file.
+     */
+    public static RiskLevels read(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (Files.size(file) < 8 || input.readInt() != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a risk levels file");
+            }
+            int size = input.readInt();
+            if (Files.size(file) != 8 + 5L * size) {
+                throw new IllegalArgumentException(file + " is truncated");
+            }
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = input.readInt();
+            }
+            byte[] levels = input.readNBytes(size);
+            for (byte level : levels) {
+                if (level < 0 || level >= LEVELS.length) {
+                    throw new IllegalArgumentException(file + " has the unknown risk level " + level);
+                }
+            }
+            return new RiskLevels(ids, levels);
+        }
+    }
+
+    /**
+     * Writes the levels to a file, replaced atomically.
+     *
+     * @param file The file.
+     * @throws IOException If the file can not be written.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+            output.writeInt(MAGIC);
+            output.writeInt(ids.length);
+            for (int id : ids) {
+                output.writeInt(id);
+            }
+            output.write(levels);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The number of patients.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param index The index of a patient, from 0 to size() - 1.
+     * @return The ID of the patient.
+     */
+    public int id(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param index The index of a patient, from 0 to size() - 1.
+     * @return The risk level of the patient.
+     */
+    public RiskLevel level(int index) {
+        return LEVELS[levels[index]];
+    }
+}
@@ -0,0 +1,183 @@
+package com.mediscreen.assessment.rescoring;
+
+import com.mediscreen.assessment.config.RiskClassificationProperties.Rule;
+import com.mediscreen.assessment.scoring.RiskLevel;
+import com.mediscreen.assessment.scoring.Sex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable settings a population was scored with: the trigger terms and the risk rules themselves, and the time the
+ * snapshot scored was taken, and their file.
+ * <p>
+ * Layout, big-endian: magic, snapshot time in milliseconds, the number of terms then each term in modified UTF-8,
+ * the number of rules then, for each rule, its sex name (empty for any), minimum and maximum age, and its thresholds
+ * as a count followed by level ordinal and threshold pairs. The file is written next to its destination and moved
+ * in place.
+ */
+public final class ScoringSettings {
+
+    static final int MAGIC = 0x4D525353;
+
+    private static final RiskLevel[] LEVELS = RiskLevel.values();
+
+    private final Instant snapshotCreatedAt;
+
+    private final List<String> terms;
+
+    private final List<Rule> rules;
+
+    /**
+     * @param snapshotCreatedAt The time the snapshot scored was taken.
+     * @param terms The trigger terms, normalized.
+     * @param rules The risk classification rules, the first matching the patient applying.
+     */
+    public ScoringSettings(Instant snapshotCreatedAt, List<String> terms, List<Rule> rules) {
+        this.snapshotCreatedAt = snapshotCreatedAt;
+        this.terms = List.copyOf(terms);
+        this.rules = rules.stream().map(ScoringSettings::copy).toList();
+    }
+
+    /**
+     * Reads a file written by {@link #write(Path)}.
+     *
+     * @param file The file.
+     * @return The settings of the file.
+     * @throws IOException If the file can not be read.
+     * @throws IllegalArgumentException If the file is not a scoring settings file.
+     */
+    public static ScoringSettings read(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (Files.size(file) < 12 || input.readInt() != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a scoring settings file");
+            }
+            Instant snapshotCreatedAt = Instant.ofEpochMilli(input.readLong());
+            int termCount = input.readInt();
+            List<String> terms = new ArrayList<>(termCount);
+            for (int i = 0; i < termCount; i++) {
+                terms.add(input.readUTF());
+            }
+            int ruleCount = input.readInt();
+            List<Rule> rules = new ArrayList<>(ruleCount);
+            for (int i = 0; i < ruleCount; i++) {
+                String sex = input.readUTF();
+                int minAge = input.readInt();
+                int maxAge = input.readInt();
+                int thresholdCount = input.readInt();
+                Map<RiskLevel, Integer> thresholds = new EnumMap<>(RiskLevel.class);
+                for (int j = 0; j < thresholdCount; j++) {
+                    int level = input.readUnsignedByte();
+                    if (level >= LEVELS.length) {
+                        throw new IllegalArgumentException(file + " has the unknown risk level " + level);
+                    }
+                    thresholds.put(LEVELS[level], input.readInt());
+                }
+                rules.add(new Rule(sex.isEmpty() ? null : Sex.valueOf(sex), minAge, maxAge, thresholds));
+            }
+            return new ScoringSettings(snapshotCreatedAt, terms, rules);
+        }
+    }
+
+    /**
+     * Writes the settings to a file, replaced atomically.
+     *
+     * @param file The file.
+     * @throws IOException If the file can not be written.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeLong(snapshotCreatedAt.toEpochMilli());
+            writeScoring(output);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The SHA-256 of the terms and the rules, in hexadecimal. Two settings scoring every patient alike have
+     * the same digest, whatever their snapshot.
+     */
+    public String digest() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            writeScoring(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return The time the snapshot scored was taken.
+     */
+    public Instant snapshotCreatedAt() {
+        return snapshotCreatedAt;
+    }
+
+    /**
+     * @return The trigger terms, normalized.
+     */
+    public List<String> terms() {
+        return terms;
+    }
+
+    /**
+     * @return The risk classification rules.
+     */
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    private void writeScoring(DataOutputStream output) throws IOException {
+        output.writeInt(terms.size());
+        for (String term : terms) {
+            output.writeUTF(term);
+        }
+        output.writeInt(rules.size());
+        for (Rule rule : rules) {
+            output.writeUTF(rule.getSex() == null ? "" : rule.getSex().name());
+            output.writeInt(rule.getMinAge());
+            output.writeInt(rule.getMaxAge());
+            // The EnumMap iterates in level order
+            Map<RiskLevel, Integer> thresholds = rule.getThresholds();
+            output.writeInt(thresholds.size());
+            for (Map.Entry<RiskLevel, Integer> threshold : thresholds.entrySet()) {
+                output.writeByte(threshold.getKey().ordinal());
+                output.writeInt(threshold.getValue());
+            }
+        }
+    }
+
+    // The rules are mutable configuration properties
+    private static Rule copy(Rule rule) {
+        Map<RiskLevel, Integer> thresholds = new EnumMap<>(RiskLevel.class);
+        rule.getThresholds().forEach((level, threshold) -> {
+            if (threshold != null) {
+                thresholds.put(level, threshold);
+            }
+        });
+        return new Rule(rule.getSex(), rule.getMinAge(), rule.getMaxAge(), thresholds);
+    }
+}
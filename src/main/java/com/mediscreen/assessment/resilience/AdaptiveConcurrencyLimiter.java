@@ -0,0 +1,234 @@
+package com.mediscreen.assessment.resilience;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.web.ErrorResponse;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the number of assessment requests in progress, the limit adapting to the measured latency (AIMD).
+ * <p>
+ * Each interactive request completed within the latency target while the limit is at least half used raises the limit
+ * by one. A request slower than the target, or failed for a reason other than a client error, lowers it by the backoff
+ * ratio. When the downstream microservices slow down, fewer requests are let in, and those above the limit are
+ * rejected at once instead of waiting in queues until they time out.
+ * <p>
+ * Bulk requests have a lower priority: they are only let in while the requests in progress are below a share of the
+ * limit, the rest being kept for the interactive requests. A bulk stream lasts as long as the population takes to
+ * assess, so its duration is not a latency sample.
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    /**
+     * Priority of a request, setting the share of the limit it can use.
+     */
+    public enum Priority {
+        INTERACTIVE,
+        BULK
+    }
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long latencyTargetNanos;
+
+    private final double backoffRatio;
+
+    private final double bulkShare;
+
+    private final Duration retryAfter;
+
+    private final LongSupplier nanoClock;
+
+    private double limit;
+
+    private int inFlight;
+
+    private final long[] rejected = new long[Priority.values().length];
+
+    /**
+     * @param initialLimit The limit before any latency is measured.
+     * @param minLimit The lowest limit.
+     * @param maxLimit The highest limit.
+     * @param latencyTarget The latency above which the limit is lowered.
+     * @param backoffRatio The ratio applied to the limit when it is lowered, between 0 and 1.
+     * @param bulkShare The share of the limit the bulk requests can use, between 0 and 1.
+     * @param retryAfter The delay after which a rejected request can be sent again.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyTarget,
+                                      double backoffRatio, double bulkShare, Duration retryAfter) {
+        this(initialLimit, minLimit, maxLimit, latencyTarget, backoffRatio, bulkShare, retryAfter, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock The source of the current time in nanoseconds.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyTarget,
+                                      double backoffRatio, double bulkShare, Duration retryAfter, LongSupplier nanoClock) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1 || bulkShare <= 0 || bulkShare > 1) {
+            throw new IllegalArgumentException("Invalid concurrency limit settings");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.bulkShare = bulkShare;
+        this.retryAfter = retryAfter;
+        this.nanoClock = nanoClock;
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+    }
+
+    /**
+     * Limits a request, subscribed later.
+     * The limit is checked when called, so a rejection is thrown before any part of the response is sent. The permit
+     * itself is only taken on subscription, so a request assembled but never subscribed holds none, and each
+     * subscription holds its own. A request let in by the check but over the limit by the time it is subscribed
+     * fails with a {@link ServiceOverloadedException}.
+     *
+     * @param priority The priority of the request.
+     * @param request The request.
+     * @return The request, holding a permit from its subscription until it completes, fails or is cancelled.
+     * @throws ServiceOverloadedException If the requests in progress are at the limit of the priority.
+     */
+    public <T> Mono<T> limit(Priority priority, Mono<T> request) {
+        check(priority);
+        return Mono.using(() -> acquire(priority),
+                permit -> request
+                        .doOnSuccess(value -> permit.release(false))
+                        .doOnError(e -> permit.release(isOverload(e))),
+                Permit::cancel);
+    }
+
+    /**
+     * Limits a streamed request, subscribed later, see {@link #limit(Priority, Mono)}.
+     *
+     * @param priority The priority of the request.
+     * @param request The request.
+     * @return The request, holding a permit from its subscription until it completes, fails or is cancelled.
+     * @throws ServiceOverloadedException If the requests in progress are at the limit of the priority.
+     */
+    public <T> Flux<T> limit(Priority priority, Flux<T> request) {
+        check(priority);
+        return Flux.using(() -> acquire(priority),
+                permit -> request
+                        .doOnComplete(() -> permit.release(false))
+                        .doOnError(e -> permit.release(isOverload(e))),
+                Permit::cancel);
+    }
+
+    /**
+     * @return The current limit of the requests in progress.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The number of requests in progress.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @param priority A priority.
+     * @return The number of requests of this priority rejected since startup.
+     */
+    public synchronized long getRejected(Priority priority) {
+        return rejected[priority.ordinal()];
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("assessment.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Limit of the assessment requests in progress")
+                .register(registry);
+        Gauge.builder("assessment.concurrency.inflight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Assessment requests in progress")
+                .register(registry);
+        for (Priority priority : Priority.values()) {
+            FunctionCounter.builder("assessment.concurrency.rejected", this, limiter -> limiter.getRejected(priority))
+                    .description("Assessment requests rejected with a 503 because of the concurrency limit")
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(registry);
+        }
+    }
+
+    private synchronized void check(Priority priority) {
+        if (inFlight >= allowed(priority)) {
+            rejected[priority.ordinal()]++;
+            throw new ServiceOverloadedException(retryAfter);
+        }
+    }
+
+    private synchronized Permit acquire(Priority priority) {
+        check(priority);
+        inFlight++;
+        return new Permit(priority, nanoClock.getAsLong());
+    }
+
+    private int allowed(Priority priority) {
+        return (int) (priority == Priority.BULK ? Math.max(1, limit * bulkShare) : limit);
+    }
+
+    private synchronized void release(Priority priority, long latencyNanos, boolean overload, boolean sample) {
+        inFlight--;
+        if (!sample) {
+            return;
+        }
+        if (overload || latencyNanos > latencyTargetNanos) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (priority == Priority.INTERACTIVE && (inFlight + 1) * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    // Client errors say nothing about the load, unlike timeouts, open circuits and server errors
+    private static boolean isOverload(Throwable e) {
+        if (e instanceof ErrorResponse errorResponse) {
+            return !errorResponse.getStatusCode().is4xxClientError();
+        }
+        if (e instanceof WebClientResponseException responseException) {
+            return !responseException.getStatusCode().is4xxClientError();
+        }
+        return true;
+    }
+
+    // Given back once, whichever of the completion, the error or the cancellation comes first. The cleanup of the
+    // subscription cancels it after a completion or an error too, which is then a no-op
+    private final class Permit {
+
+        private final Priority priority;
+
+        private final long start;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Priority priority, long start) {
+            this.priority = priority;
+            this.start = start;
+        }
+
+        private void release(boolean overload) {
+            if (released.compareAndSet(false, true)) {
+                boolean sample = priority == Priority.INTERACTIVE || overload;
+                AdaptiveConcurrencyLimiter.this.release(priority, nanoClock.getAsLong() - start, overload, sample);
+            }
+        }
+
+        private void cancel() {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release(priority, 0, false, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.mediscreen.assessment.resilience;
+
+import com.mediscreen.assessment.config.DownstreamResilienceProperties;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.reactor.timelimiter.TimeLimiterOperator;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Protects the calls to the downstream microservices, so a slow or failing dependency cannot take the assessment
+ * service down with it.
+ * <p>
+ * Each attempt is bounded in time, counted by a circuit breaker, which fails fast while the dependency is failing,
+ * and limited in concurrency by a bulkhead. Failed attempts are retried with a jittered exponential backoff,
+ * within the retry budget of the dependency. Reads can be hedged: a second request is sent if the first has not
+ * answered after a delay, and the first answer wins.
+ * <p>
+ * The circuit breakers, bulkheads, retries and time limiters are the resilience4j instances named after the
+ * dependency, their outcomes are exported as resilience4j metrics.
+ */
+@Component
+public class DownstreamResilience {
+
+    public static final String PATIENT = "patient";
+    public static final String HISTORY = "history";
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+
+    private final BulkheadRegistry bulkheadRegistry;
+
+    private final RetryRegistry retryRegistry;
+
+    private final TimeLimiterRegistry timeLimiterRegistry;
+
+    private final Map<String, RetryBudget> retryBudgets;
+
+    private final DownstreamResilienceProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    public DownstreamResilience(CircuitBreakerRegistry circuitBreakerRegistry,
+                                BulkheadRegistry bulkheadRegistry,
+                                RetryRegistry retryRegistry,
+                                TimeLimiterRegistry timeLimiterRegistry,
+                                List<RetryBudget> retryBudgets,
+                                DownstreamResilienceProperties properties,
+                                MeterRegistry meterRegistry) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+        this.retryRegistry = retryRegistry;
+        this.timeLimiterRegistry = timeLimiterRegistry;
+        this.retryBudgets = retryBudgets.stream().collect(Collectors.toMap(RetryBudget::getName, Function.identity()));
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Whether a failed call can be retried: connection errors, timeouts and server errors.
+     * Client errors, an open circuit breaker or a full bulkhead are not retried.
+     *
+     * @param e The error of the call.
+     * @return true if the call can be retried.
+     */
+    public static boolean isRetryable(Throwable e) {
+        if (e instanceof WebClientResponseException responseException) {
+            return responseException.getStatusCode().is5xxServerError();
+        }
+        return e instanceof WebClientRequestException || e instanceof TimeoutException;
+    }
+
+    /**
+     * The retry predicate of a dependency: the call can be retried and the retry budget is not spent.
+     *
+     * @param retryBudget The retry budget of the dependency.
+     * @return The predicate deciding whether an error is retried.
+     */
+    public static Predicate<Throwable> retryWithin(RetryBudget retryBudget) {
+        return e -> isRetryable(e) && retryBudget.tryRetry();
+    }
+
+    /**
+     * Protects a call to a downstream microservice, with retries.
+     *
+     * @param dependency The name of the downstream microservice.
+     * @param call The Mono sending the request, subscribed again on each attempt.
+     * @return The protected call.
+     */
+    public <T> Mono<T> protect(String dependency, Mono<T> call) {
+        RetryBudget retryBudget = retryBudgets.get(dependency);
+        return Mono.defer(() -> {
+            retryBudget.recordRequest();
+            return attempt(dependency, call)
+                    .transformDeferred(RetryOperator.of(retryRegistry.retry(dependency)));
+        });
+    }
+
+    /**
+     * Protects a bulk read from a downstream microservice, such as the download of all the patients.
+     * Its time limit is the one of the {@code <dependency>-bulk} time limiter, far longer than for a single record,
+     * and it is not retried: another attempt would download everything again, on a dependency already struggling.
+     * It goes through the circuit breaker and the bulkhead of the dependency.
+     *
+     * @param dependency The name of the downstream microservice.
+     * @param call The Mono sending the request.
+     * @return The protected call.
+     */
+    public <T> Mono<T> protectBulk(String dependency, Mono<T> call) {
+        return call
+                .transformDeferred(TimeLimiterOperator.of(timeLimiterRegistry.timeLimiter(dependency + "-bulk")))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreakerRegistry.circuitBreaker(dependency)))
+                .transformDeferred(BulkheadOperator.of(bulkheadRegistry.bulkhead(dependency)));
+    }
+
+    /**
+     * Protects a streamed call to a downstream microservice. A stream is not retried, its elements may already
+     * have been consumed.
+     *
+     * @param dependency The name of the downstream microservice.
+     * @param call The Flux sending the request.
+     * @return The protected call.
+     */
+    public <T> Flux<T> protect(String dependency, Flux<T> call) {
+        return call
+                .transformDeferred(TimeLimiterOperator.of(timeLimiterRegistry.timeLimiter(dependency)))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreakerRegistry.circuitBreaker(dependency)))
+                // Outside the circuit breaker, a full bulkhead is not a failure of the dependency
+                .transformDeferred(BulkheadOperator.of(bulkheadRegistry.bulkhead(dependency)));
+    }
+
+    /**
+     * Protects a read from a downstream microservice, hedged when a hedge delay is configured for it.
+     * The hedge is only sent while the first request is pending, if the retry budget allows it, and is itself
+     * protected. When the first request fails with an error that is not retried, such as a client error or an open
+     * circuit breaker, the hedge is cancelled and the error returned at once: the hedge would fail the same way.
+     *
+     * @param dependency The name of the downstream microservice.
+     * @param call The Mono sending the request, subscribed again for the hedge.
+     * @return The protected call.
+     */
+    public <T> Mono<T> protectHedged(String dependency, Mono<T> call) {
+        Duration hedgeDelay = settings(dependency).getHedgeDelay();
+        if (hedgeDelay == null || hedgeDelay.isZero() || hedgeDelay.isNegative()) {
+            return protect(dependency, call);
+        }
+        RetryBudget retryBudget = retryBudgets.get(dependency);
+        return Mono.defer(() -> {
+            Sinks.One<Throwable> firstFailed = Sinks.one();
+            Sinks.One<Throwable> firstRejected = Sinks.one();
+            Mono<T> first = protect(dependency, call)
+                    .doOnError(e -> {
+                        firstFailed.tryEmitValue(e);
+                        if (!isRetryable(e)) {
+                            firstRejected.tryEmitValue(e);
+                        }
+                    });
+            Mono<T> hedge = Mono.delay(hedgeDelay)
+                    .takeUntilOther(firstFailed.asMono())
+                    .flatMap(tick -> {
+                        if (!retryBudget.tryRetry()) {
+                            hedges(dependency, "skipped").increment();
+                            return Mono.empty();
+                        }
+                        hedges(dependency, "sent").increment();
+                        return protect(dependency, call)
+                                .doOnNext(value -> hedges(dependency, "won").increment());
+                    })
+                    .takeUntilOther(firstRejected.asMono());
+            return Mono.firstWithValue(first, hedge);
+        })
+                // Without any value, the error of the first request is the one the caller expects
+                .onErrorMap(NoSuchElementException.class, DownstreamResilience::firstError);
+    }
+
+    private static Throwable firstError(NoSuchElementException e) {
+        if (e.getCause() != null && Exceptions.isMultiple(e.getCause())) {
+            List<Throwable> errors = Exceptions.unwrapMultiple(e.getCause());
+            if (!errors.isEmpty()) {
+                return errors.get(0);
+            }
+        }
+        return e;
+    }
+
+    private <T> Mono<T> attempt(String dependency, Mono<T> call) {
+        return call
+                .transformDeferred(TimeLimiterOperator.of(timeLimiterRegistry.timeLimiter(dependency)))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreakerRegistry.circuitBreaker(dependency)))
+                // Outside the circuit breaker, a full bulkhead is not a failure of the dependency
+                .transformDeferred(BulkheadOperator.of(bulkheadRegistry.bulkhead(dependency)));
+    }
+
+    private Counter hedges(String dependency, String outcome) {
+        return Counter.builder("assessment.downstream.hedges")
+                .description("Hedged requests sent, won, or skipped because the retry budget was spent")
+                .tag("dependency", dependency)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private DownstreamResilienceProperties.Settings settings(String dependency) {
+        return PATIENT.equals(dependency) ? properties.getPatient() : properties.getHistory();
+    }
+}
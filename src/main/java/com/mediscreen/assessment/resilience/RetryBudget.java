@@ -0,0 +1,136 @@
+package com.mediscreen.assessment.resilience;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the retries sent to a downstream microservice to a share of its requests, so retries cannot multiply
+ * the load on a service that is already failing.
+ * <p>
+ * Over a sliding window, a retry is allowed while the retries stay below a fixed reserve per second plus a ratio
+ * of the requests. Hedged requests draw on the same budget. The window is made of one-second buckets.
+ */
+public class RetryBudget implements MeterBinder {
+
+    private final String name;
+
+    private final double ratio;
+
+    private final long reserve;
+
+    private final long bucketNanos = Duration.ofSeconds(1).toNanos();
+
+    private final long[] requests;
+
+    private final long[] retries;
+
+    private final LongSupplier nanoClock;
+
+    private long currentBucket;
+
+    private long windowRequests;
+
+    private long windowRetries;
+
+    private long deniedRetries;
+
+    /**
+     * @param name The name of the downstream microservice.
+     * @param ratio The retries allowed as a share of the requests.
+     * @param minRetriesPerSecond The retries always allowed per second.
+     * @param window The window over which the requests and the retries are counted, in whole seconds.
+     */
+    public RetryBudget(String name, double ratio, int minRetriesPerSecond, Duration window) {
+        this(name, ratio, minRetriesPerSecond, window, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock The source of the current time in nanoseconds.
+     */
+    public RetryBudget(String name, double ratio, int minRetriesPerSecond, Duration window, LongSupplier nanoClock) {
+        int buckets = (int) Math.max(1, window.toSeconds());
+        this.name = name;
+        this.ratio = ratio;
+        this.reserve = (long) minRetriesPerSecond * buckets;
+        this.requests = new long[buckets];
+        this.retries = new long[buckets];
+        this.nanoClock = nanoClock;
+        this.currentBucket = nanoClock.getAsLong() / bucketNanos;
+    }
+
+    /**
+     * Counts a first attempt, which adds to the budget.
+     */
+    public synchronized void recordRequest() {
+        advance();
+        requests[index(currentBucket)]++;
+        windowRequests++;
+    }
+
+    /**
+     * Takes a retry from the budget.
+     *
+     * @return true if the retry can be sent, false if the budget is spent.
+     */
+    public synchronized boolean tryRetry() {
+        advance();
+        if (windowRetries + 1 > reserve + ratio * windowRequests) {
+            deniedRetries++;
+            return false;
+        }
+        retries[index(currentBucket)]++;
+        windowRetries++;
+        return true;
+    }
+
+    /**
+     * @return The number of retries that can still be sent in the current window.
+     */
+    public synchronized long remaining() {
+        advance();
+        return Math.max(0, (long) (reserve + ratio * windowRequests) - windowRetries);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("assessment.downstream.retry.budget.remaining", this, RetryBudget::remaining)
+                .description("Retries that can still be sent in the current window")
+                .tag("dependency", name)
+                .register(registry);
+        FunctionCounter.builder("assessment.downstream.retry.budget.denied", this, budget -> budget.denied())
+                .description("Retries not sent because the retry budget was spent")
+                .tag("dependency", name)
+                .register(registry);
+    }
+
+    private synchronized long denied() {
+        return deniedRetries;
+    }
+
+    // Empties the buckets that left the window since the last call
+    private void advance() {
+        long bucket = nanoClock.getAsLong() / bucketNanos;
+        long expired = Math.min(bucket - currentBucket, requests.length);
+        for (long b = currentBucket + 1; b <= currentBucket + expired; b++) {
+            int index = index(b);
+            windowRequests -= requests[index];
+            windowRetries -= retries[index];
+            requests[index] = 0;
+            retries[index] = 0;
+        }
+        currentBucket = Math.max(currentBucket, bucket);
+    }
+
+    private int index(long bucket) {
+        return (int) (bucket % requests.length);
+    }
+}
@@ -0,0 +1,26 @@
+package com.mediscreen.assessment.resilience;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a request is rejected because the requests in progress are at the concurrency limit, answered with
+ * a 503 and a Retry-After header.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    /**
+     * @param retryAfter The delay after which the request can be sent again.
+     */
+    public ServiceOverloadedException(Duration retryAfter) {
+        super("Too many assessment requests in progress, retry after " + retryAfter.toSeconds() + " s");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
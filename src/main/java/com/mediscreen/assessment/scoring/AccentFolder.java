@@ -0,0 +1,90 @@
+package com.mediscreen.assessment.scoring;
+
+import java.text.Normalizer;
+import java.util.regex.Pattern;
+
+/**
+ * Case and accent folding of the notes, done in a single pass over the input.
+ * <p>
+ * Latin-1 and Latin Extended-A characters are folded with a table precomputed from the reference
+ * folding (NFD decomposition, removal of the combining diacritical marks, lower case), so both
+ * always agree. Combining diacritical marks are dropped. Any other character falls back to the
+ * reference folding for the whole input.
+ */
+public final class AccentFolder {
+
+    private static final Pattern COMBINING_DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    // Latin-1 Supplement and Latin Extended-A
+    private static final int TABLE_SIZE = 0x180;
+    private static final char FALLBACK = '\uFFFF';
+    private static final char[] FOLDING_TABLE = buildFoldingTable();
+
+    private AccentFolder() {
+    }
+
+    /**
+     * Removes accents and converts a string to lowercase.
+     *
+     * @param input The input string.
+     * @return The input string with accents removed and converted to lowercase.
+     */
+    public static String fold(String input) {
+        char[] output = null;
+        int length = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            char folded;
+            if (c < TABLE_SIZE) {
+                folded = FOLDING_TABLE[c];
+            } else if (c >= '\u0300' && c <= '\u036F') {
+                // Combining diacritical mark, dropped
+                if (output == null) {
+                    output = copyPrefix(input, i);
+                }
+                continue;
+            } else {
+                folded = FALLBACK;
+            }
+            if (folded == FALLBACK) {
+                return foldWithNormalizer(input);
+            }
+            if (output == null) {
+                if (folded == c) {
+                    length++;
+                    continue;
+                }
+                output = copyPrefix(input, i);
+            }
+            output[length++] = folded;
+        }
+        return output == null ? input : new String(output, 0, length);
+    }
+
+    /**
+     * Reference folding: NFD decomposition, removal of the combining diacritical marks, lower case.
+     *
+     * @param input The input string.
+     * @return The input string with accents removed and converted to lowercase.
+     */
+    public static String foldWithNormalizer(String input) {
+        String normalized = Normalizer.normalize(input, Normalizer.Form.NFD);
+        return COMBINING_DIACRITICAL_MARKS.matcher(normalized).replaceAll("").toLowerCase();
+    }
+
+    // Allocates the single output buffer, the input being unchanged until index end
+    private static char[] copyPrefix(String input, int end) {
+        char[] output = new char[input.length()];
+        input.getChars(0, end, output, 0);
+        return output;
+    }
+
+    private static char[] buildFoldingTable() {
+        char[] table = new char[TABLE_SIZE];
+        for (char c = 0; c < TABLE_SIZE; c++) {
+            String folded = foldWithNormalizer(String.valueOf(c));
+            table[c] = folded.length() == 1 ? folded.charAt(0) : FALLBACK;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,128 @@
+package com.mediscreen.assessment.scoring;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mediscreen.assessment.model.History;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Memo of the number of trigger terms found in each note, so a re-assessment only scans the new or edited notes.
+ * <p>
+ * A note is identified by its ID and a 128-bit hash of its content, an edited note therefore gets a new entry. The
+ * content itself is not kept: an entry has the same small size whatever the length of its note, and does not keep the
+ * note alive once the history cache evicted it. Two 64-bit hashes of independent functions make the chance that an
+ * edit shares the hash of the previous content negligible.
+ * The count also depends on the version of the vocabulary, the counts of a previous vocabulary are never returned
+ * and age out of the memo.
+ * The memo is bounded in number of entries, so in memory, and counts the characters it saved from being scanned again.
+ */
+@Component
+public class NoteTriggerCountCache implements MeterBinder {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final Cache<NoteKey, Integer> counts;
+
+    private final LongAdder savedChars = new LongAdder();
+
+    private record NoteKey(String id, long contentHash, long contentHash2, int contentLength, int vocabularyVersion) {
+    }
+
+    /**
+     * @param maxSize The maximum number of notes in the memo.
+     */
+    public NoteTriggerCountCache(@Value("${assessment.cache.notes.max-size:100000}") long maxSize) {
+        this.counts = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the number of trigger terms of the note, scanning it only if it is not in the memo.
+     *
+     * @param history The history record containing the note.
+     * @param vocabularyVersion The version of the vocabulary the scanner looks for.
+     * @param scanner The function counting the trigger terms of a note.
+     * @return The number of trigger terms found in the note.
+     */
+    public int count(History history, int vocabularyVersion, ToIntFunction<String> scanner) {
+        String notes = history.getNotes();
+        if (history.getId() == null || notes == null) {
+            return scanner.applyAsInt(notes);
+        }
+
+        NoteKey key = key(history.getId(), notes, vocabularyVersion);
+        Integer stored = counts.getIfPresent(key);
+        if (stored != null) {
+            savedChars.add(notes.length());
+            return stored;
+        }
+        int count = scanner.applyAsInt(notes);
+        counts.put(key, count);
+        return count;
+    }
+
+    // Hashing is a single pass without lookups, far cheaper than scanning the note
+    private static NoteKey key(String id, String notes, int vocabularyVersion) {
+        long fnv = FNV_OFFSET_BASIS;
+        long polynomial = GOLDEN_GAMMA;
+        for (int i = 0; i < notes.length(); i++) {
+            char c = notes.charAt(i);
+            fnv = (fnv ^ c) * FNV_PRIME;
+            polynomial = (polynomial + c) * GOLDEN_GAMMA;
+        }
+        return new NoteKey(id, mix(fnv), mix(polynomial), notes.length(), vocabularyVersion);
+    }
+
+    // Final mix of MurmurHash3, so every character affects every bit
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new CaffeineCacheMetrics<>(counts, "notes", Tags.empty()).bindTo(registry);
+        FunctionCounter.builder("assessment.notes.saved", savedChars, LongAdder::sum)
+                .description("Characters of notes not scanned again thanks to the memo")
+                .baseUnit("characters")
+                .register(registry);
+    }
+
+    public CacheStats stats() {
+        return counts.stats();
+    }
+
+    /**
+     * @return The number of characters not scanned again thanks to the memo.
+     */
+    public long savedChars() {
+        return savedChars.sum();
+    }
+
+    /**
+     * @return The approximate number of notes in the memo.
+     */
+    public long size() {
+        return counts.estimatedSize();
+    }
+}
@@ -0,0 +1,132 @@
+package com.mediscreen.assessment.scoring;
+
+import com.mediscreen.assessment.config.RiskClassificationProperties.Rule;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable risk classifier compiled from a table of rules.
+ * <p>
+ * Every combination of sex, age and trigger count is classified once, when the classifier is built. A classification
+ * is then a single lookup in a flat array, without comparing strings nor allocating. Ages above {@link #MAX_AGE} are
+ * classified as {@link #MAX_AGE}, and counts above the highest threshold as the highest threshold.
+ */
+public final class RiskClassifier {
+
+    public static final int MAX_AGE = 150;
+
+    private static final int AGES = MAX_AGE + 1;
+
+    private static final RiskLevel[] GRADED_LEVELS = {RiskLevel.BORDERLINE, RiskLevel.IN_DANGER, RiskLevel.EARLY_ONSET};
+
+    // Highest count looked up, every higher count has the same level
+    private final int maxCount;
+
+    // levels[((sex * AGES) + age) * (maxCount + 1) + count]
+    private final RiskLevel[] levels;
+
+    // earlyOnsetThresholds[sex * AGES + age]
+    private final int[] earlyOnsetThresholds;
+
+    /**
+     * Compiles the lookup table of the rules.
+     *
+     * @param rules The rules, the first matching the patient applying.
+     * @throws IllegalArgumentException If the thresholds of a rule are negative or do not grow with the level.
+     */
+    public RiskClassifier(List<Rule> rules) {
+        int highest = 0;
+        for (Rule rule : rules) {
+            validate(rule);
+            for (int threshold : rule.getThresholds().values()) {
+                highest = Math.max(highest, threshold);
+            }
+        }
+        this.maxCount = highest;
+
+        Sex[] sexes = Sex.values();
+        this.levels = new RiskLevel[sexes.length * AGES * (maxCount + 1)];
+        this.earlyOnsetThresholds = new int[sexes.length * AGES];
+        for (Sex sex : sexes) {
+            for (int age = 0; age <= MAX_AGE; age++) {
+                Rule rule = firstMatching(rules, sex, age);
+                int earlyOnsetThreshold = Integer.MAX_VALUE;
+                for (int count = maxCount; count >= 0; count--) {
+                    RiskLevel level = rule == null ? RiskLevel.NOT_EVALUATED : levelOf(rule, count);
+                    levels[(sex.ordinal() * AGES + age) * (maxCount + 1) + count] = level;
+                    if (level == RiskLevel.EARLY_ONSET) {
+                        earlyOnsetThreshold = count;
+                    }
+                }
+                earlyOnsetThresholds[sex.ordinal() * AGES + age] = earlyOnsetThreshold;
+            }
+        }
+    }
+
+    /**
+     * Classifies the risk of a patient.
+     *
+     * @param sex The sex of the patient.
+     * @param age The age of the patient in years.
+     * @param nbrOfTriggerTerms The count of trigger terms found in the patient's history notes.
+     * @return The level of risk of the patient.
+     */
+    public RiskLevel classify(Sex sex, int age, int nbrOfTriggerTerms) {
+        int clampedAge = Math.min(Math.max(age, 0), MAX_AGE);
+        int clampedCount = Math.min(Math.max(nbrOfTriggerTerms, 0), maxCount);
+        return levels[(sex.ordinal() * AGES + clampedAge) * (maxCount + 1) + clampedCount];
+    }
+
+    /**
+     * Retrieves the smallest number of trigger terms for which a patient is "Early onset".
+     *
+     * @param sex The sex of the patient.
+     * @param age The age of the patient in years.
+     * @return The "Early onset" threshold, or Integer.MAX_VALUE if the patient can never be "Early onset".
+     */
+    public int earlyOnsetThreshold(Sex sex, int age) {
+        return earlyOnsetThresholds[sex.ordinal() * AGES + Math.min(Math.max(age, 0), MAX_AGE)];
+    }
+
+    private static Rule firstMatching(List<Rule> rules, Sex sex, int age) {
+        for (Rule rule : rules) {
+            if ((rule.getSex() == null || rule.getSex() == sex) && age >= rule.getMinAge() && age < rule.getMaxAge()) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    // The highest level whose threshold is reached
+    private static RiskLevel levelOf(Rule rule, int count) {
+        RiskLevel level = RiskLevel.NONE;
+        for (RiskLevel graded : GRADED_LEVELS) {
+            Integer threshold = rule.getThresholds().get(graded);
+            if (threshold != null && count >= threshold) {
+                level = graded;
+            }
+        }
+        return level;
+    }
+
+    private static void validate(Rule rule) {
+        int previous = 0;
+        for (RiskLevel graded : GRADED_LEVELS) {
+            Integer threshold = rule.getThresholds().get(graded);
+            if (threshold == null) {
+                continue;
+            }
+            if (threshold < previous) {
+                throw new IllegalArgumentException("Risk rule " + rule + ": the " + graded
+                        + " threshold must be positive and not lower than the threshold of the level below");
+            }
+            previous = threshold;
+        }
+        for (Map.Entry<RiskLevel, Integer> threshold : rule.getThresholds().entrySet()) {
+            if (threshold.getKey() == RiskLevel.NONE || threshold.getKey() == RiskLevel.NOT_EVALUATED) {
+                throw new IllegalArgumentException("Risk rule " + rule + ": " + threshold.getKey() + " can not have a threshold");
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.mediscreen.assessment.scoring;
+
+/**
+ * Diabetes risk levels, from the lowest to the highest, with the label sent in the assessments.
+ */
+public enum RiskLevel {
+    NONE("None"),
+    BORDERLINE("Borderline"),
+    IN_DANGER("In Danger"),
+    EARLY_ONSET("Early onset"),
+    // No rule of the classification applies to the patient
+    NOT_EVALUATED("Patient not evaluated");
+
+    private final String label;
+
+    RiskLevel(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return The label of the level, as sent in the assessments.
+     */
+    public String getLabel() {
+        return label;
+    }
+}
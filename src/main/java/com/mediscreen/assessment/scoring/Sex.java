@@ -0,0 +1,28 @@
+package com.mediscreen.assessment.scoring;
+
+/**
+ * Sex of a patient, as recorded by the Patient microservice.
+ */
+public enum Sex {
+    MALE,
+    FEMALE,
+    // Missing or any other code
+    UNKNOWN;
+
+    /**
+     * Converts the code of the Patient microservice.
+     *
+     * @param code M for male, F for female.
+     * @return The sex of the code, UNKNOWN for a missing or unexpected code.
+     */
+    public static Sex fromCode(String code) {
+        if (code == null || code.length() != 1) {
+            return UNKNOWN;
+        }
+        return switch (code.charAt(0)) {
+            case 'M' -> MALE;
+            case 'F' -> FEMALE;
+            default -> UNKNOWN;
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package com.mediscreen.assessment.scoring;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Immutable multi-pattern matcher (Aho-Corasick automaton) used to find the trigger terms in a note.
+ * <p>
+ * The automaton is compiled once from the term list and then scans each note in a single pass,
+ * whatever the number of terms. The transition table is dense over the alphabet of the terms only,
+ * every other character sends the automaton back to its root.
+ */
+public final class TriggerTermMatcher {
+
+    private static final int ROOT = 0;
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final List<String> terms;
+
+    // Maps a char to its column in the transition table, 0 being "not part of any term"
+    private final char[] alphabetIndex;
+    private final int alphabetSize;
+
+    // transitions[offset + column] gives the offset of the next state, offset being state * alphabetSize.
+    // The offset is stored complemented (negative) when terms end at the next state.
+    private final int[] transitions;
+
+    // Indexes of the terms ending at each state, following the dictionary suffix links
+    private final int[][] outputs;
+
+    /**
+     * Compiles the automaton for the given terms.
+     *
+     * @param terms The terms to look for, already normalized. Duplicates and empty terms are ignored.
+     */
+    public TriggerTermMatcher(List<String> terms) {
+        this.terms = List.copyOf(terms.stream().filter(term -> !term.isEmpty()).distinct().toList());
+
+        char maxChar = 0;
+        for (String term : this.terms) {
+            for (int i = 0; i < term.length(); i++) {
+                maxChar = (char) Math.max(maxChar, term.charAt(i));
+            }
+        }
+        this.alphabetIndex = new char[maxChar + 1];
+        int columns = 1;
+        for (String term : this.terms) {
+            for (int i = 0; i < term.length(); i++) {
+                char c = term.charAt(i);
+                if (alphabetIndex[c] == 0) {
+                    alphabetIndex[c] = (char) columns++;
+                }
+            }
+        }
+        this.alphabetSize = columns;
+
+        // Build the trie
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> termsEndingAt = new ArrayList<>();
+        trie.add(newRow());
+        termsEndingAt.add(new ArrayList<>());
+        for (int termIndex = 0; termIndex < this.terms.size(); termIndex++) {
+            String term = this.terms.get(termIndex);
+            int state = ROOT;
+            for (int i = 0; i < term.length(); i++) {
+                int column = alphabetIndex[term.charAt(i)];
+                if (trie.get(state)[column] < 0) {
+                    trie.get(state)[column] = trie.size();
+                    trie.add(newRow());
+                    termsEndingAt.add(new ArrayList<>());
+                }
+                state = trie.get(state)[column];
+            }
+            termsEndingAt.get(state).add(termIndex);
+        }
+
+        // Breadth-first pass to compute the failure links and turn the trie into a full automaton
+        int states = trie.size();
+        int[] fail = new int[states];
+        int[][] stateOutputs = new int[states][];
+        stateOutputs[ROOT] = toArray(termsEndingAt.get(ROOT), NO_OUTPUT);
+        Queue<Integer> queue = new ArrayDeque<>();
+        int[] rootRow = trie.get(ROOT);
+        for (int column = 0; column < alphabetSize; column++) {
+            if (column != 0 && rootRow[column] >= 0) {
+                fail[rootRow[column]] = ROOT;
+                queue.add(rootRow[column]);
+            } else {
+                rootRow[column] = ROOT;
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            stateOutputs[state] = toArray(termsEndingAt.get(state), stateOutputs[fail[state]]);
+            int[] row = trie.get(state);
+            for (int column = 0; column < alphabetSize; column++) {
+                int next = row[column];
+                if (column != 0 && next >= 0) {
+                    fail[next] = trie.get(fail[state])[column];
+                    queue.add(next);
+                } else {
+                    row[column] = trie.get(fail[state])[column];
+                }
+            }
+        }
+
+        this.transitions = new int[states * alphabetSize];
+        for (int state = 0; state < states; state++) {
+            int[] row = trie.get(state);
+            for (int column = 0; column < alphabetSize; column++) {
+                int next = row[column];
+                int nextOffset = next * alphabetSize;
+                transitions[state * alphabetSize + column] = stateOutputs[next].length > 0 ? ~nextOffset : nextOffset;
+            }
+        }
+        this.outputs = stateOutputs;
+    }
+
+    /**
+     * Counts the number of distinct terms contained in the note, each term counting at most once.
+     *
+     * @param normalizedNote The note, normalized the same way as the terms.
+     * @return The number of distinct terms found in the note.
+     */
+    public int countDistinctTerms(CharSequence normalizedNote) {
+        long[] seen = new long[(terms.size() + 63) >>> 6];
+        int found = 0;
+        int offset = ROOT;
+        for (int i = 0; i < normalizedNote.length(); i++) {
+            char c = normalizedNote.charAt(i);
+            int column = c < alphabetIndex.length ? alphabetIndex[c] : 0;
+            offset = transitions[offset + column];
+            if (offset < 0) {
+                // Some terms end here, the rare case
+                offset = ~offset;
+                for (int termIndex : outputs[offset / alphabetSize]) {
+                    long bit = 1L << termIndex;
+                    if ((seen[termIndex >>> 6] & bit) == 0) {
+                        seen[termIndex >>> 6] |= bit;
+                        found++;
+                    }
+                }
+                if (found == terms.size()) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The terms compiled in this matcher.
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+        for (int i = 0; i < own.size(); i++) {
+            merged[inherited.length + i] = own.get(i);
+        }
+        return merged;
+    }
+}
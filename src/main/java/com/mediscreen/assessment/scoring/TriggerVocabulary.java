@@ -0,0 +1,209 @@
+package com.mediscreen.assessment.scoring;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The trigger terms looked for in the notes, compiled into an immutable matcher and swapped atomically when reloaded.
+ * <p>
+ * The terms are read from an optional file, one term per line, blank lines and lines starting with # being ignored.
+ * The built-in French and English terms are used when no file is configured. The file is checked for changes at a
+ * fixed interval, and can be reloaded or replaced from the "vocabulary" actuator endpoint.
+ * <p>
+ * Readers take the current {@link Snapshot} without locking and use it for a whole assessment. A new snapshot is
+ * compiled aside before being published, and only when the terms changed, each change getting a new version.
+ */
+@Component
+public class TriggerVocabulary implements MeterBinder {
+
+    // LIST OF TRIGGERS
+    // in french and english
+    public static final List<String> DEFAULT_TERMS = List.of(
+            "hemoglobine a1c",
+            "hemoglobin a1c",
+            "microalbumine",
+            "microalbumin",
+            "taille",
+            "height",
+            "poids",
+            "weight",
+            "fumeur",
+            "smoker",
+            "anormal",
+            "abnormal",
+            "cholesterol",
+            "vertige",
+            "dizziness",
+            "rechute",
+            "relapse",
+            "reaction",
+            "anticorps",
+            "antibodies"
+    );
+
+    private static final String DEFAULT_SOURCE = "built-in";
+
+    private static Logger logger = LoggerFactory.getLogger(TriggerVocabulary.class);
+
+    /**
+     * A compiled vocabulary. The version changes with the terms, so results computed with another vocabulary can be
+     * told apart.
+     */
+    public record Snapshot(int version, TriggerTermMatcher matcher, String source) {
+
+        /**
+         * @return The terms of the vocabulary, normalized.
+         */
+        public List<String> terms() {
+            return matcher.getTerms();
+        }
+    }
+
+    private final Resource location;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+    // Last modification time of the file when it was last read, only used by the writers
+    private long lastModified;
+
+    /**
+     * Loads the vocabulary from the file, or uses the built-in terms when there is none.
+     *
+     * @param location The file of the terms, or null to use the built-in terms.
+     */
+    public TriggerVocabulary(@Value("${assessment.vocabulary.location:#{null}}") Resource location) {
+        this.location = location;
+        if (location == null) {
+            current.set(new Snapshot(1, new TriggerTermMatcher(DEFAULT_TERMS), DEFAULT_SOURCE));
+        } else {
+            lastModified = lastModified(location);
+            current.set(new Snapshot(1, new TriggerTermMatcher(read(location)), location.getDescription()));
+        }
+    }
+
+    /**
+     * Retrieves the vocabulary to use for an assessment, without locking.
+     *
+     * @return The current compiled vocabulary.
+     */
+    public Snapshot current() {
+        return current.get();
+    }
+
+    /**
+     * Reads the file of the terms again and publishes it if the terms changed.
+     *
+     * @return The current vocabulary once reloaded.
+     * @throws IllegalStateException If no file is configured.
+     */
+    public synchronized Snapshot reload() {
+        if (location == null) {
+            throw new IllegalStateException("No vocabulary file configured, set assessment.vocabulary.location");
+        }
+        lastModified = lastModified(location);
+        return publish(read(location), location.getDescription());
+    }
+
+    /**
+     * Replaces the terms, until the file changes or is reloaded.
+     *
+     * @param terms The new terms, normalized here.
+     * @param source Where the terms come from, for the logs and the endpoint.
+     * @return The current vocabulary once replaced.
+     */
+    public synchronized Snapshot replace(List<String> terms, String source) {
+        return publish(normalize(terms), source);
+    }
+
+    /**
+     * Reloads the file of the terms when it was modified since it was last read.
+     * A file that can not be read or has no term is logged and the current vocabulary kept.
+     */
+    @Scheduled(fixedDelayString = "${assessment.vocabulary.refresh-interval:PT30S}")
+    public synchronized void reloadIfModified() {
+        if (location == null || lastModified(location) == lastModified) {
+            return;
+        }
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            logger.warn("Vocabulary not reloaded from {}: {}", location.getDescription(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("assessment.vocabulary.version", current, reference -> reference.get().version())
+                .description("Version of the trigger vocabulary in use")
+                .register(registry);
+        Gauge.builder("assessment.vocabulary.terms", current, reference -> reference.get().terms().size())
+                .description("Number of trigger terms in use")
+                .register(registry);
+    }
+
+    private Snapshot publish(List<String> terms, String source) {
+        Snapshot previous = current.get();
+        if (terms.equals(previous.terms())) {
+            // Same terms, the memo and the stored assessments stay valid
+            return previous;
+        }
+        // Compiled before being published, the readers never wait for it
+        Snapshot next = new Snapshot(previous.version() + 1, new TriggerTermMatcher(terms), source);
+        current.set(next);
+        logger.info("Vocabulary version {} loaded from {} with {} terms", next.version(), source, next.terms().size());
+        return next;
+    }
+
+    private static List<String> read(Resource location) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Vocabulary file " + location.getDescription() + " can not be read", e);
+        }
+        return normalize(lines);
+    }
+
+    // Folded like the notes, without blanks nor duplicates, in their original order
+    private static List<String> normalize(List<String> terms) {
+        List<String> normalized = terms.stream()
+                .map(term -> AccentFolder.fold(term.trim()))
+                .filter(term -> !term.isEmpty())
+                .distinct()
+                .toList();
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("A vocabulary needs at least one term");
+        }
+        return normalized;
+    }
+
+    private static long lastModified(Resource location) {
+        try {
+            return location.lastModified();
+        } catch (IOException e) {
+            // Not a file, it is only read again on demand
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mediscreen.assessment.scoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint showing the trigger vocabulary in use, on /actuator/vocabulary.
+ * <p>
+ * A POST with an empty JSON object reloads the vocabulary file. A POST with comma separated "terms" replaces the terms,
+ * which changes the risk level of every patient: it is refused unless {@code assessment.vocabulary.web-replace-enabled}
+ * is set, and the actuator must then only be reachable by the operators. Otherwise the terms are changed in the file.
+ */
+@Component
+@Endpoint(id = "vocabulary")
+public class TriggerVocabularyEndpoint {
+
+    private final TriggerVocabulary triggerVocabulary;
+
+    private final boolean replaceEnabled;
+
+    private static Logger logger = LoggerFactory.getLogger(TriggerVocabularyEndpoint.class);
+
+    /**
+     * @param triggerVocabulary The vocabulary in use.
+     * @param replaceEnabled Whether the terms can be replaced through the endpoint, and not only reloaded from the file.
+     */
+    public TriggerVocabularyEndpoint(TriggerVocabulary triggerVocabulary,
+                                     @Value("${assessment.vocabulary.web-replace-enabled:false}") boolean replaceEnabled) {
+        this.triggerVocabulary = triggerVocabulary;
+        this.replaceEnabled = replaceEnabled;
+    }
+
+    /**
+     * @return The version, the source and the terms of the vocabulary in use.
+     */
+    @ReadOperation
+    public Map<String, Object> vocabulary() {
+        return describe(triggerVocabulary.current());
+    }
+
+    /**
+     * Reloads the vocabulary file, or replaces the terms.
+     *
+     * @param terms The new terms separated by commas, or null to reload the file.
+     * @return The version, the source and the terms of the vocabulary in use.
+     * @throws InvalidEndpointRequestException If there is no term, no file to reload, or the replacement is disabled,
+     * answered with a 400.
+     */
+    @WriteOperation
+    public Map<String, Object> update(@Nullable String terms) {
+        try {
+            if (terms == null) {
+                logger.info("Vocabulary reload requested");
+                return describe(triggerVocabulary.reload());
+            }
+            if (!replaceEnabled) {
+                logger.warn("Vocabulary replacement refused, assessment.vocabulary.web-replace-enabled is not set");
+                throw new IllegalStateException("Replacing the terms is disabled, change the vocabulary file instead");
+            }
+            List<String> newTerms = Arrays.asList(terms.split(","));
+            logger.info("Vocabulary replacement requested with {} terms", newTerms.size());
+            return describe(triggerVocabulary.replace(newTerms, "actuator"));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> describe(TriggerVocabulary.Snapshot snapshot) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("version", snapshot.version());
+        result.put("source", snapshot.source());
+        result.put("terms", snapshot.terms());
+        return result;
+    }
+}
@@ -1,19 +1,36 @@
 package com.mediscreen.assessment.service;
 
+import com.mediscreen.assessment.cache.AssessmentResultStore;
 import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.metrics.AssessmentMetrics;
+import com.mediscreen.assessment.metrics.AssessmentMetrics.Stage;
 import com.mediscreen.assessment.model.History;
 import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.AccentFolder;
+import com.mediscreen.assessment.scoring.NoteTriggerCountCache;
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import com.mediscreen.assessment.scoring.RiskLevel;
+import com.mediscreen.assessment.scoring.Sex;
+import com.mediscreen.assessment.scoring.TriggerTermMatcher;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.snapshot.PatientSnapshot;
+import com.mediscreen.assessment.webclient.HistoryBatchLoader;
 import com.mediscreen.assessment.webclient.HistoryWebClient;
 import com.mediscreen.assessment.webclient.PatientWebClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.text.Normalizer;
 import java.time.LocalDate;
 import java.time.Period;
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.LongFunction;
 
 /**
  * Service class that provides methods to calculate the risk assessment for a patient.
@@ -21,47 +38,276 @@ import java.util.stream.Collectors;
 @Service
 public class AssessmentService {
 
+    /**
+     * How the history of a patient is scored when assessed by ID or by name.
+     */
+    public enum ScoringMode {
+        // The whole history is retrieved, through the cache, then scored
+        COLLECT,
+        // Each note is scored as soon as it is decoded, and the history stops being read once the
+        // count reaches the "Early onset" threshold
+        STREAM
+    }
+
     @Autowired
     HistoryWebClient historyWebClient;
 
-    // LIST OF TRIGGERS
-    // in french and english
-    final static List<String> TRIGGER_TERMS = Arrays.asList(
-            "hemoglobine a1c",
-            "hemoglobin a1c",
-            "microalbumine",
-            "microalbumin",
-            "taille",
-            "height",
-            "poids",
-            "weight",
-            "fumeur",
-            "smoker",
-            "anormal",
-            "abnormal",
-            "cholesterol",
-            "vertige",
-            "dizziness",
-            "rechute",
-            "relapse",
-            "reaction",
-            "anticorps",
-            "antibodies"
-    );
+    @Autowired
+    PatientWebClient patientWebClient;
+
+    @Autowired
+    HistoryBatchLoader historyBatchLoader;
+
+    @Autowired
+    NoteTriggerCountCache noteTriggerCountCache;
+
+    @Autowired
+    AssessmentResultStore assessmentResultStore;
+
+    @Autowired
+    AssessmentMetrics assessmentMetrics;
+
+    @Autowired
+    TriggerVocabulary triggerVocabulary;
+
+    @Autowired
+    RiskClassifier riskClassifier;
+
+    // Maximum number of patients assessed at the same time by the bulk assessment
+    @Value("${assessment.bulk.concurrency:16}")
+    int bulkConcurrency = 16;
+
+    @Value("${assessment.scoring.mode:COLLECT}")
+    ScoringMode scoringMode = ScoringMode.COLLECT;
+
+    private static Logger logger = LoggerFactory.getLogger(AssessmentService.class);
+
+    /**
+     * Trigger count and fingerprint of the notes of a streamed history, updated as the notes arrive.
+     * The fingerprint does not need the patient, so the history can be read before the patient is known.
+     * A history whose reading stopped early only has the fingerprint of its first notes, which is not stored.
+     */
+    private final class RunningScore {
+
+        // All the notes of the history are scored with the same vocabulary
+        private final TriggerVocabulary.Snapshot vocabulary = triggerVocabulary.current();
+
+        private int nbrOfTriggerTerms;
+
+        private long historyFingerprint = AssessmentResultStore.EMPTY_HISTORY;
+
+        private int notes;
+
+        private boolean stoppedEarly;
+
+        private void add(History history) {
+            nbrOfTriggerTerms += countTriggerTerms(history, vocabulary);
+            historyFingerprint = AssessmentResultStore.fingerprint(historyFingerprint, history);
+            notes++;
+        }
+
+        private long fingerprint(Patient patient) {
+            return stoppedEarly
+                    ? AssessmentResultStore.PARTIAL_HISTORY
+                    : AssessmentResultStore.fingerprint(patient, historyFingerprint);
+        }
+    }
+
+    /**
+     * Calculates the risk assessment for the patient with the given ID, without blocking.
+     * A stored assessment is returned when still valid, otherwise the patient and their history
+     * are retrieved at the same time.
+     * In the STREAM scoring mode, the notes are scored as they arrive and are not cached.
+     *
+     * @param patId The ID of the patient for whom the risk assessment is to be calculated.
+     * @return A Mono emitting an AssessmentDTO containing the patient's risk assessment information.
+     */
+    public Mono<AssessmentDTO> assess(Integer patId) {
+        if (scoringMode == ScoringMode.STREAM) {
+            return storedOr(patId, generation -> Mono.defer(() -> {
+                // The history is read while the patient is retrieved, it can stop early once the patient is known
+                AtomicInteger threshold = new AtomicInteger(Integer.MAX_VALUE);
+                Mono<Patient> patient = patientWebClient.findById(patId)
+                        .doOnNext(p -> threshold.set(calculateEarlyOnsetThreshold(p.getSex(), calculateAge(p.getDob()))));
+                return Mono.zip(patient, scoreStream(historyWebClient.streamById(patId), threshold::get))
+                        .map(patientAndScore -> buildAndStore(patientAndScore.getT1(), patientAndScore.getT2(), generation));
+            }));
+        }
+        return storedOr(patId, generation -> Mono.zip(patientWebClient.findById(patId), historyWebClient.findById(patId))
+                .map(patientAndHistories -> buildAndStore(patientAndHistories.getT1(), patientAndHistories.getT2(), generation)));
+    }
+
+    /**
+     * Calculates the risk assessment for the given patient, without blocking.
+     * A stored assessment is returned when still valid.
+     * In the STREAM scoring mode, the notes are scored as they arrive and are not cached.
+     *
+     * @param patient The patient for whom the risk assessment is to be calculated.
+     * @return A Mono emitting an AssessmentDTO containing the patient's risk assessment information.
+     */
+    public Mono<AssessmentDTO> assess(Patient patient) {
+        if (scoringMode == ScoringMode.STREAM) {
+            return storedOr(patient.getId(), generation -> Mono.defer(() -> {
+                int threshold = calculateEarlyOnsetThreshold(patient.getSex(), calculateAge(patient.getDob()));
+                return scoreStream(historyWebClient.streamById(patient.getId()), () -> threshold)
+                        .map(score -> buildAndStore(patient, score, generation));
+            }));
+        }
+        return storedOr(patient.getId(), generation -> historyWebClient.findById(patient.getId())
+                .map(histories -> buildAndStore(patient, histories, generation)));
+    }
+
+    /**
+     * Calculates the risk assessment of several patients, without blocking.
+     * The assessments are emitted as soon as they are ready, not in the order of the IDs.
+     * The histories are retrieved in batches, a patient whose assessment fails is logged and skipped.
+     *
+     * @param patIds The IDs of the patients to assess, or null or empty to assess all the patients.
+     * @return A Flux emitting the AssessmentDTO of each patient.
+     */
+    public Flux<AssessmentDTO> assessAll(List<Integer> patIds) {
+        if (patIds == null || patIds.isEmpty()) {
+            return patientWebClient.findAll()
+                    .flatMapMany(Flux::fromIterable)
+                    .flatMap(patient -> storedOr(patient.getId(), generation -> historyBatchLoader.load(patient.getId())
+                                    .map(histories -> buildAndStore(patient, histories, generation)))
+                            .onErrorResume(e -> skip(patient.getId(), e)), bulkConcurrency);
+        }
+        return Flux.fromIterable(patIds)
+                .flatMap(patId -> storedOr(patId, generation -> Mono.zip(patientWebClient.findById(patId), historyBatchLoader.load(patId))
+                                .map(patientAndHistories -> buildAndStore(patientAndHistories.getT1(), patientAndHistories.getT2(), generation)))
+                        .onErrorResume(e -> skip(patId, e)), bulkConcurrency);
+    }
+
+    /**
+     * Recomputes the assessment of a patient whose record or history changed.
+     * Only a stored assessment is recomputed, the others are computed on the next request.
+     *
+     * @param patId The ID of the patient whose record or history changed.
+     */
+    public void refresh(Integer patId) {
+        if (assessmentResultStore.invalidate(patId).isPresent()) {
+            assess(patId).subscribe(
+                    assessment -> { },
+                    e -> logger.warn("Patient {} assessment not recomputed: {}", patId, e.getMessage()));
+        }
+    }
+
+    // The computation is given the generation of the patient before any input is read, see AssessmentResultStore
+    private Mono<AssessmentDTO> storedOr(Integer patId, LongFunction<Mono<AssessmentDTO>> computation) {
+        return Mono.defer(() -> {
+            long generation = assessmentResultStore.generation(patId);
+            return assessmentResultStore.get(patId, triggerVocabulary.current().version())
+                    .map(Mono::just)
+                    .orElseGet(() -> computation.apply(generation));
+        });
+    }
+
+    private AssessmentDTO buildAndStore(Patient patient, List<History> histories, long generation) {
+        TriggerVocabulary.Snapshot vocabulary = triggerVocabulary.current();
+        AssessmentDTO assessment = buildAssessment(patient, histories, vocabulary);
+        assessmentResultStore.put(patient, histories, vocabulary.version(), assessment, generation);
+        return assessment;
+    }
+
+    private AssessmentDTO buildAndStore(Patient patient, RunningScore score, long generation) {
+        // The size of a history read partly is unknown
+        if (!score.stoppedEarly) {
+            assessmentMetrics.recordNotesPerPatient(score.notes);
+        }
+        AssessmentDTO assessment = buildAssessment(patient, score.nbrOfTriggerTerms);
+        assessmentResultStore.put(patient, score.fingerprint(patient), score.vocabulary.version(), assessment, generation);
+        return assessment;
+    }
+
+    /**
+     * Scores the notes of a history as they arrive, keeping only a running count.
+     * The history stops being read once the count reaches the threshold, more notes could not change the risk.
+     */
+    private Mono<RunningScore> scoreStream(Flux<History> histories, IntSupplier earlyOnsetThreshold) {
+        return Mono.defer(() -> {
+            RunningScore score = new RunningScore();
+            return histories
+                    .doOnNext(score::add)
+                    .takeUntil(history -> {
+                        score.stoppedEarly = score.nbrOfTriggerTerms >= earlyOnsetThreshold.getAsInt();
+                        return score.stoppedEarly;
+                    })
+                    .then(Mono.fromSupplier(() -> score));
+        });
+    }
+
+    private Mono<AssessmentDTO> skip(Integer patId, Throwable e) {
+        logger.warn("Patient {} skipped from the bulk assessment: {}", patId, e.getMessage());
+        return Mono.empty();
+    }
+
+    /**
+     * Calculates the risk assessment of a patient of a local snapshot, without any call to the downstream microservices.
+     * The notes of the snapshot are already folded, they are matched in place.
+     *
+     * @param snapshot The snapshot holding the patient.
+     * @param index The index of the patient in the snapshot.
+     * @return An AssessmentDTO containing the patient's risk assessment information.
+     */
+    public AssessmentDTO assess(PatientSnapshot snapshot, int index) {
+        int nbrOfTriggerTerms = calculateTriggerTerms(snapshot, index, triggerVocabulary.current().matcher());
+        return buildAssessment(snapshot.patient(index), nbrOfTriggerTerms);
+    }
+
+    /**
+     * Counts the trigger terms in the history of a patient of a local snapshot, the notes being matched in place.
+     *
+     * @param snapshot The snapshot holding the patient.
+     * @param index The index of the patient in the snapshot.
+     * @param matcher The matcher of the trigger terms, the same for a whole batch.
+     * @return The total count of trigger terms found in the patient's history notes.
+     */
+    public int calculateTriggerTerms(PatientSnapshot snapshot, int index, TriggerTermMatcher matcher) {
+        int nbrOfTriggerTerms = 0;
+        for (int note = 0; note < snapshot.noteCount(index); note++) {
+            CharSequence notes = snapshot.normalizedNotes(index, note);
+            if (notes != null) {
+                nbrOfTriggerTerms += matcher.countDistinctTerms(notes);
+            }
+        }
+        return nbrOfTriggerTerms;
+    }
 
     /**
      * Calculates the risk assessment for the given patient.
+     * Blocks until the history is retrieved, prefer {@link #assess(Patient)} on the request path.
      *
      * @param patient The patient for whom the risk assessment is to be calculated.
      * @return An AssessmentDTO containing the patient's risk assessment information.
      */
     public AssessmentDTO getAssessment(Patient patient) {
-        List<History> histories = historyWebClient.findById(patient.getId()).block();
+        return assess(patient).block();
+    }
+
+    /**
+     * Builds the risk assessment from the patient and their history.
+     *
+     * @param patient The patient for whom the risk assessment is to be calculated.
+     * @param histories The history records of the patient.
+     * @return An AssessmentDTO containing the patient's risk assessment information.
+     */
+    public AssessmentDTO buildAssessment(Patient patient, List<History> histories) {
+        return buildAssessment(patient, histories, triggerVocabulary.current());
+    }
+
+    private AssessmentDTO buildAssessment(Patient patient, List<History> histories, TriggerVocabulary.Snapshot vocabulary) {
+        assessmentMetrics.recordNotesPerPatient(histories.size());
+        return buildAssessment(patient, calculateTriggerTerms(histories, vocabulary));
+    }
+
+    private AssessmentDTO buildAssessment(Patient patient, int nbrOfTriggerTerms) {
         String sex = patient.getSex();
 
         int age = calculateAge(patient.getDob());
-        int nbrOfTriggerTerms = calculateTriggerTerms(histories);
+        long start = System.nanoTime();
         String levelOfRisk = calculateLevelOfRisk(sex, age, nbrOfTriggerTerms);
+        assessmentMetrics.recordStage(Stage.CLASSIFICATION, start);
 
         AssessmentDTO assessment = new AssessmentDTO(
                 patient.getId(),
@@ -92,41 +338,64 @@ public class AssessmentService {
      * @return The input string with accents removed and converted to lowercase.
      */
     public String toLowerCaseWithoutAccents(String input) {
-        String normalized = Normalizer.normalize(input, Normalizer.Form.NFD);
-        return normalized.replaceAll("\\p{InCombiningDiacriticalMarks}+", "").toLowerCase();
+        return AccentFolder.fold(input);
     }
 
     /**
      * Calculates the number of trigger terms present in the patient's history notes.
+     * The notes already scanned in a previous assessment are not scanned again.
      *
      * @param histories The list of history objects containing patient's historical medical notes.
      * @return The count of trigger terms found in the patient's history notes.
      */
     public int calculateTriggerTerms(List<History> histories) {
-        // Get the list of notes for each History object
-        List<String> notes = histories.stream()
-                .map(History::getNotes)
-                .map(this::toLowerCaseWithoutAccents)
-                .collect(Collectors.toList());
+        return calculateTriggerTerms(histories, triggerVocabulary.current());
+    }
 
+    private int calculateTriggerTerms(List<History> histories, TriggerVocabulary.Snapshot vocabulary) {
         int count = 0;
 
-        //Iterate on each term
-        for (String term : TRIGGER_TERMS) {
-            //Iterate on each note
-            for (String note : notes) {
-                //Add one if the note contain the term
-                if (note.contains(term)) {
-                    count += 1;
-                }
-            }
+        //Iterate on each note, each term found in the note adds one
+        for (History history : histories) {
+            count += countTriggerTerms(history, vocabulary);
+        }
+
+        return count;
+    }
+
+    private int countTriggerTerms(History history, TriggerVocabulary.Snapshot vocabulary) {
+        if (history.getNotes() != null) {
+            assessmentMetrics.recordNoteLength(history.getNotes().length());
         }
+        return noteTriggerCountCache.count(history, vocabulary.version(), notes -> scanTriggerTerms(notes, vocabulary.matcher()));
+    }
+
+    private int scanTriggerTerms(String notes, TriggerTermMatcher matcher) {
+        long start = System.nanoTime();
+        String normalizedNotes = toLowerCaseWithoutAccents(notes);
+        assessmentMetrics.recordStage(Stage.NORMALIZATION, start);
 
+        start = System.nanoTime();
+        int count = matcher.countDistinctTerms(normalizedNotes);
+        assessmentMetrics.recordStage(Stage.MATCHING, start);
         return count;
     }
 
+    /**
+     * Calculates the smallest number of trigger terms for which the patient is assessed "Early onset".
+     * The level of risk only grows with the number of trigger terms, so more notes cannot change it past this count.
+     *
+     * @param sex The sex of the patient (M for male, F for female).
+     * @param age The age of the patient in years.
+     * @return The "Early onset" threshold, or Integer.MAX_VALUE if the patient can never be "Early onset".
+     */
+    public int calculateEarlyOnsetThreshold(String sex, int age) {
+        return riskClassifier.earlyOnsetThreshold(Sex.fromCode(sex), age);
+    }
+
     /**
      * Calculates the level of risk based on the patient's sex, age, and the number of trigger terms.
+     * The rules are looked up in the table compiled from the configuration, see {@link RiskClassifier}.
      *
      * @param sex The sex of the patient (M for male, F for female).
      * @param age The age of the patient in years.
@@ -134,41 +403,18 @@ public class AssessmentService {
      * @return A String representing the level of risk for the patient.
      */
     public String calculateLevelOfRisk(String sex, int age, int NbrOfTriggerTerms) {
+        return calculateRiskLevel(sex, age, NbrOfTriggerTerms).getLabel();
+    }
 
-        // If the patient is more than 30yo
-        if (age >= 30) {
-            if (NbrOfTriggerTerms <= 1) {
-                return "None";
-            } else if (NbrOfTriggerTerms <= 5) {
-                return "Borderline";
-            } else if (NbrOfTriggerTerms <= 7) {
-                return "In Danger";
-            } else {
-                return "Early onset";
-            }
-
-            // If the patient is less than 30yo and a man
-        } else if (age < 30 && sex.equals("M")) {
-            if (NbrOfTriggerTerms <= 2) {
-                return "None";
-            } else if (NbrOfTriggerTerms <= 4) {
-                return "In Danger";
-            } else {
-                return "Early onset";
-            }
-
-            // If the patient is less than 30yo and a woman
-        } else if (age < 30 && sex.equals("F")) {
-            if (NbrOfTriggerTerms <= 3) {
-                return "None";
-            } else if (NbrOfTriggerTerms <= 6) {
-                return "In Danger";
-            } else {
-                return "Early onset";
-            }
-        } else {
-            // If the evaluation didn't work
-            return "Patient not evaluated";
-        }
+    /**
+     * Calculates the level of risk like {@link #calculateLevelOfRisk(String, int, int)}, as a {@link RiskLevel}.
+     *
+     * @param sex The sex of the patient (M for male, F for female).
+     * @param age The age of the patient in years.
+     * @param nbrOfTriggerTerms The count of trigger terms found in the patient's history notes.
+     * @return The level of risk of the patient.
+     */
+    public RiskLevel calculateRiskLevel(String sex, int age, int nbrOfTriggerTerms) {
+        return riskClassifier.classify(Sex.fromCode(sex), age, nbrOfTriggerTerms);
     }
 }
@@ -0,0 +1,279 @@
+package com.mediscreen.assessment.snapshot;
+
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Read-only view of a snapshot file of patients and their history, mapped in memory.
+ * <p>
+ * The file holds one shard of the patients (those whose ID modulo the shard count is the shard number), in fixed-size
+ * records sorted by ID, so a patient is found by binary search and read without deserialization. The notes are stored
+ * folded like the notes scored by the assessment, as UTF-16 ranges of a single character area: they are matched
+ * in place through {@link CharSequence} views of the mapped file, without copying them.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * header   magic, format version, creation time, shard, shard count, patient count, note count, char count
+ * patients id, date of birth, fingerprint, first note, note count, family, given, sex, address, phone
+ * notes    history id, creation date, folded notes
+ * chars    the strings, each referenced by a char offset and a length (-1 when null)
+ * </pre>
+ * Instances are immutable and can be read by several threads.
+ */
+public final class PatientSnapshot {
+
+    static final int MAGIC = 0x4D534E50;
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 40;
+    static final int PATIENT_SIZE = 64;
+    static final int NOTE_SIZE = 20;
+
+    // Date of birth or creation date missing
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final Path file;
+
+    private final ByteBuffer buffer;
+
+    private final CharBuffer chars;
+
+    private final Instant createdAt;
+
+    private final int shard;
+
+    private final int shardCount;
+
+    private final int size;
+
+    private final int noteCount;
+
+    private final int notesOffset;
+
+    private PatientSnapshot(Path file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(file + " is not a patient snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException(file + " has the unsupported format version " + buffer.getInt(4));
+        }
+        this.createdAt = Instant.ofEpochMilli(buffer.getLong(8));
+        this.shard = buffer.getInt(16);
+        this.shardCount = buffer.getInt(20);
+        this.size = buffer.getInt(24);
+        this.noteCount = buffer.getInt(28);
+        this.notesOffset = HEADER_SIZE + size * PATIENT_SIZE;
+        int charsOffset = notesOffset + noteCount * NOTE_SIZE;
+        long charCount = buffer.getLong(32);
+        if ((long) charsOffset + 2 * charCount != buffer.capacity()) {
+            throw new IllegalArgumentException(file + " is truncated");
+        }
+        this.chars = buffer.slice(charsOffset, (int) (2 * charCount)).asCharBuffer();
+    }
+
+    /**
+     * Maps a snapshot file in memory.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file can not be read.
+     * @throws IllegalArgumentException If the file is not a complete snapshot of a supported version.
+     */
+    public static PatientSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PatientSnapshot(file, buffer);
+        }
+    }
+
+    /**
+     * @return The snapshot file.
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * @return The time the snapshot was taken.
+     */
+    public Instant createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return The shard of the patients held by the file.
+     */
+    public int shard() {
+        return shard;
+    }
+
+    /**
+     * @return The number of shards of the snapshot.
+     */
+    public int shardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return The number of patients in the file.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of history records in the file.
+     */
+    public int noteCount() {
+        return noteCount;
+    }
+
+    /**
+     * Finds a patient by ID.
+     *
+     * @param patId The ID of the patient.
+     * @return The index of the patient, or -1 when the patient is not in the file.
+     */
+    public int indexOf(int patId) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = id(middle);
+            if (id < patId) {
+                low = middle + 1;
+            } else if (id > patId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index The index of a patient, from 0 to size() - 1.
+     * @return The ID of the patient.
+     */
+    public int id(int index) {
+        return buffer.getInt(patientOffset(index));
+    }
+
+    /**
+     * Reads the record of a patient.
+     *
+     * @param index The index of the patient.
+     * @return The patient.
+     */
+    public Patient patient(int index) {
+        int offset = patientOffset(index);
+        return new Patient(
+                buffer.getInt(offset),
+                string(offset + 24),
+                string(offset + 32),
+                string(offset + 40),
+                date(offset + 4),
+                string(offset + 48),
+                string(offset + 56));
+    }
+
+    /**
+     * @param index The index of a patient.
+     * @return The date of birth of the patient, or null when unknown.
+     */
+    public LocalDate dob(int index) {
+        return date(patientOffset(index) + 4);
+    }
+
+    /**
+     * @param index The index of a patient.
+     * @return The sex code of the patient, or null when unknown.
+     */
+    public String sex(int index) {
+        return string(patientOffset(index) + 40);
+    }
+
+    /**
+     * @param index The index of a patient.
+     * @return The fingerprint of the patient and their history, see {@code AssessmentResultStore.fingerprint}.
+     */
+    public long fingerprint(int index) {
+        return buffer.getLong(patientOffset(index) + 8);
+    }
+
+    /**
+     * @param index The index of a patient.
+     * @return The number of history records of the patient.
+     */
+    public int noteCount(int index) {
+        return buffer.getInt(patientOffset(index) + 20);
+    }
+
+    /**
+     * The folded notes of a history record, read in place.
+     *
+     * @param index The index of the patient.
+     * @param note The index of the record in the history of the patient, from 0 to noteCount(index) - 1.
+     * @return The notes, case and accents folded, or null when the record has no notes.
+     */
+    public CharSequence normalizedNotes(int index, int note) {
+        int offset = noteOffset(index, note) + 12;
+        int length = buffer.getInt(offset + 4);
+        return length < 0 ? null : chars.slice(buffer.getInt(offset), length);
+    }
+
+    /**
+     * Reads a history record, with its folded notes.
+     *
+     * @param index The index of the patient.
+     * @param note The index of the record in the history of the patient.
+     * @return The history record.
+     */
+    public History history(int index, int note) {
+        int offset = noteOffset(index, note);
+        History history = new History();
+        history.setId(string(offset));
+        history.setPatId(id(index));
+        history.setCreationDate(date(offset + 8));
+        CharSequence notes = normalizedNotes(index, note);
+        history.setNotes(notes == null ? null : notes.toString());
+        return history;
+    }
+
+    private int patientOffset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return HEADER_SIZE + index * PATIENT_SIZE;
+    }
+
+    private int noteOffset(int index, int note) {
+        int patientOffset = patientOffset(index);
+        if (note < 0 || note >= buffer.getInt(patientOffset + 20)) {
+            throw new IndexOutOfBoundsException(note);
+        }
+        return notesOffset + (buffer.getInt(patientOffset + 16) + note) * NOTE_SIZE;
+    }
+
+    private String string(int offset) {
+        int length = buffer.getInt(offset + 4);
+        return length < 0 ? null : chars.slice(buffer.getInt(offset), length).toString();
+    }
+
+    private LocalDate date(int offset) {
+        int epochDay = buffer.getInt(offset);
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
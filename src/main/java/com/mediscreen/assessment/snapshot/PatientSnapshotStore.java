@@ -0,0 +1,283 @@
+package com.mediscreen.assessment.snapshot;
+
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.webclient.HistoryBatchLoader;
+import com.mediscreen.assessment.webclient.PatientWebClient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuples;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Local snapshot of all the patients and their history, sharded by patient ID into memory-mapped files.
+ * <p>
+ * A background sync reads the patients and their history from the microservices at a fixed interval and writes a new
+ * snapshot, swapped in once all the shards are written. At startup, a recent enough snapshot fills the assessment
+ * store, so a restarted instance serves stored assessments at once. The changes made since the snapshot was taken were
+ * not notified to this instance: the restored assessments are only served until the snapshot is
+ * {@code assessment.snapshot.max-age} old, then computed again. Each sync also removes the stored assessments whose
+ * inputs differ from the new snapshot, catching up with the notifications missed. Batch jobs can also score the whole population
+ * from the snapshot with {@link AssessmentService#assess(PatientSnapshot, int)}, without the microservices.
+ * <p>
+ * Enabled when {@code assessment.snapshot.directory} is set.
+ */
+@Component
+@ConditionalOnProperty(prefix = "assessment.snapshot", name = "directory")
+public class PatientSnapshotStore implements MeterBinder {
+
+    @Autowired
+    PatientWebClient patientWebClient;
+
+    @Autowired
+    HistoryBatchLoader historyBatchLoader;
+
+    @Autowired
+    AssessmentService assessmentService;
+
+    @Autowired
+    AssessmentResultStore assessmentResultStore;
+
+    @Autowired
+    TriggerVocabulary triggerVocabulary;
+
+    @Value("${assessment.snapshot.directory}")
+    Path directory;
+
+    @Value("${assessment.snapshot.shards:4}")
+    int shardCount = 4;
+
+    // A snapshot older than this is not used to fill the assessment store at startup
+    @Value("${assessment.snapshot.max-age:PT6H}")
+    Duration maxAge = Duration.ofHours(6);
+
+    // Patients whose history is read at the same time by the sync
+    @Value("${assessment.bulk.concurrency:16}")
+    int concurrency = 16;
+
+    private static Logger logger = LoggerFactory.getLogger(PatientSnapshotStore.class);
+
+    private final AtomicReference<List<PatientSnapshot>> shards = new AtomicReference<>(List.of());
+
+    private final AtomicBoolean syncing = new AtomicBoolean();
+
+    /**
+     * Opens the snapshot left by a previous run and, when it is recent enough, stores the assessment of its patients.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmStart() {
+        try {
+            List<PatientSnapshot> opened = open();
+            if (opened.isEmpty()) {
+                logger.info("No patient snapshot in {}", directory);
+                return;
+            }
+            shards.set(opened);
+            Duration age = Duration.between(opened.get(0).createdAt(), Instant.now());
+            if (age.compareTo(maxAge) > 0) {
+                logger.info("Patient snapshot of {} not used to warm the assessment store, older than {}",
+                        opened.get(0).createdAt(), maxAge);
+                return;
+            }
+            long start = System.nanoTime();
+            int restored = restoreAssessments(opened);
+            logger.info("{} assessments restored from the patient snapshot of {} in {} ms",
+                    restored, opened.get(0).createdAt(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Patient snapshot not opened: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a new snapshot in the background, at a fixed interval.
+     */
+    @Scheduled(fixedDelayString = "${assessment.snapshot.sync-interval:PT1H}",
+            initialDelayString = "${assessment.snapshot.initial-delay:PT1M}")
+    public void scheduledSync() {
+        sync().subscribe(
+                size -> logger.info("Patient snapshot written with {} patients", size),
+                e -> logger.warn("Patient snapshot not written: {}", e.getMessage()));
+    }
+
+    /**
+     * Reads all the patients and their history, writes them in a new snapshot and swaps it in.
+     * The previous snapshot is kept when a patient or a history can not be read.
+     *
+     * @return A Mono emitting the number of patients written, empty when a sync is already running.
+     */
+    public Mono<Integer> sync() {
+        return Mono.defer(() -> {
+            if (!syncing.compareAndSet(false, true)) {
+                return Mono.empty();
+            }
+            // Cleared before the result is signalled, so a sync requested right after this one is not skipped
+            return patientWebClient.findAll()
+                    .flatMap(this::write)
+                    .doOnTerminate(() -> syncing.set(false))
+                    .doOnCancel(() -> syncing.set(false));
+        });
+    }
+
+    /**
+     * @return The shards of the current snapshot, empty when there is none.
+     */
+    public List<PatientSnapshot> shards() {
+        return shards.get();
+    }
+
+    /**
+     * Reads a patient from the current snapshot.
+     *
+     * @param patId The ID of the patient.
+     * @return The patient, or an empty Optional when not in the snapshot.
+     */
+    public Optional<Patient> findPatient(int patId) {
+        List<PatientSnapshot> current = shards.get();
+        if (current.isEmpty()) {
+            return Optional.empty();
+        }
+        PatientSnapshot shard = current.get(Math.floorMod(patId, current.size()));
+        int index = shard.indexOf(patId);
+        return index < 0 ? Optional.empty() : Optional.of(shard.patient(index));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("assessment.snapshot.patients", shards,
+                        reference -> reference.get().stream().mapToInt(PatientSnapshot::size).sum())
+                .description("Number of patients in the local snapshot")
+                .register(registry);
+        Gauge.builder("assessment.snapshot.age", shards, reference -> reference.get().isEmpty() ? Double.NaN
+                        : Duration.between(reference.get().get(0).createdAt(), Instant.now()).toSeconds())
+                .description("Age of the local snapshot")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private Mono<Integer> write(List<Patient> patients) {
+        Instant createdAt = Instant.now();
+        List<PatientSnapshotWriter> writers = new ArrayList<>();
+        return Mono.fromCallable(() -> {
+                    Files.createDirectories(directory);
+                    for (int shard = 0; shard < shardCount; shard++) {
+                        writers.add(new PatientSnapshotWriter(shardFile(shard), createdAt, shard, shardCount));
+                    }
+                    return writers;
+                })
+                // The histories are read in ID order, and written by one thread at a time
+                .thenMany(Flux.fromIterable(patients)
+                        .filter(patient -> patient.getId() != null)
+                        .sort(Comparator.comparing(Patient::getId))
+                        .flatMapSequential(patient -> historyBatchLoader.load(patient.getId())
+                                .map(histories -> Tuples.of(patient, histories)), concurrency))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(patientAndHistories -> {
+                    Patient patient = patientAndHistories.getT1();
+                    try {
+                        writers.get(Math.floorMod(patient.getId(), shardCount)).write(patient, patientAndHistories.getT2());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .then(Mono.fromCallable(() -> {
+                    int written = 0;
+                    for (PatientSnapshotWriter writer : writers) {
+                        written += writer.commit();
+                    }
+                    List<PatientSnapshot> opened = open();
+                    shards.set(opened);
+                    int changed = invalidateChanged(opened);
+                    if (changed > 0) {
+                        logger.info("{} stored assessments removed, their patient changed without notification", changed);
+                    }
+                    return written;
+                }))
+                .doFinally(signal -> writers.forEach(writer -> {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        logger.warn("Temporary snapshot files not removed: {}", e.getMessage());
+                    }
+                }));
+    }
+
+    // The shards of the snapshot in the directory, empty when missing or from different syncs
+    private List<PatientSnapshot> open() throws IOException {
+        List<PatientSnapshot> opened = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            Path file = shardFile(shard);
+            if (!Files.exists(file)) {
+                return List.of();
+            }
+            PatientSnapshot snapshot = PatientSnapshot.open(file);
+            if (snapshot.shard() != shard || snapshot.shardCount() != shardCount
+                    || !opened.isEmpty() && !snapshot.createdAt().equals(opened.get(0).createdAt())) {
+                logger.warn("Patient snapshot in {} ignored, its shards do not match", directory);
+                return List.of();
+            }
+            opened.add(snapshot);
+        }
+        return List.copyOf(opened);
+    }
+
+    private int restoreAssessments(List<PatientSnapshot> opened) {
+        int vocabularyVersion = triggerVocabulary.current().version();
+        Instant expiresAt = opened.get(0).createdAt().plus(maxAge);
+        int restored = 0;
+        for (PatientSnapshot shard : opened) {
+            for (int index = 0; index < shard.size(); index++) {
+                Patient patient = shard.patient(index);
+                if (patient.getDob() != null) {
+                    long generation = assessmentResultStore.generation(patient.getId());
+                    assessmentResultStore.put(patient, shard.fingerprint(index), vocabularyVersion,
+                            assessmentService.assess(shard, index), generation, expiresAt);
+                    restored++;
+                }
+            }
+        }
+        return restored;
+    }
+
+    private int invalidateChanged(List<PatientSnapshot> opened) {
+        int changed = 0;
+        for (PatientSnapshot shard : opened) {
+            for (int index = 0; index < shard.size(); index++) {
+                if (assessmentResultStore.invalidateIfChanged(shard.id(index), shard.fingerprint(index))) {
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private Path shardFile(int shard) {
+        return directory.resolve("patients-" + shard + ".snap");
+    }
+}
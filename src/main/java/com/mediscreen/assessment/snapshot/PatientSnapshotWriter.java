@@ -0,0 +1,206 @@
+package com.mediscreen.assessment.snapshot;
+
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.AccentFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Writes a {@link PatientSnapshot} file, one patient at a time and in ascending ID order.
+ * <p>
+ * The patient records, the history records and the strings are streamed to three temporary files, so the memory used
+ * does not grow with the number of patients. {@link #commit()} assembles them behind the header and moves the result in
+ * place atomically: readers see either the previous file or the complete new one.
+ */
+public final class PatientSnapshotWriter implements Closeable {
+
+    // A mapped file can not be larger
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private final Path file;
+
+    private final Instant createdAt;
+
+    private final int shard;
+
+    private final int shardCount;
+
+    private final Path patientsFile;
+
+    private final Path notesFile;
+
+    private final Path charsFile;
+
+    private final DataOutputStream patients;
+
+    private final DataOutputStream notes;
+
+    private final DataOutputStream chars;
+
+    private int patientCount;
+
+    private int noteCount;
+
+    private long charCount;
+
+    private int lastId = Integer.MIN_VALUE;
+
+    /**
+     * Starts a snapshot file.
+     *
+     * @param file The snapshot file, replaced on commit.
+     * @param createdAt The time the snapshot is taken, the same for all the shards.
+     * @param shard The shard of the patients written.
+     * @param shardCount The number of shards of the snapshot.
+     * @throws IOException If the temporary files can not be created.
+     */
+    public PatientSnapshotWriter(Path file, Instant createdAt, int shard, int shardCount) throws IOException {
+        this.file = file;
+        this.createdAt = createdAt;
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.patientsFile = sibling(".patients.tmp");
+        this.notesFile = sibling(".notes.tmp");
+        this.charsFile = sibling(".chars.tmp");
+        this.patients = open(patientsFile);
+        this.notes = open(notesFile);
+        this.chars = open(charsFile);
+    }
+
+    /**
+     * Appends a patient and their history, the notes being folded.
+     *
+     * @param patient The patient, with an ID greater than the previous one.
+     * @param histories The history records of the patient.
+     * @throws IOException If the temporary files can not be written.
+     * @throws IllegalStateException If the file would be larger than 2 GB, more shards are then needed.
+     */
+    public void write(Patient patient, List<History> histories) throws IOException {
+        if (patient.getId() == null || patient.getId() <= lastId) {
+            throw new IllegalArgumentException("Patients must be written in ascending ID order, got " + patient.getId()
+                    + " after " + lastId);
+        }
+        lastId = patient.getId();
+
+        patients.writeInt(patient.getId());
+        patients.writeInt(epochDay(patient.getDob()));
+        patients.writeLong(AssessmentResultStore.fingerprint(patient, histories));
+        patients.writeInt(noteCount);
+        patients.writeInt(histories.size());
+        writeString(patients, patient.getFamily());
+        writeString(patients, patient.getGiven());
+        writeString(patients, patient.getSex());
+        writeString(patients, patient.getAddress());
+        writeString(patients, patient.getPhone());
+        patientCount++;
+
+        for (History history : histories) {
+            writeString(notes, history.getId());
+            notes.writeInt(epochDay(history.getCreationDate()));
+            writeString(notes, history.getNotes() == null ? null : AccentFolder.fold(history.getNotes()));
+            noteCount++;
+        }
+
+        if (fileSize() > MAX_FILE_SIZE) {
+            throw new IllegalStateException("Snapshot shard " + shard + " is over 2 GB, more shards are needed");
+        }
+    }
+
+    /**
+     * Writes the snapshot file and moves it in place.
+     *
+     * @return The number of patients written.
+     * @throws IOException If the file can not be written.
+     */
+    public int commit() throws IOException {
+        patients.close();
+        notes.close();
+        chars.close();
+
+        Path assembled = sibling(".tmp");
+        try (FileChannel output = FileChannel.open(assembled, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(PatientSnapshot.HEADER_SIZE)
+                    .putInt(PatientSnapshot.MAGIC)
+                    .putInt(PatientSnapshot.FORMAT_VERSION)
+                    .putLong(createdAt.toEpochMilli())
+                    .putInt(shard)
+                    .putInt(shardCount)
+                    .putInt(patientCount)
+                    .putInt(noteCount)
+                    .putLong(charCount)
+                    .flip();
+            while (header.hasRemaining()) {
+                output.write(header);
+            }
+            for (Path part : List.of(patientsFile, notesFile, charsFile)) {
+                try (FileChannel input = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < input.size()) {
+                        position += input.transferTo(position, input.size() - position, output);
+                    }
+                }
+            }
+            output.force(true);
+        }
+        Files.move(assembled, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return patientCount;
+    }
+
+    /**
+     * Removes the temporary files, the snapshot file being left unchanged when not committed.
+     */
+    @Override
+    public void close() throws IOException {
+        patients.close();
+        notes.close();
+        chars.close();
+        Files.deleteIfExists(patientsFile);
+        Files.deleteIfExists(notesFile);
+        Files.deleteIfExists(charsFile);
+        Files.deleteIfExists(sibling(".tmp"));
+    }
+
+    private long fileSize() {
+        return PatientSnapshot.HEADER_SIZE + (long) patientCount * PatientSnapshot.PATIENT_SIZE
+                + (long) noteCount * PatientSnapshot.NOTE_SIZE + 2 * charCount;
+    }
+
+    private void writeString(DataOutputStream record, String value) throws IOException {
+        if (value == null) {
+            record.writeInt(0);
+            record.writeInt(-1);
+            return;
+        }
+        record.writeInt((int) charCount);
+        record.writeInt(value.length());
+        chars.writeChars(value);
+        charCount += value.length();
+    }
+
+    private static int epochDay(LocalDate date) {
+        return date == null ? PatientSnapshot.NO_DATE : (int) date.toEpochDay();
+    }
+
+    private Path sibling(String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    private static DataOutputStream open(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+    }
+}
@@ -0,0 +1,224 @@
+package com.mediscreen.assessment.subscription;
+
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter.Priority;
+import com.mediscreen.assessment.resilience.ServiceOverloadedException;
+import com.mediscreen.assessment.service.AssessmentService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Subscriptions to the risk level of a set of patients, pushed only when the level changes.
+ * <p>
+ * The levels of the patients followed by at least one subscriber are kept in a shared map. They are recomputed when
+ * the history or the record of a patient changes, see {@link #recompute(Integer)}, and for all the followed patients
+ * every {@code assessment.subscriptions.recompute-interval}, which catches the vocabulary changes and the birthdays.
+ * A recomputed assessment is published only when its level differs from the known one.
+ * <p>
+ * The current assessments sent on each subscription, and on each reconnection, are a bulk assessment: they go through
+ * the concurrency limit with the bulk priority, and a subscription over it is rejected with a 503. The permit is given
+ * back once they are sent, the subscription itself holding none.
+ * <p>
+ * All the subscribers listen to one multicast sink, each keeping only the matching assessments: an idle subscriber
+ * holds the sorted array of its patient IDs and a few operators, and the heartbeat is a single shared timer.
+ */
+@Component
+public class RiskSubscriptions implements MeterBinder {
+
+    @Autowired
+    AssessmentService assessmentService;
+
+    @Autowired
+    AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
+
+    // Maximum number of patients of a subscription
+    @Value("${assessment.subscriptions.max-patients:1000}")
+    int maxPatients = 1000;
+
+    // Changes buffered for a slow subscriber, which is disconnected beyond and resyncs on reconnection
+    @Value("${assessment.subscriptions.buffer-size:256}")
+    int bufferSize = 256;
+
+    @Value("${assessment.subscriptions.heartbeat-interval:PT30S}")
+    Duration heartbeatInterval = Duration.ofSeconds(30);
+
+    private static Logger logger = LoggerFactory.getLogger(RiskSubscriptions.class);
+
+    private final Sinks.Many<Change> changes = Sinks.many().multicast().directBestEffort();
+
+    private final ConcurrentHashMap<Integer, Watch> watches = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private Flux<Long> heartbeats;
+
+    // A level change, and the subscription whose current assessment revealed it, which already sent it
+    private record Change(AssessmentDTO assessment, Object origin) {
+    }
+
+    // A followed patient: the number of subscriptions following them, and their last known level
+    private static final class Watch {
+
+        private int subscriptions;
+
+        private String level;
+    }
+
+    @PostConstruct
+    public void start() {
+        heartbeats = Flux.interval(heartbeatInterval).onBackpressureDrop().share();
+    }
+
+    /**
+     * Follows the risk level of patients.
+     * The current assessment of each patient is sent first, then an assessment each time their level changes.
+     *
+     * @param patIds The IDs of the patients.
+     * @return A Flux emitting the assessments, until cancelled.
+     * @throws ResponseStatusException If there is no patient or more than the maximum, answered with a 400.
+     * @throws ServiceOverloadedException If the bulk requests in progress are at their share of the concurrency limit.
+     */
+    public Flux<AssessmentDTO> subscribe(List<Integer> patIds) {
+        int[] ids = patIds == null ? new int[0] : patIds.stream()
+                .filter(Objects::nonNull)
+                .mapToInt(Integer::intValue)
+                .distinct()
+                .sorted()
+                .toArray();
+        if (ids.length == 0 || ids.length > maxPatients) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A subscription follows from 1 to " + maxPatients + " patients");
+        }
+        Flux<AssessmentDTO> assessAll = adaptiveConcurrencyLimiter.limit(Priority.BULK,
+                Flux.defer(() -> assessmentService.assessAll(IntStream.of(ids).boxed().toList())));
+        return Flux.defer(() -> {
+            watch(ids);
+            Object origin = new Object();
+            // Listening before the current assessments are computed, so no change is missed in between
+            Flux<AssessmentDTO> updates = changes.asFlux()
+                    .filter(change -> change.origin() != origin
+                            && Arrays.binarySearch(ids, change.assessment().getPatId()) >= 0)
+                    .map(Change::assessment);
+            Flux<AssessmentDTO> current = assessAll.doOnNext(assessment -> record(assessment, origin));
+            return Flux.merge(updates, current)
+                    .onBackpressureBuffer(bufferSize)
+                    .doFinally(signal -> unwatch(ids));
+        });
+    }
+
+    /**
+     * @return A shared tick every {@code assessment.subscriptions.heartbeat-interval}, to keep idle connections open.
+     */
+    public Flux<Long> heartbeats() {
+        return heartbeats;
+    }
+
+    /**
+     * Recomputes the assessment of a followed patient whose history or record changed, and publishes it if their
+     * level changed. Does nothing for a patient no one follows.
+     *
+     * @param patId The ID of the patient.
+     */
+    public void recompute(Integer patId) {
+        if (patId == null || !watches.containsKey(patId)) {
+            return;
+        }
+        assessmentService.assess(patId).subscribe(
+                this::record,
+                e -> logger.warn("Patient {} followed assessment not recomputed: {}", patId, e.getMessage()));
+    }
+
+    /**
+     * Recomputes the assessment of all the followed patients, at a fixed interval.
+     */
+    @Scheduled(fixedDelayString = "${assessment.subscriptions.recompute-interval:PT5M}")
+    public void recomputeAll() {
+        if (watches.isEmpty()) {
+            return;
+        }
+        List<Integer> followed = new ArrayList<>(watches.keySet());
+        logger.debug("Recomputing the assessment of {} followed patients", followed.size());
+        assessmentService.assessAll(followed).subscribe(
+                this::record,
+                e -> logger.warn("Followed assessments not recomputed: {}", e.getMessage()));
+    }
+
+    /**
+     * Records the assessment of a patient, published when a level was known and differs.
+     *
+     * @param assessment A fresh assessment.
+     */
+    public void record(AssessmentDTO assessment) {
+        record(assessment, null);
+    }
+
+    private void record(AssessmentDTO assessment, Object origin) {
+        Watch watch = watches.get(assessment.getPatId());
+        if (watch == null) {
+            return;
+        }
+        String previous;
+        synchronized (watch) {
+            previous = watch.level;
+            watch.level = assessment.getDiabetesAssessment();
+        }
+        if (previous != null && !previous.equals(assessment.getDiabetesAssessment())) {
+            logger.info("Patient {} risk level changed from {} to {}", assessment.getPatId(), previous,
+                    assessment.getDiabetesAssessment());
+            // Changes come from many threads, the sink only accepts one emission at a time
+            synchronized (changes) {
+                changes.tryEmitNext(new Change(assessment, origin));
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("assessment.subscriptions", subscribers, AtomicInteger::get)
+                .description("Open risk level subscriptions")
+                .register(registry);
+        Gauge.builder("assessment.subscriptions.patients", watches, ConcurrentHashMap::size)
+                .description("Patients followed by at least one subscription")
+                .register(registry);
+    }
+
+    private void watch(int[] ids) {
+        subscribers.incrementAndGet();
+        for (int id : ids) {
+            watches.compute(id, (key, watch) -> {
+                Watch followed = watch == null ? new Watch() : watch;
+                followed.subscriptions++;
+                return followed;
+            });
+        }
+    }
+
+    private void unwatch(int[] ids) {
+        subscribers.decrementAndGet();
+        for (int id : ids) {
+            watches.computeIfPresent(id, (key, watch) -> --watch.subscriptions == 0 ? null : watch);
+        }
+    }
+}
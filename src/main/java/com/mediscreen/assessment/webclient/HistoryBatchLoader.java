@@ -0,0 +1,131 @@
+package com.mediscreen.assessment.webclient;
+
+import com.mediscreen.assessment.model.History;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batches the history lookups of many patients into few requests to the History microservice.
+ * <p>
+ * The lookups made during a short time window, or until the batch is full, are sent together.
+ * Each caller then receives the history of its own patient. Depending on the "batch" mode, a batch
+ * is either one multi-ID request, or parallel single requests when the History microservice
+ * has no batch route. The batch requests serve the cached histories first, see {@link HistoryWebClient#findByIds}.
+ */
+@Component
+public class HistoryBatchLoader {
+
+    /**
+     * How a batch of lookups is sent to the History microservice.
+     */
+    public enum Mode {
+        // One request for the whole batch, on the /patHistory/batch route
+        BATCH,
+        // One request per patient, sent in parallel
+        PARALLEL
+    }
+
+    @Autowired
+    HistoryWebClient historyWebClient;
+
+    @Value("${assessment.history.batch.mode:PARALLEL}")
+    Mode mode = Mode.PARALLEL;
+
+    // Maximum number of patients in a batch
+    @Value("${assessment.history.batch.max-size:50}")
+    int maxSize = 50;
+
+    // Maximum time a lookup waits for the batch to fill
+    @Value("${assessment.history.batch.window:10ms}")
+    Duration window = Duration.ofMillis(10);
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryBatchLoader.class);
+
+    // Lookups come from many threads, the multi-producer queue takes them without locking
+    private final Sinks.Many<PendingLoad> pendingLoads =
+            Sinks.many().unicast().onBackpressureBuffer(Queues.<PendingLoad>unboundedMultiproducer().get());
+
+    private Disposable batches;
+
+    private record PendingLoad(Integer patId, Sinks.One<List<History>> result) {
+    }
+
+    @PostConstruct
+    public void start() {
+        batches = pendingLoads.asFlux()
+                .bufferTimeout(maxSize, window)
+                .subscribe(this::dispatch,
+                        e -> logger.error("History batching stopped: {}", e.getMessage(), e));
+    }
+
+    @PreDestroy
+    public void stop() {
+        batches.dispose();
+    }
+
+    /**
+     * Retrieves the history records of a patient, batched with the other lookups of the same window.
+     *
+     * @param patId The ID of the patient for whom the history records are to be retrieved.
+     * @return A Mono emitting a list of History objects representing the patient's history records.
+     */
+    public Mono<List<History>> load(Integer patId) {
+        return Mono.defer(() -> {
+            Sinks.One<List<History>> result = Sinks.one();
+            Sinks.EmitResult emitted;
+            // The sink only accepts one emission at a time, held for an enqueue, never spinning on an event loop
+            synchronized (pendingLoads) {
+                emitted = pendingLoads.tryEmitNext(new PendingLoad(patId, result));
+            }
+            if (emitted.isFailure()) {
+                return Mono.error(new IllegalStateException("History batching stopped: " + emitted));
+            }
+            return result.asMono();
+        });
+    }
+
+    // Must not throw: an exception would terminate the batching, and every later lookup would hang.
+    // The requests are deferred, so a client failing before sending fails the callers of its batch only.
+    private void dispatch(List<PendingLoad> batch) {
+        // Several lookups of the same patient share one fetch
+        Map<Integer, List<Sinks.One<List<History>>>> callers = new LinkedHashMap<>();
+        batch.forEach(load -> callers.computeIfAbsent(load.patId(), id -> new ArrayList<>()).add(load.result()));
+
+        if (mode == Mode.BATCH) {
+            Mono.defer(() -> historyWebClient.findByIds(callers.keySet())).subscribe(
+                    histories -> callers.forEach((patId, results) -> complete(results, histories.getOrDefault(patId, List.of()))),
+                    e -> {
+                        logger.warn("History batch of {} patients failed: {}", callers.size(), e.getMessage());
+                        callers.values().forEach(results -> fail(results, e));
+                    });
+        } else {
+            // A failing patient only fails its own callers
+            callers.forEach((patId, results) -> Mono.defer(() -> historyWebClient.findById(patId)).subscribe(
+                    histories -> complete(results, histories),
+                    e -> fail(results, e)));
+        }
+    }
+
+    private static void complete(List<Sinks.One<List<History>>> results, List<History> histories) {
+        results.forEach(result -> result.tryEmitValue(histories));
+    }
+
+    private static void fail(List<Sinks.One<List<History>>> results, Throwable e) {
+        results.forEach(result -> result.tryEmitError(e));
+    }
+}
@@ -1,13 +1,24 @@
 package com.mediscreen.assessment.webclient;
 
+import com.mediscreen.assessment.cache.ReactiveCache;
+import com.mediscreen.assessment.metrics.AssessmentMetrics;
 import com.mediscreen.assessment.model.History;
 import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.resilience.DownstreamResilience;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * WebClient component used to communicate with the History microservice to retrieve patient history data.
@@ -17,23 +28,103 @@ public class HistoryWebClient {
 
     @Value("${HISTORY.PROXY}")
     public String URL_HISTORY;
-    WebClient.Builder historyWebClient = WebClient.builder();
+
+    @Autowired
+    @Qualifier("historyClient")
+    WebClient historyWebClient;
+
+    @Autowired
+    ReactiveCache<Integer, List<History>> historyCache;
+
+    @Autowired
+    AssessmentMetrics assessmentMetrics;
+
+    @Autowired
+    DownstreamResilience downstreamResilience;
 
     /**
-     * Retrieves the history records for a patient with the specified ID from the History microservice.
+     * Retrieves the history records for a patient with the specified ID, from the cache or the History microservice.
      *
      * @param id The ID of the patient for whom the history records are to be retrieved.
      * @return A Mono emitting a list of History objects representing the patient's history records.
      */
     public Mono<List<History>> findById(Integer id) {
-        return historyWebClient.build()
-                .get()
-                .uri(URL_HISTORY + "/patHistory?patId={id}", id)
-                .retrieve()
-                /*.onStatus(httpStatus -> HttpStatus.NOT_FOUND.equals(httpStatus),
-                        clientResponse -> Mono.empty())*/
-                .bodyToFlux(History.class)
-                .collectList();
+        return historyCache.get(id, this::fetchById);
+    }
+
+    private Mono<List<History>> fetchById(Integer id) {
+        return downstreamResilience.protectHedged(DownstreamResilience.HISTORY,
+                assessmentMetrics.timeDownstream("history", historyWebClient
+                        .get()
+                        .uri(URL_HISTORY + "/patHistory?patId={id}", id)
+                        .retrieve()
+                        /*.onStatus(httpStatus -> HttpStatus.NOT_FOUND.equals(httpStatus),
+                                clientResponse -> Mono.empty())*/
+                        .bodyToFlux(History.class)
+                        .collectList()));
+    }
+
+    /**
+     * Streams the history records for a patient with the specified ID from the History microservice,
+     * each record being emitted as soon as it is decoded. The records are not cached.
+     *
+     * @param id The ID of the patient for whom the history records are to be retrieved.
+     * @return A Flux emitting the patient's history records.
+     */
+    public Flux<History> streamById(Integer id) {
+        return downstreamResilience.protect(DownstreamResilience.HISTORY,
+                assessmentMetrics.timeDownstream("history-stream", historyWebClient
+                        .get()
+                        .uri(URL_HISTORY + "/patHistory?patId={id}", id)
+                        .retrieve()
+                        .bodyToFlux(History.class)));
+    }
+
+    /**
+     * Retrieves the history records of several patients, from the cache, the patients missing from it in one request
+     * to the History microservice. The records are grouped by patient, a patient without records being mapped to an
+     * empty list.
+     *
+     * @param ids The IDs of the patients for whom the history records are to be retrieved.
+     * @return A Mono emitting the history records of each patient, keyed by patient ID.
+     */
+    public Mono<Map<Integer, List<History>>> findByIds(Collection<Integer> ids) {
+        return historyCache.getAll(ids, this::fetchByIds);
+    }
+
+    private Mono<Map<Integer, List<History>>> fetchByIds(Collection<Integer> ids) {
+        String joinedIds = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+        return downstreamResilience.protect(DownstreamResilience.HISTORY,
+                assessmentMetrics.timeDownstream("history-batch", historyWebClient
+                        .get()
+                        .uri(URL_HISTORY + "/patHistory/batch?patIds={ids}", joinedIds)
+                        .retrieve()
+                        .bodyToFlux(History.class)
+                        .collectList()))
+                .map(histories -> {
+                    Map<Integer, List<History>> byPatient = new HashMap<>();
+                    ids.forEach(id -> byPatient.put(id, new ArrayList<>()));
+                    histories.forEach(history -> byPatient
+                            .computeIfAbsent(history.getPatId(), id -> new ArrayList<>())
+                            .add(history));
+                    return byPatient;
+                });
+    }
+
+    /**
+     * Removes the cached history records of a patient, to be called when the history changes.
+     *
+     * @param id The ID of the patient whose history changed.
+     */
+    public void invalidate(Integer id) {
+        historyCache.invalidate(id);
+    }
+
+    /**
+     * Removes all the cached history records.
+     */
+    public void invalidateAll() {
+        historyCache.invalidateAll();
     }
 
 }
\ No newline at end of file
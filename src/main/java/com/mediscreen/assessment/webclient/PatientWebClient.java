@@ -1,6 +1,11 @@
 package com.mediscreen.assessment.webclient;
 
+import com.mediscreen.assessment.cache.ReactiveCache;
+import com.mediscreen.assessment.metrics.AssessmentMetrics;
 import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.resilience.DownstreamResilience;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -16,54 +21,98 @@ public class PatientWebClient {
 
     @Value("${PATIENT.PROXY}")
     public String URL_PATIENT;
-    WebClient.Builder patientWebClient = WebClient.builder();
+
+    @Autowired
+    @Qualifier("patientClient")
+    WebClient patientWebClient;
+
+    @Autowired
+    ReactiveCache<Integer, Patient> patientCache;
+
+    @Autowired
+    ReactiveCache<String, Patient> patientByNameCache;
+
+    @Autowired
+    AssessmentMetrics assessmentMetrics;
+
+    @Autowired
+    DownstreamResilience downstreamResilience;
 
     /**
      * Retrieves all patient records from the Patient microservice.
+     * The download has its own, longer time limit and is not retried, see {@link DownstreamResilience#protectBulk}.
      *
      * @return A Mono emitting a list of Patient objects representing all patients' records.
      */
     public Mono<List<Patient>> findAll() {
-        return patientWebClient.build()
-                .get()
-                .uri(URL_PATIENT + "/patient/all" )
-                .retrieve()
-                .bodyToFlux(Patient.class)
-                .collectList();
+        return downstreamResilience.protectBulk(DownstreamResilience.PATIENT,
+                assessmentMetrics.timeDownstream("patient-all", patientWebClient
+                        .get()
+                        .uri(URL_PATIENT + "/patient/all" )
+                        .retrieve()
+                        .bodyToFlux(Patient.class)
+                        .collectList()));
     }
 
     /**
-     * Retrieves the patient record for a patient with the specified ID from the Patient microservice.
+     * Retrieves the patient record for a patient with the specified ID, from the cache or the Patient microservice.
      *
      * @param id The ID of the patient for whom the record is to be retrieved.
      * @return A Mono emitting a Patient object representing the patient's record.
      */
     public Mono<Patient> findById(Integer id) {
-        System.out.println(URL_PATIENT);
-
-        return patientWebClient.build()
-                .get()
-                .uri( URL_PATIENT +"/patient/" + id)
-                .retrieve()
-                /*.onStatus(httpStatus -> HttpStatus.NOT_FOUND.equals(httpStatus),
-                        clientResponse -> Mono.empty())*/
-                .bodyToMono(Patient.class);
+        return patientCache.get(id, this::fetchById);
+    }
+
+    private Mono<Patient> fetchById(Integer id) {
+        return downstreamResilience.protect(DownstreamResilience.PATIENT,
+                assessmentMetrics.timeDownstream("patient-by-id", patientWebClient
+                        .get()
+                        .uri( URL_PATIENT +"/patient/" + id)
+                        .retrieve()
+                        /*.onStatus(httpStatus -> HttpStatus.NOT_FOUND.equals(httpStatus),
+                                clientResponse -> Mono.empty())*/
+                        .bodyToMono(Patient.class)));
     }
 
     /**
-     * Retrieves the patient record for a patient with the specified family name and given name from the Patient microservice.
+     * Retrieves the patient record for a patient with the specified family name and given name,
+     * from the cache or the Patient microservice.
      *
      * @param family The family name of the patient.
      * @param given The given name of the patient.
      * @return A Mono emitting a Patient object representing the patient's record.
      */
     public Mono<Patient> findByName(String family, String given) {
-        return patientWebClient.build()
-                .get()
-                .uri( URL_PATIENT + "/patient?family={family}&given={given}", family, given)
-                .retrieve()
-                /*.onStatus(httpStatus -> HttpStatus.NOT_FOUND.equals(httpStatus),
-                        clientResponse -> Mono.empty())*/
-                .bodyToMono(Patient.class);
+        return patientByNameCache.get(family + "\n" + given, key -> fetchByName(family, given));
+    }
+
+    private Mono<Patient> fetchByName(String family, String given) {
+        return downstreamResilience.protect(DownstreamResilience.PATIENT,
+                assessmentMetrics.timeDownstream("patient-by-name", patientWebClient
+                        .get()
+                        .uri( URL_PATIENT + "/patient?family={family}&given={given}", family, given)
+                        .retrieve()
+                        /*.onStatus(httpStatus -> HttpStatus.NOT_FOUND.equals(httpStatus),
+                                clientResponse -> Mono.empty())*/
+                        .bodyToMono(Patient.class)));
+    }
+
+    /**
+     * Removes the cached record of a patient, to be called when the record changes.
+     *
+     * @param id The ID of the patient whose record changed.
+     */
+    public void invalidate(Integer id) {
+        patientCache.invalidate(id);
+        patientByNameCache.invalidateIf(patient -> id.equals(patient.getId()));
+    }
+
+    /**
+     * Removes all the cached patient records.
+     */
+    public void invalidateAll() {
+        patientCache.invalidateAll();
+        patientByNameCache.invalidateAll();
     }
 }
@@ -0,0 +1,152 @@
+package com.mediscreen.assessment.cacheTest;
+
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AssessmentResultStoreTest {
+
+    @Test
+    public void nextAgeChangeTest() {
+        // The assessment expires on the next birthday, when the age changes
+        assertEquals(LocalDate.of(2024, 5, 15),
+                AssessmentResultStore.nextAgeChange(LocalDate.of(1994, 5, 15), LocalDate.of(2024, 5, 14)));
+        assertEquals(LocalDate.of(2025, 5, 15),
+                AssessmentResultStore.nextAgeChange(LocalDate.of(1994, 5, 15), LocalDate.of(2024, 5, 15)));
+
+        // A birthday on February 29th is counted on March 1st in non-leap years
+        assertEquals(LocalDate.of(2023, 3, 1),
+                AssessmentResultStore.nextAgeChange(LocalDate.of(2000, 2, 29), LocalDate.of(2023, 2, 28)));
+        assertEquals(LocalDate.of(2024, 2, 29),
+                AssessmentResultStore.nextAgeChange(LocalDate.of(2000, 2, 29), LocalDate.of(2023, 3, 1)));
+    }
+
+    @Test
+    public void fingerprintTest() {
+        // GIVEN
+        Patient patient = new Patient();
+        patient.setSex("F");
+        patient.setDob(LocalDate.of(1994, 5, 15));
+        History history = new History();
+        history.setId("123");
+        history.setNotes("smoker");
+        long fingerprint = AssessmentResultStore.fingerprint(patient, List.of(history));
+
+        // WHEN/THEN
+        // the fingerprint changes with the notes and the sex
+        History edited = new History();
+        edited.setId("123");
+        edited.setNotes("smoker, weight");
+        assertNotEquals(fingerprint, AssessmentResultStore.fingerprint(patient, List.of(edited)));
+
+        patient.setSex("M");
+        assertNotEquals(fingerprint, AssessmentResultStore.fingerprint(patient, List.of(history)));
+
+        // even for notes of the same String hash
+        History colliding = new History();
+        colliding.setId("123");
+        colliding.setNotes("Aa");
+        History other = new History();
+        other.setId("123");
+        other.setNotes("BB");
+        assertNotEquals(AssessmentResultStore.fingerprint(patient, List.of(colliding)),
+                AssessmentResultStore.fingerprint(patient, List.of(other)));
+    }
+
+    @Test
+    public void getIgnoresAssessmentOfAnotherVocabularyTest() {
+        // GIVEN
+        // an assessment computed with the first version of the vocabulary
+        AssessmentResultStore store = new AssessmentResultStore(10);
+        Patient patient = new Patient();
+        patient.setId(1);
+        patient.setSex("F");
+        patient.setDob(LocalDate.of(1994, 5, 15));
+        AssessmentDTO assessment = new AssessmentDTO(1, "Doe", "Jane", 30, "None");
+        store.put(patient, List.of(), 1, assessment, store.generation(1));
+
+        // WHEN/THEN
+        // it is only served while the vocabulary is unchanged
+        assertEquals(assessment, store.get(1, 1).orElseThrow());
+        assertTrue(store.get(1, 2).isEmpty());
+        assertTrue(store.get(1, 1).isEmpty());
+    }
+
+    @Test
+    public void putAfterInvalidationIsNotStoredTest() {
+        // GIVEN
+        // an assessment computed from inputs read before the history of the patient changed
+        AssessmentResultStore store = new AssessmentResultStore(10);
+        Patient patient = new Patient();
+        patient.setId(1);
+        patient.setSex("F");
+        patient.setDob(LocalDate.of(1994, 5, 15));
+        long generation = store.generation(1);
+        store.invalidate(1);
+
+        // WHEN
+        Optional<AssessmentResultStore.StoredAssessment> stored =
+                store.put(patient, List.of(), 1, new AssessmentDTO(1, "Doe", "Jane", 30, "None"), generation);
+
+        // THEN
+        // the outdated assessment is not served, the next computation is stored
+        assertTrue(stored.isEmpty());
+        assertTrue(store.get(1, 1).isEmpty());
+        assertTrue(store.put(patient, List.of(), 1, new AssessmentDTO(1, "Doe", "Jane", 30, "Borderline"),
+                store.generation(1)).isPresent());
+        assertEquals("Borderline", store.get(1, 1).orElseThrow().getDiabetesAssessment());
+    }
+
+    @Test
+    public void expiredAssessmentIsNotServedTest() {
+        // GIVEN
+        // an assessment restored from a snapshot, valid until the snapshot is too old
+        AssessmentResultStore store = new AssessmentResultStore(10);
+        Patient patient = new Patient();
+        patient.setId(1);
+        patient.setSex("F");
+        patient.setDob(LocalDate.of(1994, 5, 15));
+        long fingerprint = AssessmentResultStore.fingerprint(patient, List.of());
+        AssessmentDTO assessment = new AssessmentDTO(1, "Doe", "Jane", 30, "None");
+        store.put(patient, fingerprint, 1, assessment, store.generation(1), Instant.now().plusSeconds(60));
+
+        // WHEN/THEN
+        assertEquals(assessment, store.get(1, 1).orElseThrow());
+        store.put(patient, fingerprint, 1, assessment, store.generation(1), Instant.now().minusSeconds(1));
+        assertTrue(store.get(1, 1).isEmpty());
+    }
+
+    @Test
+    public void invalidateIfChangedTest() {
+        // GIVEN
+        AssessmentResultStore store = new AssessmentResultStore(10);
+        Patient patient = new Patient();
+        patient.setId(1);
+        patient.setSex("F");
+        patient.setDob(LocalDate.of(1994, 5, 15));
+        long fingerprint = AssessmentResultStore.fingerprint(patient, List.of());
+        store.put(patient, List.of(), 1, new AssessmentDTO(1, "Doe", "Jane", 30, "None"), store.generation(1));
+        long generation = store.generation(1);
+
+        // WHEN/THEN
+        // an assessment of the same inputs is kept, one of other inputs is removed and can not be stored back
+        assertFalse(store.invalidateIfChanged(1, fingerprint));
+        assertTrue(store.get(1, 1).isPresent());
+        assertTrue(store.invalidateIfChanged(1, fingerprint + 1));
+        assertTrue(store.get(1, 1).isEmpty());
+        assertNotEquals(generation, store.generation(1));
+        assertFalse(store.invalidateIfChanged(2, fingerprint));
+    }
+}
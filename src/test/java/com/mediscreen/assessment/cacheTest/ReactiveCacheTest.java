@@ -0,0 +1,95 @@
+package com.mediscreen.assessment.cacheTest;
+
+import com.mediscreen.assessment.cache.ReactiveCache;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReactiveCacheTest {
+
+    @Test
+    public void concurrentMissesShareOneLoadTest() {
+        // GIVEN
+        ReactiveCache<Integer, String> cache = new ReactiveCache<>("test", 100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+        Sinks.One<String> value = Sinks.one();
+
+        // WHEN
+        // two callers miss the same key while it is loading
+        Mono<String> first = cache.get(1, key -> {
+            loads.incrementAndGet();
+            return value.asMono();
+        }).cache();
+        Mono<String> second = cache.get(1, key -> {
+            loads.incrementAndGet();
+            return value.asMono();
+        }).cache();
+        first.subscribe();
+        second.subscribe();
+        value.tryEmitValue("patient 1");
+
+        // THEN
+        assertEquals("patient 1", first.block());
+        assertEquals("patient 1", second.block());
+        assertEquals("patient 1", cache.get(1, key -> Mono.just("reloaded")).block());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void failedLoadIsNotCachedTest() {
+        // GIVEN
+        ReactiveCache<Integer, String> cache = new ReactiveCache<>("test", 100, Duration.ofMinutes(1));
+
+        // WHEN/THEN
+        assertThrows(IllegalStateException.class,
+                () -> cache.get(1, key -> Mono.<String>error(new IllegalStateException("unavailable"))).block());
+        assertEquals("patient 1", cache.get(1, key -> Mono.just("patient 1")).block());
+    }
+
+    @Test
+    public void invalidateTest() {
+        // GIVEN
+        ReactiveCache<Integer, String> cache = new ReactiveCache<>("test", 100, Duration.ofMinutes(1));
+        cache.get(1, key -> Mono.just("patient 1")).block();
+        cache.get(2, key -> Mono.just("patient 2")).block();
+
+        // WHEN
+        cache.invalidate(1);
+        cache.invalidateIf("patient 2"::equals);
+
+        // THEN
+        assertEquals("updated 1", cache.get(1, key -> Mono.just("updated 1")).block());
+        assertEquals("updated 2", cache.get(2, key -> Mono.just("updated 2")).block());
+    }
+
+    @Test
+    public void getAllOnlyLoadsMissingKeysTest() {
+        // GIVEN
+        ReactiveCache<Integer, String> cache = new ReactiveCache<>("test", 100, Duration.ofMinutes(1));
+        cache.get(1, key -> Mono.just("patient 1")).block();
+        List<Set<Integer>> loaded = new ArrayList<>();
+
+        // WHEN
+        Map<Integer, String> values = cache.getAll(List.of(1, 2, 3), missing -> {
+            loaded.add(missing);
+            return Mono.just(missing.stream().collect(Collectors.toMap(key -> key, key -> "patient " + key)));
+        }).block();
+
+        // THEN
+        // the cached key is served, the missing ones are loaded at once and cached
+        assertEquals(Map.of(1, "patient 1", 2, "patient 2", 3, "patient 3"), values);
+        assertEquals(List.of(Set.of(2, 3)), loaded);
+        assertEquals("patient 3", cache.get(3, key -> Mono.just("reloaded")).block());
+    }
+}
@@ -1,38 +1,72 @@
 package com.mediscreen.assessment.controllerTest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.mediscreen.assessment.codec.AssessmentMediaTypes;
+import com.mediscreen.assessment.codec.AssessmentTextHttpMessageConverter;
 import com.mediscreen.assessment.controller.AssessmentController;
+import com.mediscreen.assessment.controller.OverloadExceptionHandler;
+import com.mediscreen.assessment.directory.PatientDirectory;
 import com.mediscreen.assessment.dto.AssessmentDTO;
 import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter;
+import com.mediscreen.assessment.resilience.ServiceOverloadedException;
 import com.mediscreen.assessment.service.AssessmentService;
-import com.mediscreen.assessment.webclient.PatientWebClient;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class AssessmentControllerTest {
 
     @Mock
-    private PatientWebClient patientWebClient;
+    private PatientDirectory patientDirectory;
 
     @Mock
     private AssessmentService assessmentService;
 
+    @Spy
+    private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter = new AdaptiveConcurrencyLimiter(2, 1, 10,
+            Duration.ofSeconds(1), 0.9, 0.5, Duration.ofSeconds(3));
+
     @InjectMocks
     private AssessmentController assessmentController;
 
     private Patient testPatient;
 
+    private MockMvc mockMvc;
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -43,6 +77,25 @@ public class AssessmentControllerTest {
         testPatient.setGiven("John");
         testPatient.setDob(LocalDate.of(1980, 1, 1));
         testPatient.setSex("M");
+
+        // Same converters as the app: the text line first, then the Jackson formats
+        mockMvc = MockMvcBuilders.standaloneSetup(assessmentController)
+                .setMessageConverters(new AssessmentTextHttpMessageConverter(), new MappingJackson2HttpMessageConverter(),
+                        new MappingJackson2CborHttpMessageConverter(), new MappingJackson2SmileHttpMessageConverter())
+                .setControllerAdvice(new OverloadExceptionHandler())
+                .build();
+    }
+
+    private MvcResult postAssessmentById(String accept) throws Exception {
+        MvcResult asyncResult = mockMvc.perform(post("/assess/id")
+                        .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                        .content("patId=1")
+                        .header("Accept", accept))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andReturn();
     }
 
 
@@ -51,54 +104,181 @@ public class AssessmentControllerTest {
         // GIVEN
         // There is at least a patient
         AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
-        when(patientWebClient.findById(any())).thenReturn(Mono.just(testPatient));
-        when(assessmentService.getAssessment(any())).thenReturn(sampleAssessment);
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.just(sampleAssessment));
 
         // WHEN
         // I ask the assessment by the patient id
-        AssessmentDTO result = assessmentController.getRisk(1);
+        AssessmentDTO result = assessmentController.getRisk(1).block();
         assertEquals(sampleAssessment, result);
 
         //THEN
-        verify(patientWebClient, times(1)).findById(1);
-        verify(assessmentService, times(1)).getAssessment(testPatient);
+        verify(assessmentService, times(1)).assess(1);
+        verifyNoInteractions(patientDirectory);
     }
 
     @Test
     public void testGetAssessmentById() {
         // GIVEN
         // There is at least a patient
-        when(patientWebClient.findById(any())).thenReturn(Mono.just(testPatient));
         AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
-        when(assessmentService.getAssessment(any())).thenReturn(sampleAssessment);
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.just(sampleAssessment));
 
         // WHEN
         // I ask the assessment by the patient id
-        ResponseEntity<String> result = assessmentController.getAssessmentById(1);
-        assertEquals(sampleAssessment.toString(), result.getBody());
+        ResponseEntity<AssessmentDTO> result = assessmentController.getAssessmentById(1).block();
+        assertEquals(sampleAssessment, result.getBody());
         assertEquals(HttpStatus.OK, result.getStatusCode());
 
         //THEN
-        verify(patientWebClient, times(1)).findById(1);
-        verify(assessmentService, times(1)).getAssessment(testPatient);
+        verify(assessmentService, times(1)).assess(1);
+        verifyNoInteractions(patientDirectory);
     }
 
     @Test
     public void testGetAssessmentByName() {
         //GIVEN
         // There is at least a patient
-        when(patientWebClient.findByName(any(), any())).thenReturn(Mono.just(testPatient));
+        when(patientDirectory.findByName(any(), any())).thenReturn(Mono.just(testPatient));
         AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
-        when(assessmentService.getAssessment(any())).thenReturn(sampleAssessment);
+        when(assessmentService.assess(any(Patient.class))).thenReturn(Mono.just(sampleAssessment));
 
         //THEN
         // I ask the assessment by the patient name
-        ResponseEntity<String> result = assessmentController.getAssessmentByName("Doe", "John");
-        assertEquals(sampleAssessment.toString(), result.getBody());
+        ResponseEntity<AssessmentDTO> result = assessmentController.getAssessmentByName("Doe", "John").block();
+        assertEquals(sampleAssessment, result.getBody());
         assertEquals(HttpStatus.OK, result.getStatusCode());
 
         //THEN
-        verify(patientWebClient, times(1)).findByName("Doe", "John");
-        verify(assessmentService, times(1)).getAssessment(testPatient);
+        verify(patientDirectory, times(1)).findByName("Doe", "John");
+        verify(assessmentService, times(1)).assess(testPatient);
+    }
+
+    @Test
+    public void testGetAllRisks() {
+        // GIVEN
+        // There are patients to assess
+        AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
+        when(assessmentService.assessAll(List.of(1))).thenReturn(Flux.just(sampleAssessment));
+
+        // WHEN
+        // I ask the assessment of a list of patients
+        List<AssessmentDTO> result = assessmentController.getAllRisks(List.of(1)).collectList().block();
+
+        // THEN
+        assertEquals(List.of(sampleAssessment), result);
+        verify(assessmentService, times(1)).assessAll(List.of(1));
+    }
+
+    @Test
+    public void getAssessmentByIdSendsTextLineByDefaultTest() throws Exception {
+        // GIVEN
+        AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.just(sampleAssessment));
+
+        // WHEN
+        // A legacy caller does not ask for a format
+        MvcResult result = postAssessmentById("*/*");
+
+        // THEN
+        assertTrue(MediaType.TEXT_PLAIN.isCompatibleWith(MediaType.parseMediaType(result.getResponse().getContentType())));
+        assertEquals(sampleAssessment.toString(), result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void getAssessmentByIdSendsJsonTest() throws Exception {
+        // GIVEN
+        AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.just(sampleAssessment));
+
+        // WHEN
+        MvcResult result = postAssessmentById(MediaType.APPLICATION_JSON_VALUE);
+
+        // THEN
+        assertEquals(MediaType.APPLICATION_JSON_VALUE, result.getResponse().getContentType());
+        assertEquals(sampleAssessment, new ObjectMapper().readValue(result.getResponse().getContentAsByteArray(), AssessmentDTO.class));
+    }
+
+    @Test
+    public void getAssessmentByIdSendsBinaryFormatsTest() throws Exception {
+        // GIVEN
+        AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.just(sampleAssessment));
+
+        // WHEN
+        MvcResult cbor = postAssessmentById(MediaType.APPLICATION_CBOR_VALUE);
+        MvcResult smile = postAssessmentById(AssessmentMediaTypes.APPLICATION_SMILE_VALUE);
+
+        // THEN
+        // Both decode to the same assessment
+        assertEquals(MediaType.APPLICATION_CBOR_VALUE, cbor.getResponse().getContentType());
+        assertEquals(sampleAssessment, new CBORMapper().readValue(cbor.getResponse().getContentAsByteArray(), AssessmentDTO.class));
+        assertEquals(AssessmentMediaTypes.APPLICATION_SMILE_VALUE, smile.getResponse().getContentType());
+        assertEquals(sampleAssessment, new SmileMapper().readValue(smile.getResponse().getContentAsByteArray(), AssessmentDTO.class));
+    }
+
+    @Test
+    public void getAllRisksSendsJsonServerSentEventsTest() throws Exception {
+        // GIVEN
+        AssessmentDTO sampleAssessment = new AssessmentDTO(1, "Doe", "John", 41, "None");
+        when(assessmentService.assessAll(List.of(1))).thenReturn(Flux.just(sampleAssessment));
+
+        // WHEN
+        MvcResult asyncResult = mockMvc.perform(get("/assess/all")
+                        .param("patIds", "1")
+                        .header("Accept", MediaType.TEXT_EVENT_STREAM_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(asyncResult))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // THEN
+        // The event data is the JSON document, not the legacy text line
+        String body = result.getResponse().getContentAsString();
+        assertTrue(body.startsWith("data:"), body);
+        assertEquals(sampleAssessment, new ObjectMapper().readValue(body.substring("data:".length()).trim(), AssessmentDTO.class));
+    }
+
+    @Test
+    public void textLineOnlyWrittenWhenNegotiatedTest() {
+        // GIVEN
+        AssessmentTextHttpMessageConverter converter = new AssessmentTextHttpMessageConverter();
+
+        // WHEN/THEN
+        // A server-sent event built with no media type is not written as the text line
+        assertTrue(converter.canWrite(AssessmentDTO.class, MediaType.TEXT_PLAIN));
+        assertFalse(converter.canWrite(AssessmentDTO.class, null));
+    }
+
+    @Test
+    public void getAssessmentByIdAboveTheLimitIsRejectedTest() throws Exception {
+        // GIVEN
+        // the 2 requests allowed are in progress
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.never());
+        assessmentController.getRisk(1).subscribe();
+        assessmentController.getRisk(2).subscribe();
+
+        // WHEN/THEN
+        // the next one is answered at once
+        mockMvc.perform(post("/assess/id")
+                        .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                        .content("patId=3"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "3"));
+        verify(assessmentService, times(2)).assess(any(Integer.class));
+    }
+
+    @Test
+    public void getAllRisksHasALowerPriorityTest() {
+        // GIVEN
+        // a bulk stream in progress, using the bulk share of the limit
+        when(assessmentService.assessAll(any())).thenReturn(Flux.never());
+        assessmentController.getAllRisks(null).subscribe();
+
+        // WHEN/THEN
+        // a second bulk stream is rejected, an interactive request is not
+        assertThrows(ServiceOverloadedException.class, () -> assessmentController.getAllRisks(null));
+        when(assessmentService.assess(any(Integer.class))).thenReturn(Mono.just(new AssessmentDTO(1, "Doe", "John", 41, "None")));
+        assertEquals(1, assessmentController.getRisk(1).block().getPatId());
     }
 }
@@ -0,0 +1,178 @@
+package com.mediscreen.assessment.directoryTest;
+
+import com.mediscreen.assessment.directory.PatientDirectory;
+import com.mediscreen.assessment.directory.PatientNameIndex;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.webclient.PatientWebClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class PatientDirectoryTest {
+
+    @Mock
+    private PatientWebClient patientWebClient;
+
+    @InjectMocks
+    private PatientDirectory patientDirectory;
+
+    private final Patient helene = new Patient(1, "Dupont", "Hélène", "F", null, null, null);
+
+    private final Patient paul = new Patient(2, "Martin", "Paul", "M", null, null, null);
+
+    private final Patient otherPaul = new Patient(3, "MARTIN", "paul", "M", null, null, null);
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(patientWebClient.findAll()).thenReturn(Mono.just(List.of(helene, paul, otherPaul)));
+        patientDirectory.rebuild().block();
+    }
+
+    @Test
+    public void findByNameResolvesLocallyTest() {
+        // GIVEN
+        when(patientWebClient.findById(1)).thenReturn(Mono.just(helene));
+
+        // WHEN
+        Patient found = patientDirectory.findByName("DUPONT", "helene").block();
+
+        // THEN
+        // the name is resolved without calling the Patient microservice by name
+        assertEquals(helene, found);
+        verify(patientWebClient, never()).findByName(any(), any());
+    }
+
+    @Test
+    public void findByNameRejectsHomonymsTest() {
+        // GIVEN/WHEN
+        Mono<Patient> found = patientDirectory.findByName("Martin", "Paul");
+
+        // THEN
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, found::block);
+        assertEquals(HttpStatus.CONFLICT, e.getStatusCode());
+        assertEquals(List.of(2, 3), patientDirectory.findIds("Martin", "Paul"));
+        verifyNoMoreInteractions(ignoreStubs(patientWebClient));
+    }
+
+    @Test
+    public void findByNameFallsBackToRemoteTest() {
+        // GIVEN
+        // a patient created since the last rebuild
+        Patient created = new Patient(4, "Leroy", "Anne", "F", null, null, null);
+        when(patientWebClient.findByName("Leroy", "Anne")).thenReturn(Mono.just(created));
+
+        // WHEN
+        Patient found = patientDirectory.findByName("Leroy", "Anne").block();
+
+        // THEN
+        // the patient is added to the directory
+        assertEquals(created, found);
+        assertEquals(List.of(4), patientDirectory.findIds("leroy", "anne"));
+    }
+
+    @Test
+    public void refreshAppliesChangesTest() {
+        // GIVEN
+        // a patient renamed and a patient deleted
+        when(patientWebClient.findById(1)).thenReturn(Mono.just(new Patient(1, "Dupont-Moreau", "Hélène", "F", null, null, null)));
+        when(patientWebClient.findById(3)).thenReturn(Mono.error(WebClientResponseException.create(404, "Not Found", null, null, null)));
+
+        // WHEN
+        patientDirectory.refresh(1);
+        patientDirectory.refresh(3);
+
+        // THEN
+        assertEquals(List.of(), patientDirectory.findIds("Dupont", "Helene"));
+        assertEquals(List.of(1), patientDirectory.findIds("dupont-moreau", "helene"));
+        assertEquals(List.of(2), patientDirectory.findIds("Martin", "Paul"));
+        assertEquals(List.of(new PatientNameIndex.Match(1, "dupont-moreau", "helene")),
+                patientDirectory.search("Dupont", "", 10));
+    }
+
+    @Test
+    public void rebuildKeepsLaterChangesTest() {
+        // GIVEN
+        // a rebuild reading the patients before a change
+        Sinks.One<List<Patient>> allPatients = Sinks.one();
+        when(patientWebClient.findAll()).thenReturn(allPatients.asMono());
+        Mono<Integer> rebuilt = patientDirectory.rebuild().cache();
+        rebuilt.subscribe();
+        when(patientWebClient.findById(2)).thenReturn(Mono.just(new Patient(2, "Martin", "Pierre", "M", null, null, null)));
+        patientDirectory.refresh(2);
+
+        // WHEN
+        allPatients.tryEmitValue(List.of(helene, paul, otherPaul));
+
+        // THEN
+        // the change is more recent than the rebuild
+        assertEquals(3, rebuilt.block());
+        assertEquals(List.of(3), patientDirectory.findIds("Martin", "Paul"));
+        assertEquals(List.of(2), patientDirectory.findIds("Martin", "Pierre"));
+    }
+
+    @Test
+    public void failedEarlyRebuildIsNotRetriedOnEachChangeTest() {
+        // GIVEN
+        // a directory allowing 2 changes, and a Patient microservice failing to list the patients
+        ReflectionTestUtils.setField(patientDirectory, "maxChanges", 2);
+        when(patientWebClient.findAll()).thenReturn(Mono.error(new IllegalStateException("Patient list unavailable")));
+
+        // WHEN
+        // more changes than allowed are recorded
+        for (int id = 10; id < 14; id++) {
+            when(patientWebClient.findById(id)).thenReturn(Mono.just(new Patient(id, "Leroy", "Anne" + id, "F", null, null, null)));
+            patientDirectory.refresh(id);
+        }
+
+        // THEN
+        // one early rebuild was tried, the next ones wait for the backoff
+        verify(patientWebClient, times(2)).findAll();
+        assertEquals(List.of(13), patientDirectory.findIds("Leroy", "Anne13"));
+    }
+
+    @Test
+    public void changesBeyondTheCapEmptyTheDirectoryTest() {
+        // GIVEN
+        // a directory allowing 1 change, so capped at 2, and a rebuild in progress
+        ReflectionTestUtils.setField(patientDirectory, "maxChanges", 1);
+        Sinks.One<List<Patient>> allPatients = Sinks.one();
+        when(patientWebClient.findAll()).thenReturn(allPatients.asMono());
+        Mono<Integer> rebuilt = patientDirectory.rebuild().cache();
+        rebuilt.subscribe();
+
+        // WHEN
+        // three patients change
+        for (int id = 10; id < 13; id++) {
+            when(patientWebClient.findById(id)).thenReturn(Mono.just(new Patient(id, "Leroy", "Anne" + id, "F", null, null, null)));
+            patientDirectory.refresh(id);
+        }
+        allPatients.tryEmitValue(List.of(helene, paul, otherPaul));
+
+        // THEN
+        // all the names are looked up remotely, the rebuild started before is not published
+        assertEquals(3, rebuilt.block());
+        assertEquals(List.of(), patientDirectory.findIds("Martin", "Paul"));
+        assertEquals(List.of(12), patientDirectory.findIds("Leroy", "Anne12"));
+
+        // a rebuild started after restores the directory
+        when(patientWebClient.findAll()).thenReturn(Mono.just(List.of(helene, paul, otherPaul)));
+        patientDirectory.rebuild().block();
+        assertEquals(List.of(2, 3), patientDirectory.findIds("Martin", "Paul"));
+    }
+}
@@ -0,0 +1,99 @@
+package com.mediscreen.assessment.directoryTest;
+
+import com.mediscreen.assessment.directory.PatientNameIndex;
+import com.mediscreen.assessment.model.Patient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PatientNameIndexTest {
+
+    private static final IntPredicate NONE = id -> false;
+
+    private static Patient patient(int id, String family, String given) {
+        return new Patient(id, family, given, "F", null, null, null);
+    }
+
+    @Test
+    public void findIgnoresCaseAccentsAndBlanksTest() {
+        // GIVEN
+        PatientNameIndex index = PatientNameIndex.build(List.of(
+                patient(1, "Dupont", "Hélène"),
+                patient(2, "Durand", "Luc"),
+                patient(3, "Dupont", "Helen")));
+
+        // WHEN/THEN
+        assertEquals(3, index.size());
+        assertEquals(List.of(1), index.find(PatientNameIndex.key(" DUPONT ", "helene"), NONE));
+        assertEquals(List.of(3), index.find(PatientNameIndex.key("dupont", "Helen"), NONE));
+        assertEquals(List.of(), index.find(PatientNameIndex.key("Dupont", "Hel"), NONE));
+        assertEquals(List.of(), index.find(PatientNameIndex.key("Martin", "Luc"), NONE));
+    }
+
+    @Test
+    public void findReportsHomonymsTest() {
+        // GIVEN
+        // two patients with the same name, one of them excluded
+        PatientNameIndex index = PatientNameIndex.build(List.of(
+                patient(7, "Martin", "Paul"),
+                patient(4, "Martin", "Paul"),
+                patient(5, "Martin", "Pauline")));
+
+        // WHEN/THEN
+        assertEquals(List.of(4, 7), index.find(PatientNameIndex.key("Martin", "Paul"), NONE));
+        assertEquals(List.of(7), index.find(PatientNameIndex.key("Martin", "Paul"), id -> id == 4));
+    }
+
+    @Test
+    public void findPrefixTest() {
+        // GIVEN
+        PatientNameIndex index = PatientNameIndex.build(List.of(
+                patient(1, "Dupont", "Hélène"),
+                patient(2, "Durand", "Luc"),
+                patient(3, "Dupont", "Albert"),
+                patient(4, "Dupuis", "Hector"),
+                patient(5, "Du", "Marc")));
+
+        // WHEN
+        List<PatientNameIndex.Match> families = index.findPrefix(PatientNameIndex.prefix("du", ""), NONE, 10);
+        List<PatientNameIndex.Match> givens = index.findPrefix(PatientNameIndex.prefix("Dupont", "h"), NONE, 10);
+        List<PatientNameIndex.Match> limited = index.findPrefix(PatientNameIndex.prefix("DUP", null), NONE, 2);
+
+        // THEN
+        // ordered by family name, then given name
+        assertEquals(List.of(5, 3, 1, 4, 2), families.stream().map(PatientNameIndex.Match::id).toList());
+        assertEquals(List.of(new PatientNameIndex.Match(1, "dupont", "helene")), givens);
+        assertEquals(List.of(3, 1), limited.stream().map(PatientNameIndex.Match::id).toList());
+    }
+
+    @Test
+    public void findAgreesWithSortedMapTest() {
+        // GIVEN
+        // many patients sharing a few names
+        String[] families = {"Martin", "Bernard", "Dubois", "Thomas", "Robert", "Richard", "Petit", "Durand"};
+        String[] givens = {"Léa", "Hugo", "Chloé", "Louis", "Emma", "Jules"};
+        List<Patient> patients = new ArrayList<>();
+        TreeMap<String, List<Integer>> expected = new TreeMap<>();
+        for (int id = 0; id < 5000; id++) {
+            Patient patient = patient(id, families[id * 7 % families.length], givens[id * 11 % givens.length] + (id % 37));
+            patients.add(patient);
+            expected.computeIfAbsent(PatientNameIndex.key(patient.getFamily(), patient.getGiven()), key -> new ArrayList<>()).add(id);
+        }
+
+        // WHEN
+        PatientNameIndex index = PatientNameIndex.build(patients);
+
+        // THEN
+        expected.forEach((key, ids) -> assertEquals(ids, index.find(key, NONE)));
+        String prefix = PatientNameIndex.prefix("Dubois", "Chloe1");
+        long expectedMatches = expected.subMap(prefix, prefix + Character.MAX_VALUE).values().stream().mapToLong(List::size).sum();
+        assertTrue(expectedMatches > 0);
+        assertEquals(expectedMatches, index.findPrefix(prefix, NONE, Integer.MAX_VALUE).size());
+    }
+}
@@ -0,0 +1,116 @@
+package com.mediscreen.assessment.loggingTest;
+
+import com.mediscreen.assessment.logging.CorrelationId;
+import com.mediscreen.assessment.logging.CorrelationIdFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CorrelationIdTest {
+
+    @AfterEach
+    public void clearMdc() {
+        MDC.clear();
+    }
+
+    @Test
+    public void resolveKeepsCallerIdTest() {
+        // GIVEN/WHEN/THEN
+        assertEquals("order-42.retry_1", CorrelationId.resolve("order-42.retry_1"));
+    }
+
+    @Test
+    public void resolveReplacesUnsafeIdTest() {
+        // GIVEN/WHEN
+        // missing, forged and oversized headers
+        String missing = CorrelationId.resolve(null);
+        String forged = CorrelationId.resolve("abc\nERROR fake log line");
+        String oversized = CorrelationId.resolve("a".repeat(65));
+
+        // THEN
+        // 16 hex digits are generated instead
+        for (String generated : new String[]{missing, forged, oversized}) {
+            assertTrue(generated.matches("[0-9a-f]{16}"), generated);
+        }
+        assertNotEquals(missing, CorrelationId.resolve(null));
+    }
+
+    @Test
+    public void fromMdcCopiesIdIntoContextTest() {
+        // GIVEN
+        MDC.put(CorrelationId.KEY, "abc");
+
+        // WHEN
+        Mono<String> correlationId = Mono.deferContextual(context -> Mono.just(context.<String>get(CorrelationId.KEY)))
+                .contextWrite(CorrelationId.fromMdc());
+        MDC.clear();
+
+        // THEN
+        // the ID is captured at assembly, on the request thread
+        assertEquals("abc", correlationId.block());
+    }
+
+    @Test
+    public void propagateAddsHeaderToDownstreamRequestTest() {
+        // GIVEN
+        AtomicReference<ClientRequest> sent = new AtomicReference<>();
+        ExchangeFunction exchange = request -> {
+            sent.set(request);
+            return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+        };
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://localhost/patient/1")).build();
+
+        // WHEN
+        CorrelationId.propagate().filter(request, exchange)
+                .contextWrite(Context.of(CorrelationId.KEY, "abc"))
+                .block();
+        String withId = sent.get().headers().getFirst(CorrelationId.HEADER);
+        CorrelationId.propagate().filter(request, exchange).block();
+
+        // THEN
+        assertEquals("abc", withId);
+        assertFalse(sent.get().headers().containsKey(CorrelationId.HEADER));
+    }
+
+    @Test
+    public void filterSetsMdcAndResponseHeaderTest() throws Exception {
+        // GIVEN
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/assess/id");
+        request.addHeader(CorrelationId.HEADER, "abc");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        AtomicReference<String> duringRequest = new AtomicReference<>();
+        MockFilterChain chain = new MockFilterChain() {
+            @Override
+            public void doFilter(jakarta.servlet.ServletRequest req, jakarta.servlet.ServletResponse res) {
+                duringRequest.set(MDC.get(CorrelationId.KEY));
+            }
+        };
+
+        // WHEN
+        new CorrelationIdFilter().doFilter(request, response, chain);
+
+        // THEN
+        assertEquals("abc", duringRequest.get());
+        assertEquals("abc", response.getHeader(CorrelationId.HEADER));
+        assertNull(MDC.get(CorrelationId.KEY));
+    }
+}
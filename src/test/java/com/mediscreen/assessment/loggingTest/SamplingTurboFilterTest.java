@@ -0,0 +1,61 @@
+package com.mediscreen.assessment.loggingTest;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import com.mediscreen.assessment.logging.SamplingTurboFilter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SamplingTurboFilterTest {
+
+    private final LoggerContext loggerContext = new LoggerContext();
+
+    private final Logger sampled = loggerContext.getLogger("com.mediscreen.assessment.controller.AssessmentController");
+
+    private final Logger other = loggerContext.getLogger("com.mediscreen.assessment.service.AssessmentService");
+
+    private SamplingTurboFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        filter = new SamplingTurboFilter();
+        filter.setLoggerPrefix("com.mediscreen.assessment.controller.AssessmentController");
+    }
+
+    private int countKept(Logger logger, Level level, int events) {
+        int kept = 0;
+        for (int i = 0; i < events; i++) {
+            if (filter.decide(null, logger, level, "Assessing patient {}", new Object[]{i}, null) != FilterReply.DENY) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    @Test
+    public void keepsAllEventsByDefaultTest() {
+        // GIVEN/WHEN/THEN
+        assertEquals(1000, countKept(sampled, Level.INFO, 1000));
+    }
+
+    @Test
+    public void samplesInfoEventsOfPrefixTest() {
+        // GIVEN
+        filter.setSampleEvery(10);
+
+        // WHEN
+        int kept = countKept(sampled, Level.INFO, 10000);
+
+        // THEN
+        // about one in ten, the other loggers and the warnings are not sampled
+        assertTrue(kept > 700 && kept < 1300, "kept " + kept);
+        assertEquals(1000, countKept(sampled, Level.WARN, 1000));
+        assertEquals(1000, countKept(sampled, Level.ERROR, 1000));
+        assertEquals(1000, countKept(other, Level.INFO, 1000));
+    }
+}
@@ -0,0 +1,75 @@
+package com.mediscreen.assessment.metricsTest;
+
+import com.mediscreen.assessment.metrics.AssessmentMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AssessmentMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AssessmentMetrics assessmentMetrics;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        assessmentMetrics = new AssessmentMetrics(meterRegistry);
+    }
+
+    @Test
+    public void timeDownstreamTagsTheOutcomeTest() {
+        // GIVEN
+        // a call that succeeds and a call that fails
+        Mono<String> success = assessmentMetrics.timeDownstream("patient-by-id", Mono.just("patient"));
+        Mono<String> failure = assessmentMetrics.timeDownstream("history", Mono.error(new IllegalStateException("down")));
+
+        // WHEN
+        success.block();
+        success.block();
+        assertThrows(IllegalStateException.class, failure::block);
+
+        // THEN
+        // each subscription is timed once
+        assertEquals(2, meterRegistry.get(AssessmentMetrics.DOWNSTREAM_REQUESTS)
+                .tags("call", "patient-by-id", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get(AssessmentMetrics.DOWNSTREAM_REQUESTS)
+                .tags("call", "history", "outcome", "error").timer().count());
+    }
+
+    @Test
+    public void timeDownstreamMeasuresTheCallTest() {
+        // GIVEN
+        Mono<String> slowCall = assessmentMetrics.timeDownstream("patient-by-name",
+                Mono.just("patient").delayElement(Duration.ofMillis(50)));
+
+        // WHEN
+        slowCall.block();
+
+        // THEN
+        double millis = meterRegistry.get(AssessmentMetrics.DOWNSTREAM_REQUESTS)
+                .tags("call", "patient-by-name").timer().totalTime(TimeUnit.MILLISECONDS);
+        assertTrue(millis >= 50, "measured " + millis + " ms");
+    }
+
+    @Test
+    public void timeDownstreamRecordsCancellationTest() {
+        // GIVEN
+        Mono<String> neverAnswers = assessmentMetrics.timeDownstream("history", Mono.never());
+
+        // WHEN
+        neverAnswers.subscribe().dispose();
+
+        // THEN
+        assertEquals(1, meterRegistry.get(AssessmentMetrics.DOWNSTREAM_REQUESTS)
+                .tags("call", "history", "outcome", "cancelled").timer().count());
+    }
+}
@@ -0,0 +1,207 @@
+package com.mediscreen.assessment.rescoringTest;
+
+import com.mediscreen.assessment.config.RiskClassificationProperties;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.rescoring.RescoringJob;
+import com.mediscreen.assessment.rescoring.RescoringReport;
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.snapshot.PatientSnapshot;
+import com.mediscreen.assessment.snapshot.PatientSnapshotStore;
+import com.mediscreen.assessment.snapshot.PatientSnapshotWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+public class RescoringJobTest {
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private PatientSnapshotStore patientSnapshotStore;
+
+    @Spy
+    private AssessmentService assessmentService = new AssessmentService();
+
+    @Spy
+    private TriggerVocabulary triggerVocabulary = new TriggerVocabulary(null);
+
+    @Spy
+    private RiskClassificationProperties riskClassificationProperties = new RiskClassificationProperties();
+
+    @InjectMocks
+    private RescoringJob rescoringJob;
+
+    private static History history(Integer patId, String notes) {
+        History history = new History();
+        history.setId("h" + patId);
+        history.setPatId(patId);
+        history.setNotes(notes);
+        return history;
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(assessmentService, "riskClassifier",
+                new RiskClassifier(riskClassificationProperties.getRules()));
+        ReflectionTestUtils.setField(rescoringJob, "directory", directory.resolve("rescoring"));
+        ReflectionTestUtils.setField(rescoringJob, "partitionSize", 1);
+        ReflectionTestUtils.setField(rescoringJob, "parallelism", 1);
+
+        when(patientSnapshotStore.shards()).thenReturn(List.of(snapshot("patients-0.snap", Instant.now(), "rien")));
+    }
+
+    private PatientSnapshot snapshot(String name, Instant createdAt, String notesOfPatient1) throws IOException {
+        Path file = directory.resolve(name);
+        LocalDate dob = LocalDate.of(1970, 1, 1);
+        try (PatientSnapshotWriter writer = new PatientSnapshotWriter(file, createdAt, 0, 1)) {
+            writer.write(new Patient(1, "None", "Test", "F", dob, null, null), List.of(history(1, notesOfPatient1)));
+            writer.write(new Patient(2, "Borderline", "Test", "F", dob, null, null), List.of(history(2, "Fumeur, poids")));
+            writer.write(new Patient(3, "InDanger", "Test", "F", dob, null, null),
+                    List.of(history(3, "Fumeur, poids, taille"), history(3, "Anormal, cholestérol, microalbumine")));
+            writer.write(new Patient(4, "NoDob", "Test", "F", null, null, null), List.of(history(4, "Fumeur")));
+            writer.commit();
+        }
+        return PatientSnapshot.open(file);
+    }
+
+    @Test
+    public void runReportsTransitionsTest() throws IOException {
+        // GIVEN
+        // a first run records the levels
+        RescoringReport first = rescoringJob.run();
+        assertTrue(first.baseline());
+        assertEquals(4, first.patients());
+        assertEquals(Map.of(), first.transitions());
+
+        // WHEN
+        // the trigger terms change
+        triggerVocabulary.replace(List.of("fumeur"), "test");
+        RescoringReport second = rescoringJob.run();
+
+        // THEN
+        // the patients who moved are listed, the checkpoints removed
+        assertFalse(second.baseline());
+        assertEquals(4, second.patients());
+        assertEquals(8, second.partitions());
+        assertEquals(0, second.resumedPartitions());
+        assertEquals(Map.of("Borderline -> None", 1, "In Danger -> None", 1), second.transitions());
+        assertEquals(List.of("patId,from,to", "2,Borderline,None", "3,In Danger,None"),
+                Files.readAllLines(Path.of(second.transitionsFile())));
+        assertFalse(Files.exists(directory.resolve("rescoring").resolve("run")));
+        assertEquals(second, rescoringJob.lastReport());
+    }
+
+    @Test
+    public void runResumesFromCheckpointsTest() throws IOException {
+        // GIVEN
+        // a run interrupted on the last patient
+        PatientSnapshot shard = patientSnapshotStore.shards().get(0);
+        doThrow(new IllegalStateException("Interrupted"))
+                .when(assessmentService).calculateTriggerTerms(eq(shard), eq(2), any());
+        assertThrows(IllegalStateException.class, () -> rescoringJob.run());
+        long checkpoints;
+        try (Stream<Path> files = Files.list(directory.resolve("rescoring").resolve("run"))) {
+            checkpoints = files.filter(file -> file.getFileName().toString().startsWith("partition-")).count();
+        }
+        assertTrue(checkpoints > 0);
+        doCallRealMethod().when(assessmentService).calculateTriggerTerms(eq(shard), eq(2), any());
+
+        // WHEN
+        RescoringReport report = rescoringJob.run();
+
+        // THEN
+        // the partitions scored before the failure are not scored again
+        assertEquals(checkpoints, report.resumedPartitions());
+        assertEquals(4, report.patients());
+        assertTrue(report.baseline());
+        assertEquals(null, rescoringJob.progress());
+    }
+
+    @Test
+    public void runDiscardsCheckpointsOfOtherTermsTest() {
+        // GIVEN
+        // a run interrupted, then a change of the trigger terms
+        PatientSnapshot shard = patientSnapshotStore.shards().get(0);
+        doThrow(new IllegalStateException("Interrupted"))
+                .when(assessmentService).calculateTriggerTerms(eq(shard), eq(2), any());
+        assertThrows(IllegalStateException.class, () -> rescoringJob.run());
+        doCallRealMethod().when(assessmentService).calculateTriggerTerms(eq(shard), eq(2), any());
+        triggerVocabulary.replace(List.of("fumeur"), "test");
+
+        // WHEN
+        RescoringReport report = rescoringJob.run();
+
+        // THEN
+        // every partition is scored with the new terms
+        assertEquals(0, report.resumedPartitions());
+    }
+
+    @Test
+    public void runOnlyReportsTransitionsOfTheTermsTest() throws IOException {
+        // GIVEN
+        // a first run, then a new snapshot where the notes of patient 1 changed
+        Instant firstSnapshot = patientSnapshotStore.shards().get(0).createdAt();
+        rescoringJob.run();
+        PatientSnapshot changed = snapshot("patients-1.snap", firstSnapshot.plusSeconds(3600), "Fumeur, poids");
+        when(patientSnapshotStore.shards()).thenReturn(List.of(changed));
+
+        // WHEN
+        // the trigger terms change too
+        triggerVocabulary.replace(List.of("fumeur"), "test");
+        RescoringReport report = rescoringJob.run();
+
+        // THEN
+        // the new notes of patient 1 are scored with the previous terms for the comparison, it moved because of the terms
+        assertEquals(firstSnapshot, report.baselineSnapshotCreatedAt());
+        assertEquals(changed.createdAt(), report.snapshotCreatedAt());
+        assertEquals(Map.of("Borderline -> None", 2, "In Danger -> None", 1), report.transitions());
+        assertEquals(List.of("patId,from,to", "1,Borderline,None", "2,Borderline,None", "3,In Danger,None"),
+                Files.readAllLines(Path.of(report.transitionsFile())));
+    }
+
+    @Test
+    public void runWithSameTermsAndRulesReportsNoTransitionTest() throws IOException {
+        // GIVEN
+        // a first run, then a new snapshot where patient 1 became borderline
+        rescoringJob.run();
+        when(patientSnapshotStore.shards()).thenReturn(List.of(snapshot("patients-1.snap",
+                Instant.now().plusSeconds(3600), "Fumeur, poids")));
+
+        // WHEN
+        RescoringReport report = rescoringJob.run();
+
+        // THEN
+        // a change of the notes is not a transition, the population is scored once
+        assertEquals(Map.of(), report.transitions());
+        assertEquals(4, report.partitions());
+    }
+}
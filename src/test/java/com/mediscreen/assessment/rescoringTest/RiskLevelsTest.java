@@ -0,0 +1,58 @@
+package com.mediscreen.assessment.rescoringTest;
+
+import com.mediscreen.assessment.rescoring.RiskLevels;
+import com.mediscreen.assessment.scoring.RiskLevel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RiskLevelsTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte ordinal(RiskLevel level) {
+        return (byte) level.ordinal();
+    }
+
+    @Test
+    public void mergeWriteAndReadTest() throws IOException {
+        // GIVEN
+        // two partitions of distinct patients
+        RiskLevels first = new RiskLevels(new int[]{3, 9}, new byte[]{ordinal(RiskLevel.NONE), ordinal(RiskLevel.EARLY_ONSET)});
+        RiskLevels second = new RiskLevels(new int[]{1, 4}, new byte[]{ordinal(RiskLevel.IN_DANGER), ordinal(RiskLevel.NOT_EVALUATED)});
+        Path file = directory.resolve("levels.bin");
+
+        // WHEN
+        RiskLevels.merge(List.of(first, second)).write(file);
+        RiskLevels levels = RiskLevels.read(file);
+
+        // THEN
+        // the patients are sorted by ID, with their level
+        assertEquals(4, levels.size());
+        assertEquals(List.of(1, 3, 4, 9), List.of(levels.id(0), levels.id(1), levels.id(2), levels.id(3)));
+        assertEquals(List.of(RiskLevel.IN_DANGER, RiskLevel.NONE, RiskLevel.NOT_EVALUATED, RiskLevel.EARLY_ONSET),
+                List.of(levels.level(0), levels.level(1), levels.level(2), levels.level(3)));
+    }
+
+    @Test
+    public void readRejectsTruncatedFileTest() throws IOException {
+        // GIVEN
+        Path file = directory.resolve("levels.bin");
+        new RiskLevels(new int[]{1}, new byte[]{ordinal(RiskLevel.BORDERLINE)}).write(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        // WHEN/THEN
+        assertThrows(IllegalArgumentException.class, () -> RiskLevels.read(file));
+    }
+}
@@ -0,0 +1,58 @@
+package com.mediscreen.assessment.rescoringTest;
+
+import com.mediscreen.assessment.config.RiskClassificationProperties;
+import com.mediscreen.assessment.rescoring.ScoringSettings;
+import com.mediscreen.assessment.scoring.RiskLevel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class ScoringSettingsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void writeAndReadTest() throws IOException {
+        // GIVEN
+        List<RiskClassificationProperties.Rule> rules = new RiskClassificationProperties().getRules();
+        ScoringSettings settings = new ScoringSettings(Instant.ofEpochMilli(1_700_000_000_000L),
+                List.of("fumeur", "poids"), rules);
+        Path file = directory.resolve("scoring.bin");
+
+        // WHEN
+        settings.write(file);
+        ScoringSettings read = ScoringSettings.read(file);
+
+        // THEN
+        // the terms and the rules themselves are read back
+        assertEquals(settings.snapshotCreatedAt(), read.snapshotCreatedAt());
+        assertEquals(List.of("fumeur", "poids"), read.terms());
+        assertEquals(rules, read.rules());
+        assertEquals(settings.digest(), read.digest());
+    }
+
+    @Test
+    public void digestTest() {
+        // GIVEN
+        RiskClassificationProperties properties = new RiskClassificationProperties();
+        ScoringSettings settings = new ScoringSettings(Instant.now(), List.of("fumeur", "poids"), properties.getRules());
+
+        // WHEN/THEN
+        // the digest ignores the snapshot, changes with the terms and the rules
+        assertEquals(settings.digest(),
+                new ScoringSettings(Instant.EPOCH, List.of("fumeur", "poids"), properties.getRules()).digest());
+        assertNotEquals(settings.digest(),
+                new ScoringSettings(Instant.EPOCH, List.of("fumeurpoids"), properties.getRules()).digest());
+        properties.getRules().get(0).getThresholds().put(RiskLevel.BORDERLINE, 3);
+        assertNotEquals(settings.digest(),
+                new ScoringSettings(Instant.EPOCH, List.of("fumeur", "poids"), properties.getRules()).digest());
+    }
+}
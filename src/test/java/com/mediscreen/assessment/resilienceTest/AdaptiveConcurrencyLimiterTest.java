@@ -0,0 +1,140 @@
+package com.mediscreen.assessment.resilienceTest;
+
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter.Priority;
+import com.mediscreen.assessment.resilience.ServiceOverloadedException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, 2, 100, Duration.ofMillis(100), 0.5, 0.5,
+                Duration.ofSeconds(2), nanoTime::get);
+    }
+
+    @Test
+    public void requestsAboveTheLimitAreRejectedTest() {
+        // GIVEN
+        // 4 interactive requests in progress, at the limit
+        AdaptiveConcurrencyLimiter limiter = limiter(4);
+        List<Sinks.One<String>> pending = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Sinks.One<String> sink = Sinks.one();
+            limiter.limit(Priority.INTERACTIVE, sink.asMono()).subscribe();
+            pending.add(sink);
+        }
+
+        // WHEN
+        ServiceOverloadedException e = assertThrows(ServiceOverloadedException.class,
+                () -> limiter.limit(Priority.INTERACTIVE, Mono.just("rejected")));
+
+        // THEN
+        // the caller is told when to retry, and a completed request frees its permit
+        assertEquals(Duration.ofSeconds(2), e.getRetryAfter());
+        assertEquals(1, limiter.getRejected(Priority.INTERACTIVE));
+        pending.get(0).tryEmitValue("done");
+        assertEquals("accepted", limiter.limit(Priority.INTERACTIVE, Mono.just("accepted")).block());
+    }
+
+    @Test
+    public void bulkRequestsUseAShareOfTheLimitTest() {
+        // GIVEN
+        // a limit of 4, half of it for the bulk requests
+        AdaptiveConcurrencyLimiter limiter = limiter(4);
+        limiter.limit(Priority.BULK, Flux.never()).subscribe();
+        limiter.limit(Priority.BULK, Flux.never()).subscribe();
+
+        // WHEN/THEN
+        // the interactive requests still get in
+        assertThrows(ServiceOverloadedException.class, () -> limiter.limit(Priority.BULK, Flux.just(1)));
+        limiter.limit(Priority.INTERACTIVE, Mono.never()).subscribe();
+        limiter.limit(Priority.INTERACTIVE, Mono.never()).subscribe();
+        assertThrows(ServiceOverloadedException.class, () -> limiter.limit(Priority.INTERACTIVE, Mono.just(1)));
+        assertEquals(1, limiter.getRejected(Priority.BULK));
+        assertEquals(1, limiter.getRejected(Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void limitFollowsTheLatencyTest() {
+        // GIVEN
+        AdaptiveConcurrencyLimiter limiter = limiter(8);
+
+        // WHEN
+        // a slow request, then a timeout
+        Sinks.One<String> slow = Sinks.one();
+        limiter.limit(Priority.INTERACTIVE, slow.asMono()).subscribe();
+        nanoTime.addAndGet(Duration.ofMillis(500).toNanos());
+        slow.tryEmitValue("slow");
+        int afterSlowRequest = limiter.getLimit();
+        limiter.limit(Priority.INTERACTIVE, Mono.error(new TimeoutException())).subscribe(value -> { }, e -> { });
+        int afterTimeout = limiter.getLimit();
+        // a fast client error, that says nothing about the load
+        limiter.limit(Priority.INTERACTIVE, Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .subscribe(value -> { }, e -> { });
+        int afterClientError = limiter.getLimit();
+
+        // THEN
+        // the limit is halved twice, down to the minimum, and not lowered by the client error
+        assertEquals(4, afterSlowRequest);
+        assertEquals(2, afterTimeout);
+        assertEquals(3, afterClientError);
+
+        // WHEN
+        // the limit is fully used by fast requests
+        for (int i = 0; i < 3; i++) {
+            Sinks.One<String> first = Sinks.one();
+            Sinks.One<String> second = Sinks.one();
+            limiter.limit(Priority.INTERACTIVE, first.asMono()).subscribe();
+            limiter.limit(Priority.INTERACTIVE, second.asMono()).subscribe();
+            first.tryEmitValue("fast");
+            second.tryEmitValue("fast");
+        }
+
+        // THEN
+        // it grows back one request at a time
+        assertEquals(5, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void permitIsOnlyTakenOnSubscriptionTest() {
+        // GIVEN
+        // a limit of 2, and requests assembled but never subscribed, such as after a failure of the caller
+        AdaptiveConcurrencyLimiter limiter = limiter(2);
+        for (int i = 0; i < 3; i++) {
+            limiter.limit(Priority.INTERACTIVE, Mono.just("never subscribed"));
+            limiter.limit(Priority.BULK, Flux.just(1));
+        }
+
+        // WHEN/THEN
+        // they hold no permit, each subscription holds its own until it ends or is cancelled
+        assertEquals(0, limiter.getInFlight());
+        Flux<Integer> bulk = limiter.limit(Priority.BULK, Flux.just(1));
+        Mono<String> request = limiter.limit(Priority.INTERACTIVE, Mono.never());
+        Disposable first = request.subscribe();
+        Disposable second = request.subscribe();
+        assertEquals(2, limiter.getInFlight());
+        // a request let in before the limit was reached fails when subscribed over it
+        assertThrows(ServiceOverloadedException.class, bulk::blockLast);
+        first.dispose();
+        second.dispose();
+        assertEquals(0, limiter.getInFlight());
+    }
+}
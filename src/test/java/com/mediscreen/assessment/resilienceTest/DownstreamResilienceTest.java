@@ -0,0 +1,298 @@
+package com.mediscreen.assessment.resilienceTest;
+
+import com.mediscreen.assessment.config.DownstreamResilienceProperties;
+import com.mediscreen.assessment.resilience.DownstreamResilience;
+import com.mediscreen.assessment.resilience.RetryBudget;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownstreamResilienceTest {
+
+    private RetryBudget historyRetryBudget;
+
+    private DownstreamResilienceProperties properties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    private DownstreamResilience downstreamResilience;
+
+    @BeforeEach
+    public void setUp() {
+        historyRetryBudget = new RetryBudget(DownstreamResilience.HISTORY, 0.1, 5, Duration.ofSeconds(10));
+        RetryBudget patientRetryBudget = new RetryBudget(DownstreamResilience.PATIENT, 0.1, 5, Duration.ofSeconds(10));
+        properties = new DownstreamResilienceProperties();
+        meterRegistry = new SimpleMeterRegistry();
+
+        RetryRegistry retryRegistry = RetryRegistry.ofDefaults();
+        retryRegistry.retry(DownstreamResilience.HISTORY, RetryConfig.custom()
+                .maxAttempts(3)
+                .waitDuration(Duration.ofMillis(1))
+                .retryOnException(DownstreamResilience.retryWithin(historyRetryBudget))
+                .build());
+        // Patient calls are not retried, to count the calls reaching the circuit breaker and the bulkhead
+        retryRegistry.retry(DownstreamResilience.PATIENT, RetryConfig.custom().maxAttempts(1).build());
+        circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build());
+        TimeLimiterRegistry timeLimiterRegistry =
+                TimeLimiterRegistry.of(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(200)).build());
+        timeLimiterRegistry.timeLimiter(DownstreamResilience.PATIENT + "-bulk",
+                TimeLimiterConfig.custom().timeoutDuration(Duration.ofSeconds(2)).build());
+        downstreamResilience = new DownstreamResilience(
+                circuitBreakerRegistry,
+                BulkheadRegistry.of(BulkheadConfig.custom().maxConcurrentCalls(2).maxWaitDuration(Duration.ZERO).build()),
+                retryRegistry,
+                timeLimiterRegistry,
+                List.of(historyRetryBudget, patientRetryBudget),
+                properties,
+                meterRegistry);
+    }
+
+    private static Mono<String> failingTimes(int failures, AtomicInteger attempts, HttpStatus status) {
+        return Mono.defer(() -> attempts.incrementAndGet() <= failures
+                ? Mono.error(WebClientResponseException.create(status.value(), status.name(), null, null, null))
+                : Mono.just("history"));
+    }
+
+    @Test
+    public void protectRetriesServerErrorsTest() {
+        // GIVEN
+        AtomicInteger attempts = new AtomicInteger();
+
+        // WHEN
+        String result = downstreamResilience.protect(DownstreamResilience.HISTORY,
+                failingTimes(2, attempts, HttpStatus.SERVICE_UNAVAILABLE)).block();
+
+        // THEN
+        assertEquals("history", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void protectDoesNotRetryClientErrorsTest() {
+        // GIVEN
+        AtomicInteger attempts = new AtomicInteger();
+
+        // WHEN
+        Mono<String> call = downstreamResilience.protect(DownstreamResilience.HISTORY,
+                failingTimes(1, attempts, HttpStatus.NOT_FOUND));
+
+        // THEN
+        assertThrows(WebClientResponseException.NotFound.class, call::block);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void protectStopsRetryingWhenTheBudgetIsSpentTest() {
+        // GIVEN
+        // the reserve of retries is already spent
+        while (historyRetryBudget.tryRetry()) {
+        }
+        AtomicInteger attempts = new AtomicInteger();
+
+        // WHEN
+        Mono<String> call = downstreamResilience.protect(DownstreamResilience.HISTORY,
+                failingTimes(2, attempts, HttpStatus.SERVICE_UNAVAILABLE));
+
+        // THEN
+        assertThrows(WebClientResponseException.ServiceUnavailable.class, call::block);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void protectTimesOutSlowCallsTest() {
+        // GIVEN
+        // a call that never answers, retried twice
+        AtomicInteger attempts = new AtomicInteger();
+        Mono<String> neverAnswers = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.never();
+        });
+
+        // WHEN
+        Mono<String> call = downstreamResilience.protect(DownstreamResilience.HISTORY, neverAnswers);
+
+        // THEN
+        Exception e = assertThrows(RuntimeException.class, () -> call.block(Duration.ofSeconds(5)));
+        assertTrue(e.getCause() instanceof TimeoutException, e.toString());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void protectBulkHasItsOwnTimeLimitAndIsNotRetriedTest() {
+        // GIVEN
+        // a download slower than the time limit of a single record
+        Mono<String> slow = Mono.just("all patients").delayElement(Duration.ofMillis(300));
+        AtomicInteger attempts = new AtomicInteger();
+
+        // WHEN
+        String result = downstreamResilience.protectBulk(DownstreamResilience.PATIENT, slow).block();
+        Mono<String> failing = downstreamResilience.protectBulk(DownstreamResilience.PATIENT,
+                failingTimes(1, attempts, HttpStatus.SERVICE_UNAVAILABLE));
+
+        // THEN
+        assertEquals("all patients", result);
+        assertThrows(WebClientResponseException.ServiceUnavailable.class, failing::block);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void circuitBreakerOpensOnFailuresTest() {
+        // GIVEN
+        // the patient service keeps failing
+        AtomicInteger attempts = new AtomicInteger();
+        Mono<String> failing = failingTimes(Integer.MAX_VALUE, attempts, HttpStatus.INTERNAL_SERVER_ERROR);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(WebClientResponseException.class,
+                    () -> downstreamResilience.protect(DownstreamResilience.PATIENT, failing).block());
+        }
+        int attemptsBeforeOpen = attempts.get();
+
+        // WHEN
+        Mono<String> call = downstreamResilience.protect(DownstreamResilience.PATIENT, failing);
+
+        // THEN
+        // the call fails fast without reaching the service
+        assertThrows(CallNotPermittedException.class, call::block);
+        assertEquals(attemptsBeforeOpen, attempts.get());
+    }
+
+    @Test
+    public void bulkheadLimitsConcurrentCallsTest() {
+        // GIVEN
+        // two calls in flight
+        downstreamResilience.protect(DownstreamResilience.PATIENT, Mono.delay(Duration.ofMillis(150))).subscribe(value -> { }, e -> { });
+        downstreamResilience.protect(DownstreamResilience.PATIENT, Mono.delay(Duration.ofMillis(150))).subscribe(value -> { }, e -> { });
+
+        // WHEN
+        Mono<Long> call = downstreamResilience.protect(DownstreamResilience.PATIENT, Mono.just(1L));
+
+        // THEN
+        assertThrows(BulkheadFullException.class, call::block);
+    }
+
+    @Test
+    public void bulkheadRejectionsDoNotOpenTheCircuitTest() {
+        // GIVEN
+        // the bulkhead is full, with calls then cut by the time limit
+        downstreamResilience.protect(DownstreamResilience.PATIENT, Mono.delay(Duration.ofMillis(300))).subscribe(value -> { }, e -> { });
+        downstreamResilience.protect(DownstreamResilience.PATIENT, Mono.delay(Duration.ofMillis(300))).subscribe(value -> { }, e -> { });
+
+        // WHEN
+        // more calls than the circuit breaker window are rejected
+        for (int i = 0; i < 6; i++) {
+            assertThrows(BulkheadFullException.class,
+                    () -> downstreamResilience.protect(DownstreamResilience.PATIENT, Mono.just(1L)).block());
+        }
+
+        // THEN
+        // the dependency did not fail, its circuit stays closed
+        assertEquals(0, circuitBreakerRegistry.circuitBreaker(DownstreamResilience.PATIENT).getMetrics().getNumberOfFailedCalls());
+    }
+
+    @Test
+    public void protectHedgedSendsASecondRequestTest() {
+        // GIVEN
+        // the first request is slow, the hedge is fast
+        properties.getHistory().setHedgeDelay(Duration.ofMillis(20));
+        AtomicInteger attempts = new AtomicInteger();
+        Mono<String> call = Mono.defer(() -> attempts.incrementAndGet() == 1
+                ? Mono.just("slow").delayElement(Duration.ofMillis(150))
+                : Mono.just("hedge"));
+
+        // WHEN
+        String result = downstreamResilience.protectHedged(DownstreamResilience.HISTORY, call).block();
+
+        // THEN
+        assertEquals("hedge", result);
+        assertEquals(2, attempts.get());
+        assertEquals(1, meterRegistry.get("assessment.downstream.hedges").tag("outcome", "won").counter().count());
+    }
+
+    @Test
+    public void protectHedgedKeepsTheErrorOfTheFirstRequestTest() {
+        // GIVEN
+        // hedging enabled, the budget spent so no hedge is sent, and a failing request
+        properties.getHistory().setHedgeDelay(Duration.ofMillis(20));
+        while (historyRetryBudget.tryRetry()) {
+        }
+        Mono<String> call = Mono.delay(Duration.ofMillis(50))
+                .then(Mono.error(WebClientResponseException.create(404, "NOT_FOUND", null, null, null)));
+
+        // WHEN/THEN
+        assertThrows(WebClientResponseException.NotFound.class,
+                () -> downstreamResilience.protectHedged(DownstreamResilience.HISTORY, call).block());
+        assertEquals(1, meterRegistry.get("assessment.downstream.hedges").tag("outcome", "skipped").counter().count());
+    }
+
+    @Test
+    public void protectHedgedReturnsAClientErrorWithoutHedgingTest() {
+        // GIVEN
+        // hedging after 200 ms, and a request failing at once with a client error
+        properties.getHistory().setHedgeDelay(Duration.ofMillis(200));
+        AtomicInteger attempts = new AtomicInteger();
+        Mono<String> call = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.error(WebClientResponseException.create(400, "BAD_REQUEST", null, null, null));
+        });
+
+        // WHEN
+        long start = System.nanoTime();
+        assertThrows(WebClientResponseException.BadRequest.class,
+                () -> downstreamResilience.protectHedged(DownstreamResilience.HISTORY, call).block());
+
+        // THEN
+        // the error is not held until the hedge delay, and no hedge is sent
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(200).toNanos());
+        assertEquals(1, attempts.get());
+        assertEquals(0, meterRegistry.find("assessment.downstream.hedges").counters().size());
+    }
+
+    @Test
+    public void protectHedgedCancelsTheHedgeOnAClientErrorTest() {
+        // GIVEN
+        // a hedge already sent and pending, then the first request fails with a client error
+        properties.getHistory().setHedgeDelay(Duration.ofMillis(20));
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean hedgeCancelled = new AtomicBoolean();
+        Mono<String> call = Mono.defer(() -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(100))
+                        .then(Mono.<String>error(WebClientResponseException.create(404, "NOT_FOUND", null, null, null)))
+                : Mono.<String>never().doOnCancel(() -> hedgeCancelled.set(true)));
+
+        // WHEN/THEN
+        assertThrows(WebClientResponseException.NotFound.class,
+                () -> downstreamResilience.protectHedged(DownstreamResilience.HISTORY, call).block(Duration.ofSeconds(2)));
+        assertEquals(2, attempts.get());
+        assertTrue(hedgeCancelled.get());
+    }
+}
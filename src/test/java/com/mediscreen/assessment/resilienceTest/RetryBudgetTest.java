@@ -0,0 +1,73 @@
+package com.mediscreen.assessment.resilienceTest;
+
+import com.mediscreen.assessment.resilience.RetryBudget;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryBudgetTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    public void reserveAllowsRetriesWithoutRequestsTest() {
+        // GIVEN
+        // a reserve of 2 retries per second over 3 seconds
+        RetryBudget retryBudget = new RetryBudget("history", 0.1, 2, Duration.ofSeconds(3), nanoTime::get);
+
+        // WHEN/THEN
+        for (int i = 0; i < 6; i++) {
+            assertTrue(retryBudget.tryRetry());
+        }
+        assertFalse(retryBudget.tryRetry());
+        assertEquals(0, retryBudget.remaining());
+    }
+
+    @Test
+    public void requestsAddToTheBudgetTest() {
+        // GIVEN
+        // no reserve, a retry for every 10 requests
+        RetryBudget retryBudget = new RetryBudget("history", 0.1, 0, Duration.ofSeconds(10), nanoTime::get);
+        for (int i = 0; i < 30; i++) {
+            retryBudget.recordRequest();
+        }
+
+        // WHEN/THEN
+        assertEquals(3, retryBudget.remaining());
+        assertTrue(retryBudget.tryRetry());
+        assertTrue(retryBudget.tryRetry());
+        assertTrue(retryBudget.tryRetry());
+        assertFalse(retryBudget.tryRetry());
+    }
+
+    @Test
+    public void budgetRecoversWhenTheWindowSlidesTest() {
+        // GIVEN
+        // a reserve of 1 retry per second over 2 seconds, spent one retry per second
+        RetryBudget retryBudget = new RetryBudget("history", 0.1, 1, Duration.ofSeconds(2), nanoTime::get);
+        assertTrue(retryBudget.tryRetry());
+        nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertTrue(retryBudget.tryRetry());
+        assertFalse(retryBudget.tryRetry());
+
+        // WHEN
+        // one second later, the first retry left the window
+        nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+
+        // THEN
+        assertTrue(retryBudget.tryRetry());
+        assertFalse(retryBudget.tryRetry());
+
+        // WHEN
+        // long after, the window is empty
+        nanoTime.addAndGet(Duration.ofMinutes(5).toNanos());
+
+        // THEN
+        assertEquals(2, retryBudget.remaining());
+    }
+}
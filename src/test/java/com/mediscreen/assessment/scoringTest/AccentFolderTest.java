@@ -0,0 +1,68 @@
+package com.mediscreen.assessment.scoringTest;
+
+import com.mediscreen.assessment.scoring.AccentFolder;
+import org.junit.jupiter.api.Test;
+
+import java.text.Normalizer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class AccentFolderTest {
+
+    // Reference implementation: the regex based folding used before the table
+    private static String foldWithRegex(String input) {
+        String normalized = Normalizer.normalize(input, Normalizer.Form.NFD);
+        return normalized.replaceAll("\\p{InCombiningDiacriticalMarks}+", "").toLowerCase();
+    }
+
+    @Test
+    public void foldTest() {
+        assertEquals("eleve", AccentFolder.fold("Élève"));
+        assertEquals("hemoglobine a1c", AccentFolder.fold("Hémoglobine A1C"));
+        assertEquals("cholesterol", AccentFolder.fold("CHOLESTÉROL"));
+        assertEquals("", AccentFolder.fold(""));
+    }
+
+    @Test
+    public void foldReturnsInputWhenAlreadyFoldedTest() {
+        String input = "reaction abnormal height";
+
+        assertSame(input, AccentFolder.fold(input));
+    }
+
+    @Test
+    public void everyLatinCharacterAgreesWithRegexTest() {
+        // Latin-1 and Latin Extended-A, one by one
+        for (char c = 0; c < 0x180; c++) {
+            String input = String.valueOf(c);
+            assertEquals(foldWithRegex(input), AccentFolder.fold(input), "character U+" + Integer.toHexString(c));
+        }
+    }
+
+    @Test
+    public void randomizedTextAgreesWithRegexTest() {
+        // GIVEN
+        // Text mixing Latin-1, Latin Extended-A, combining marks and a few characters outside the table
+        Random random = new Random(20231018L);
+
+        for (int run = 0; run < 5000; run++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                int pick = random.nextInt(20);
+                if (pick == 0) {
+                    input.append((char) (0x0300 + random.nextInt(0x70)));
+                } else if (pick == 1) {
+                    input.append("ΣσςДжﬁ€".charAt(random.nextInt(7)));
+                } else {
+                    input.append((char) random.nextInt(0x180));
+                }
+            }
+
+            // WHEN/THEN
+            assertEquals(foldWithRegex(input.toString()), AccentFolder.fold(input.toString()));
+        }
+    }
+}
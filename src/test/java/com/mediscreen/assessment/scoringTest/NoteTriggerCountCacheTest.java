@@ -0,0 +1,51 @@
+package com.mediscreen.assessment.scoringTest;
+
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.scoring.NoteTriggerCountCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NoteTriggerCountCacheTest {
+
+    private static History history(String id, String notes) {
+        History history = new History();
+        history.setId(id);
+        history.setNotes(notes);
+        return history;
+    }
+
+    @Test
+    public void editWithSameHashIsScannedAgainTest() {
+        // GIVEN
+        // a note counted once, then edited to a content of the same length and hash
+        NoteTriggerCountCache cache = new NoteTriggerCountCache(100);
+        assertEquals("Aa smoker".hashCode(), "BB smoker".hashCode());
+        assertEquals(1, cache.count(history("123", "Aa smoker"), 1, notes -> notes.startsWith("Aa") ? 1 : 2));
+
+        // WHEN
+        int count = cache.count(history("123", "BB smoker"), 1, notes -> notes.startsWith("Aa") ? 1 : 2);
+
+        // THEN
+        // the count of the previous content is not reused
+        assertEquals(2, count);
+        assertEquals(0, cache.savedChars());
+    }
+
+    @Test
+    public void sameContentIsOneHitTest() {
+        // GIVEN
+        NoteTriggerCountCache cache = new NoteTriggerCountCache(100);
+        cache.count(history("123", "smoker"), 1, notes -> 1);
+
+        // WHEN
+        int count = cache.count(history("123", new String("smoker")), 1, notes -> 2);
+
+        // THEN
+        // the memo keeps the count only, and a found note is a hit
+        assertEquals(1, count);
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(6, cache.savedChars());
+    }
+}
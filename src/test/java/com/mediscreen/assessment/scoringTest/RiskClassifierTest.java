@@ -0,0 +1,143 @@
+package com.mediscreen.assessment.scoringTest;
+
+import com.mediscreen.assessment.config.RiskClassificationProperties;
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import com.mediscreen.assessment.scoring.RiskLevel;
+import com.mediscreen.assessment.scoring.Sex;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RiskClassifierTest {
+
+    // Reference implementation: the nested branches used before the rules table
+    private static String classifyWithBranches(String sex, int age, int nbrOfTriggerTerms) {
+        if (age >= 30) {
+            if (nbrOfTriggerTerms <= 1) {
+                return "None";
+            } else if (nbrOfTriggerTerms <= 5) {
+                return "Borderline";
+            } else if (nbrOfTriggerTerms <= 7) {
+                return "In Danger";
+            } else {
+                return "Early onset";
+            }
+        } else if ("M".equals(sex)) {
+            if (nbrOfTriggerTerms <= 2) {
+                return "None";
+            } else if (nbrOfTriggerTerms <= 4) {
+                return "In Danger";
+            } else {
+                return "Early onset";
+            }
+        } else if ("F".equals(sex)) {
+            if (nbrOfTriggerTerms <= 3) {
+                return "None";
+            } else if (nbrOfTriggerTerms <= 6) {
+                return "In Danger";
+            } else {
+                return "Early onset";
+            }
+        } else {
+            return "Patient not evaluated";
+        }
+    }
+
+    @Test
+    public void defaultRulesAgreeWithBranchesTest() {
+        // GIVEN
+        RiskClassifier classifier = new RiskClassifier(new RiskClassificationProperties().getRules());
+
+        // WHEN/THEN
+        for (String sex : new String[]{"M", "F", "X", null}) {
+            for (int age = 0; age <= 160; age++) {
+                for (int count = 0; count <= 30; count++) {
+                    assertEquals(classifyWithBranches(sex, age, count),
+                            classifier.classify(Sex.fromCode(sex), age, count).getLabel(),
+                            "sex " + sex + ", age " + age + ", count " + count);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void configuredRulesAgreeWithDefaultsTest() throws IOException {
+        // GIVEN
+        // the rules of application.properties
+        Map<Object, Object> properties = PropertiesLoaderUtils.loadProperties(new ClassPathResource("application.properties"));
+        RiskClassificationProperties configured = new Binder(new MapConfigurationPropertySource(properties))
+                .bind("assessment.risk", RiskClassificationProperties.class)
+                .get();
+
+        // WHEN/THEN
+        assertEquals(new RiskClassificationProperties().getRules(), configured.getRules());
+    }
+
+    @Test
+    public void earlyOnsetThresholdTest() {
+        // GIVEN
+        RiskClassifier classifier = new RiskClassifier(new RiskClassificationProperties().getRules());
+
+        // WHEN/THEN
+        assertEquals(8, classifier.earlyOnsetThreshold(Sex.MALE, 40));
+        assertEquals(5, classifier.earlyOnsetThreshold(Sex.MALE, 29));
+        assertEquals(7, classifier.earlyOnsetThreshold(Sex.FEMALE, 0));
+        assertEquals(8, classifier.earlyOnsetThreshold(Sex.UNKNOWN, 200));
+        assertEquals(Integer.MAX_VALUE, classifier.earlyOnsetThreshold(Sex.UNKNOWN, 29));
+    }
+
+    @Test
+    public void customRulesTest() {
+        // GIVEN
+        // a band for the patients over 65, an age band without rule, and a rule without "Early onset"
+        RiskClassificationProperties.Rule seniors = new RiskClassificationProperties.Rule(null, 65, Integer.MAX_VALUE,
+                Map.of(RiskLevel.BORDERLINE, 1, RiskLevel.IN_DANGER, 3, RiskLevel.EARLY_ONSET, 4));
+        RiskClassificationProperties.Rule adults = new RiskClassificationProperties.Rule(null, 18, 65,
+                Map.of(RiskLevel.BORDERLINE, 2, RiskLevel.IN_DANGER, 6));
+
+        // WHEN
+        RiskClassifier classifier = new RiskClassifier(List.of(seniors, adults));
+
+        // THEN
+        assertSame(RiskLevel.BORDERLINE, classifier.classify(Sex.FEMALE, 70, 1));
+        assertSame(RiskLevel.EARLY_ONSET, classifier.classify(Sex.MALE, 65, 100));
+        assertSame(RiskLevel.IN_DANGER, classifier.classify(Sex.MALE, 64, 100));
+        assertSame(RiskLevel.NONE, classifier.classify(Sex.MALE, 18, 1));
+        assertSame(RiskLevel.NOT_EVALUATED, classifier.classify(Sex.MALE, 17, 5));
+        assertEquals(Integer.MAX_VALUE, classifier.earlyOnsetThreshold(Sex.FEMALE, 40));
+    }
+
+    @Test
+    public void invalidThresholdsTest() {
+        // Thresholds lower than the level below, or on a level that can not be reached by counting
+        RiskClassificationProperties.Rule decreasing = new RiskClassificationProperties.Rule(null, 0, 30,
+                Map.of(RiskLevel.IN_DANGER, 5, RiskLevel.EARLY_ONSET, 4));
+        RiskClassificationProperties.Rule negative = new RiskClassificationProperties.Rule(null, 0, 30,
+                Map.of(RiskLevel.BORDERLINE, -1));
+        RiskClassificationProperties.Rule none = new RiskClassificationProperties.Rule(null, 0, 30,
+                Map.of(RiskLevel.NONE, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> new RiskClassifier(List.of(decreasing)));
+        assertThrows(IllegalArgumentException.class, () -> new RiskClassifier(List.of(negative)));
+        assertThrows(IllegalArgumentException.class, () -> new RiskClassifier(List.of(none)));
+    }
+
+    @Test
+    public void sexFromCodeTest() {
+        assertSame(Sex.MALE, Sex.fromCode("M"));
+        assertSame(Sex.FEMALE, Sex.fromCode("F"));
+        assertSame(Sex.UNKNOWN, Sex.fromCode("m"));
+        assertSame(Sex.UNKNOWN, Sex.fromCode("MF"));
+        assertSame(Sex.UNKNOWN, Sex.fromCode(null));
+    }
+}
@@ -0,0 +1,95 @@
+package com.mediscreen.assessment.scoringTest;
+
+import com.mediscreen.assessment.scoring.TriggerTermMatcher;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TriggerTermMatcherTest {
+
+    private static final List<String> TRIGGER_TERMS = Arrays.asList(
+            "hemoglobine a1c", "hemoglobin a1c", "microalbumine", "microalbumin", "taille", "height",
+            "poids", "weight", "fumeur", "smoker", "anormal", "abnormal", "cholesterol", "vertige",
+            "dizziness", "rechute", "relapse", "reaction", "anticorps", "antibodies"
+    );
+
+    // Reference implementation: the term by term scan used before the automaton
+    private static int countWithContains(List<String> terms, List<String> notes) {
+        int count = 0;
+        for (String term : terms) {
+            for (String note : notes) {
+                if (note.contains(term)) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countWithMatcher(TriggerTermMatcher matcher, List<String> notes) {
+        int count = 0;
+        for (String note : notes) {
+            count += matcher.countDistinctTerms(note);
+        }
+        return count;
+    }
+
+    @Test
+    public void countDistinctTermsTest() {
+        // GIVEN
+        TriggerTermMatcher matcher = new TriggerTermMatcher(TRIGGER_TERMS);
+
+        // WHEN/THEN
+        // Each term counts once per note, overlapping terms are all counted
+        assertEquals(0, matcher.countDistinctTerms(""));
+        assertEquals(0, matcher.countDistinctTerms("nothing to report"));
+        assertEquals(3, matcher.countDistinctTerms("reaction abnormal height"));
+        assertEquals(1, matcher.countDistinctTerms("height height height"));
+        assertEquals(2, matcher.countDistinctTerms("microalbumine"));
+        assertEquals(2, matcher.countDistinctTerms("hemoglobin a1c et hemoglobine a1c"));
+    }
+
+    @Test
+    public void overlappingTermsTest() {
+        // GIVEN
+        TriggerTermMatcher matcher = new TriggerTermMatcher(List.of("he", "she", "his", "hers", "e"));
+
+        // WHEN/THEN
+        assertEquals(4, matcher.countDistinctTerms("ushers"));
+        assertEquals(1, matcher.countDistinctTerms("this"));
+    }
+
+    @Test
+    public void randomizedNotesAgreeWithContainsTest() {
+        // GIVEN
+        // Notes made of term fragments, whole terms, separators and accented letters
+        TriggerTermMatcher matcher = new TriggerTermMatcher(TRIGGER_TERMS);
+        Random random = new Random(20231018L);
+        String[] noise = {" ", "a", "e", "r", "é", "1", "c", ".", "\n", "abnorm", "micro", "hemoglobi", "reac", "ant"};
+
+        for (int run = 0; run < 2000; run++) {
+            int nbrOfNotes = random.nextInt(6);
+            List<String> notes = new ArrayList<>();
+            for (int n = 0; n < nbrOfNotes; n++) {
+                StringBuilder note = new StringBuilder();
+                int parts = random.nextInt(25);
+                for (int p = 0; p < parts; p++) {
+                    if (random.nextInt(3) == 0) {
+                        note.append(TRIGGER_TERMS.get(random.nextInt(TRIGGER_TERMS.size())));
+                    } else {
+                        note.append(noise[random.nextInt(noise.length)]);
+                    }
+                }
+                notes.add(note.toString());
+            }
+
+            // WHEN/THEN
+            assertEquals(countWithContains(TRIGGER_TERMS, notes), countWithMatcher(matcher, notes));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.mediscreen.assessment.scoringTest;
+
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.scoring.TriggerVocabularyEndpoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TriggerVocabularyTest {
+
+    @TempDir
+    Path directory;
+
+    private Path writeTerms(String content, Instant modified) throws IOException {
+        Path file = directory.resolve("trigger-terms.txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, FileTime.from(modified));
+        return file;
+    }
+
+    @Test
+    public void builtInTermsTest() {
+        // GIVEN/WHEN
+        // no vocabulary file is configured
+        TriggerVocabulary vocabulary = new TriggerVocabulary(null);
+
+        // THEN
+        assertEquals(1, vocabulary.current().version());
+        assertEquals(TriggerVocabulary.DEFAULT_TERMS, vocabulary.current().terms());
+        assertEquals(3, vocabulary.current().matcher().countDistinctTerms("reaction abnormal height"));
+        assertThrows(IllegalStateException.class, vocabulary::reload);
+    }
+
+    @Test
+    public void loadsTermsFromFileTest() throws IOException {
+        // GIVEN
+        // a file with comments, blank lines, accents and duplicates
+        Path file = writeTerms("# diabetes\nHémoglobine A1C\n\n  smoker \nSMOKER\nGlycémie\n", Instant.parse("2023-10-18T10:00:00Z"));
+
+        // WHEN
+        TriggerVocabulary vocabulary = new TriggerVocabulary(new FileSystemResource(file));
+
+        // THEN
+        // the terms are folded like the notes
+        assertEquals(List.of("hemoglobine a1c", "smoker", "glycemie"), vocabulary.current().terms());
+        assertEquals(2, vocabulary.current().matcher().countDistinctTerms("glycemie high, smoker"));
+    }
+
+    @Test
+    public void reloadIfModifiedPublishesNewVersionTest() throws IOException {
+        // GIVEN
+        Path file = writeTerms("smoker\n", Instant.parse("2023-10-18T10:00:00Z"));
+        TriggerVocabulary vocabulary = new TriggerVocabulary(new FileSystemResource(file));
+        TriggerVocabulary.Snapshot inFlight = vocabulary.current();
+
+        // WHEN
+        // the file is edited
+        writeTerms("smoker\nweight\n", Instant.parse("2023-10-18T11:00:00Z"));
+        vocabulary.reloadIfModified();
+
+        // THEN
+        // the new terms get a new version, a reader holding the previous snapshot keeps its terms
+        assertEquals(2, vocabulary.current().version());
+        assertEquals(List.of("smoker", "weight"), vocabulary.current().terms());
+        assertEquals(1, inFlight.matcher().countDistinctTerms("smoker, weight"));
+    }
+
+    @Test
+    public void sameTermsKeepVersionTest() throws IOException {
+        // GIVEN
+        Path file = writeTerms("smoker\nweight\n", Instant.parse("2023-10-18T10:00:00Z"));
+        TriggerVocabulary vocabulary = new TriggerVocabulary(new FileSystemResource(file));
+        TriggerVocabulary.Snapshot before = vocabulary.current();
+
+        // WHEN
+        // the file is touched, only a comment being added
+        writeTerms("# reviewed\nsmoker\nweight\n", Instant.parse("2023-10-18T11:00:00Z"));
+        vocabulary.reloadIfModified();
+
+        // THEN
+        // the memo and the stored assessments stay valid
+        assertSame(before, vocabulary.current());
+    }
+
+    @Test
+    public void invalidFileKeepsVocabularyTest() throws IOException {
+        // GIVEN
+        Path file = writeTerms("smoker\n", Instant.parse("2023-10-18T10:00:00Z"));
+        TriggerVocabulary vocabulary = new TriggerVocabulary(new FileSystemResource(file));
+        TriggerVocabulary.Snapshot before = vocabulary.current();
+
+        // WHEN
+        // the file loses all its terms
+        writeTerms("# to be completed\n", Instant.parse("2023-10-18T11:00:00Z"));
+        vocabulary.reloadIfModified();
+
+        // THEN
+        // the current vocabulary is kept
+        assertSame(before, vocabulary.current());
+        assertThrows(IllegalArgumentException.class, vocabulary::reload);
+        assertThrows(IllegalArgumentException.class, () -> vocabulary.replace(List.of(" "), "test"));
+    }
+
+    @Test
+    public void replaceTest() {
+        // GIVEN
+        TriggerVocabulary vocabulary = new TriggerVocabulary(null);
+
+        // WHEN
+        vocabulary.replace(List.of("Insuline", "insulin"), "actuator");
+
+        // THEN
+        assertEquals(2, vocabulary.current().version());
+        assertEquals("actuator", vocabulary.current().source());
+        assertEquals(List.of("insuline", "insulin"), vocabulary.current().terms());
+    }
+
+    @Test
+    public void endpointOnlyReplacesTermsWhenEnabledTest() {
+        // GIVEN
+        TriggerVocabulary vocabulary = new TriggerVocabulary(null);
+
+        // WHEN/THEN
+        // the terms are not replaced by default
+        assertThrows(InvalidEndpointRequestException.class,
+                () -> new TriggerVocabularyEndpoint(vocabulary, false).update("smoker"));
+        assertEquals(TriggerVocabulary.DEFAULT_TERMS, vocabulary.current().terms());
+        assertEquals(List.of("smoker"), new TriggerVocabularyEndpoint(vocabulary, true).update("smoker").get("terms"));
+    }
+}
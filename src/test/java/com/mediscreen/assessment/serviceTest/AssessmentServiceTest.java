@@ -1,31 +1,83 @@
 package com.mediscreen.assessment.serviceTest;
 
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.config.RiskClassificationProperties;
 import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.metrics.AssessmentMetrics;
 import com.mediscreen.assessment.model.History;
 import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.NoteTriggerCountCache;
+import com.mediscreen.assessment.scoring.RiskClassifier;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
 import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.snapshot.PatientSnapshot;
+import com.mediscreen.assessment.snapshot.PatientSnapshotWriter;
+import com.mediscreen.assessment.webclient.HistoryBatchLoader;
 import com.mediscreen.assessment.webclient.HistoryWebClient;
+import com.mediscreen.assessment.webclient.PatientWebClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 import static org.hamcrest.Matchers.any;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AssessmentServiceTest {
 
     @Mock
     private HistoryWebClient historyWebClient;
 
+    @Mock
+    private PatientWebClient patientWebClient;
+
+    @Mock
+    private HistoryBatchLoader historyBatchLoader;
+
+    @Spy
+    private NoteTriggerCountCache noteTriggerCountCache = new NoteTriggerCountCache(1000);
+
+    @Spy
+    private AssessmentResultStore assessmentResultStore = new AssessmentResultStore(1000);
+
+    @Spy
+    private TriggerVocabulary triggerVocabulary = new TriggerVocabulary(null);
+
+    @Spy
+    private RiskClassifier riskClassifier = new RiskClassifier(new RiskClassificationProperties().getRules());
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private AssessmentMetrics assessmentMetrics = new AssessmentMetrics(meterRegistry);
+
     @InjectMocks
     private AssessmentService assessmentService;
 
@@ -34,6 +86,7 @@ public class AssessmentServiceTest {
         MockitoAnnotations.openMocks(this);
         // Mock the behavior of findById method
         when(historyWebClient.findById(anyInt())).thenReturn(Mono.just(new ArrayList<>()));
+        when(historyBatchLoader.load(anyInt())).thenReturn(Mono.just(new ArrayList<>()));
     }
 
 
@@ -73,6 +126,258 @@ public class AssessmentServiceTest {
         assertEquals(expectedLevelOfRisk, result.getDiabetesAssessment());
     }
 
+    @Test
+    public void buildAssessmentRecordsScoringMetricsTest() {
+        // GIVEN
+        // a patient with two notes
+        Patient testPatient = new Patient(1, "Doe", "John", "M", LocalDate.of(1980, 5, 15), null, null);
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal height");
+        History history2 = new History();
+        history2.setId("456");
+        history2.setNotes("smoker");
+
+        // WHEN
+        assessmentService.buildAssessment(testPatient, List.of(history1, history2));
+
+        // THEN
+        // each note is normalized and matched once, the patient is classified once
+        assertEquals(2, meterRegistry.get(AssessmentMetrics.SCORING_STAGE).tag("stage", "normalization").timer().count());
+        assertEquals(2, meterRegistry.get(AssessmentMetrics.SCORING_STAGE).tag("stage", "matching").timer().count());
+        assertEquals(1, meterRegistry.get(AssessmentMetrics.SCORING_STAGE).tag("stage", "classification").timer().count());
+        assertEquals(2, meterRegistry.get(AssessmentMetrics.HISTORY_NOTES).summary().totalAmount());
+        assertEquals(30, meterRegistry.get(AssessmentMetrics.NOTE_LENGTH).summary().totalAmount());
+    }
+
+    @Test
+    public void assessByIdTest() {
+        // GIVEN
+        // there is at least a patient with a history
+        int patientId = 1;
+        Patient testPatient = new Patient();
+        testPatient.setId(patientId);
+        testPatient.setFamily("Doe");
+        testPatient.setGiven("John");
+        testPatient.setDob(LocalDate.now().minusYears(40));
+        testPatient.setSex("M");
+        when(patientWebClient.findById(patientId)).thenReturn(Mono.just(testPatient));
+
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal height");
+        when(historyWebClient.findById(patientId)).thenReturn(Mono.just(List.of(history1)));
+
+        // WHEN
+        // I ask the assessment by the patient id
+        AssessmentDTO result = assessmentService.assess(patientId).block();
+
+        // THEN
+        assertEquals(patientId, result.getPatId());
+        assertEquals(40, result.getAge());
+        assertEquals("Borderline", result.getDiabetesAssessment());
+    }
+
+    @Test
+    public void assessByIdStreamingTest() {
+        // GIVEN
+        // the streaming scoring mode, and a patient with a history
+        ReflectionTestUtils.setField(assessmentService, "scoringMode", AssessmentService.ScoringMode.STREAM);
+        int patientId = 1;
+        Patient testPatient = new Patient(patientId, "Doe", "John", "M", LocalDate.now().minusYears(40), null, null);
+        when(patientWebClient.findById(patientId)).thenReturn(Mono.just(testPatient));
+
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal height");
+        History history2 = new History();
+        history2.setId("456");
+        history2.setNotes("smoker");
+        when(historyWebClient.streamById(patientId)).thenReturn(Flux.just(history1, history2));
+
+        // WHEN
+        AssessmentDTO result = assessmentService.assess(patientId).block();
+
+        // THEN
+        // same assessment and fingerprint as the whole history
+        assertEquals(40, result.getAge());
+        assertEquals("Borderline", result.getDiabetesAssessment());
+        verify(historyWebClient, times(0)).findById(anyInt());
+        assertEquals(AssessmentResultStore.fingerprint(testPatient, List.of(history1, history2)),
+                assessmentResultStore.invalidate(patientId).get().fingerprint());
+        assertEquals(2, meterRegistry.get(AssessmentMetrics.HISTORY_NOTES).summary().totalAmount());
+    }
+
+    @Test
+    public void assessStreamingStopsAtEarlyOnsetTest() {
+        // GIVEN
+        // the streaming scoring mode, and a man under 30 whose first note already holds 5 trigger terms
+        ReflectionTestUtils.setField(assessmentService, "scoringMode", AssessmentService.ScoringMode.STREAM);
+        Patient testPatient = new Patient(1, "Doe", "John", "M", LocalDate.now().minusYears(25), null, null);
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal height weight smoker");
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<History> endlessHistory = Flux.concat(Flux.just(history1), Flux.<History>never())
+                .doOnCancel(() -> cancelled.set(true));
+        when(historyWebClient.streamById(1)).thenReturn(endlessHistory);
+
+        // WHEN
+        AssessmentDTO result = assessmentService.assess(testPatient).block(Duration.ofSeconds(5));
+
+        // THEN
+        // the rest of the history is not read
+        assertEquals("Early onset", result.getDiabetesAssessment());
+        assertTrue(cancelled.get());
+        // it is stored as computed from part of the history, a snapshot sync does not remove it
+        assertFalse(assessmentResultStore.invalidateIfChanged(1,
+                AssessmentResultStore.fingerprint(testPatient, List.of(history1))));
+        assertEquals(AssessmentResultStore.PARTIAL_HISTORY, assessmentResultStore.invalidate(1).get().fingerprint());
+        assertEquals(0, meterRegistry.get(AssessmentMetrics.HISTORY_NOTES).summary().count());
+    }
+
+    @Test
+    public void calculateEarlyOnsetThresholdTest() {
+        assertEquals(8, assessmentService.calculateEarlyOnsetThreshold("M", 40));
+        assertEquals(8, assessmentService.calculateEarlyOnsetThreshold("F", 30));
+        assertEquals(5, assessmentService.calculateEarlyOnsetThreshold("M", 25));
+        assertEquals(7, assessmentService.calculateEarlyOnsetThreshold("F", 25));
+        assertEquals(Integer.MAX_VALUE, assessmentService.calculateEarlyOnsetThreshold("X", 25));
+    }
+
+    @Test
+    public void assessByIdFetchesPatientAndHistoryConcurrentlyTest() {
+        // GIVEN
+        // the patient is not retrieved yet
+        int patientId = 1;
+        Sinks.One<Patient> patient = Sinks.one();
+        AtomicBoolean historyRequested = new AtomicBoolean();
+        when(patientWebClient.findById(patientId)).thenReturn(patient.asMono());
+        when(historyWebClient.findById(patientId)).thenReturn(Mono.fromCallable(() -> {
+            historyRequested.set(true);
+            return List.of();
+        }));
+
+        // WHEN
+        // I ask the assessment by the patient id
+        AtomicReference<AssessmentDTO> result = new AtomicReference<>();
+        assessmentService.assess(patientId).subscribe(result::set);
+
+        // THEN
+        // the history is requested without waiting for the patient
+        assertTrue(historyRequested.get());
+        assertNull(result.get());
+
+        Patient testPatient = new Patient();
+        testPatient.setId(patientId);
+        testPatient.setDob(LocalDate.now().minusYears(40));
+        testPatient.setSex("M");
+        patient.tryEmitValue(testPatient);
+        assertEquals("None", result.get().getDiabetesAssessment());
+    }
+
+    @Test
+    public void assessByIdServesStoredAssessmentTest() {
+        // GIVEN
+        // a patient already assessed
+        int patientId = 1;
+        Patient testPatient = new Patient();
+        testPatient.setId(patientId);
+        testPatient.setDob(LocalDate.now().minusYears(40));
+        testPatient.setSex("M");
+        when(patientWebClient.findById(patientId)).thenReturn(Mono.just(testPatient));
+        AssessmentDTO first = assessmentService.assess(patientId).block();
+
+        // WHEN
+        // the assessment is requested again
+        AssessmentDTO second = assessmentService.assess(patientId).block();
+
+        // THEN
+        // it is served without calling the downstream microservices
+        assertSame(first, second);
+        verify(patientWebClient, times(1)).findById(patientId);
+        verify(historyWebClient, times(1)).findById(patientId);
+    }
+
+    @Test
+    public void assessByIdRecomputesAfterVocabularyChangeTest() {
+        // GIVEN
+        // a patient already assessed with the built-in vocabulary
+        int patientId = 1;
+        Patient testPatient = new Patient();
+        testPatient.setId(patientId);
+        testPatient.setDob(LocalDate.now().minusYears(40));
+        testPatient.setSex("M");
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal, glycémie and glucose high, insuline, hypoglycemie");
+        when(patientWebClient.findById(patientId)).thenReturn(Mono.just(testPatient));
+        when(historyWebClient.findById(patientId)).thenReturn(Mono.just(List.of(history1)));
+        assertEquals("Borderline", assessmentService.assess(patientId).block().getDiabetesAssessment());
+
+        // WHEN
+        // terms are added to the vocabulary
+        List<String> terms = new ArrayList<>(TriggerVocabulary.DEFAULT_TERMS);
+        terms.addAll(List.of("Glycémie", "glucose", "insuline", "insulin", "hypoglycemie", "hypoglycemia"));
+        triggerVocabulary.replace(terms, "test");
+        AssessmentDTO result = assessmentService.assess(patientId).block();
+
+        // THEN
+        // neither the stored assessment nor the memoized count of the note are reused
+        assertEquals("In Danger", result.getDiabetesAssessment());
+        verify(historyWebClient, times(2)).findById(patientId);
+        assertEquals(0, noteTriggerCountCache.stats().hitCount());
+        assertEquals(2, noteTriggerCountCache.stats().missCount());
+    }
+
+    @Test
+    public void refreshRecomputesStoredAssessmentTest() {
+        // GIVEN
+        // a patient already assessed, whose history then changes
+        int patientId = 1;
+        Patient testPatient = new Patient();
+        testPatient.setId(patientId);
+        testPatient.setDob(LocalDate.now().minusYears(40));
+        testPatient.setSex("M");
+        when(patientWebClient.findById(patientId)).thenReturn(Mono.just(testPatient));
+        assertEquals("None", assessmentService.assess(patientId).block().getDiabetesAssessment());
+
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal height");
+        when(historyWebClient.findById(patientId)).thenReturn(Mono.just(List.of(history1)));
+
+        // WHEN
+        // the change is notified
+        assessmentService.refresh(patientId);
+
+        // THEN
+        // the stored assessment is recomputed
+        assertEquals("Borderline", assessmentResultStore.get(patientId, triggerVocabulary.current().version()).orElseThrow().getDiabetesAssessment());
+        verify(historyWebClient, times(2)).findById(patientId);
+    }
+
+    @Test
+    public void assessAllSkipsFailingPatientsTest() {
+        // GIVEN
+        // a patient can be assessed, the other one cannot be found
+        Patient testPatient = new Patient();
+        testPatient.setId(1);
+        testPatient.setDob(LocalDate.now().minusYears(40));
+        testPatient.setSex("F");
+        when(patientWebClient.findById(1)).thenReturn(Mono.just(testPatient));
+        when(patientWebClient.findById(2)).thenReturn(Mono.error(new IllegalStateException("Patient not found")));
+
+        // WHEN
+        // I ask the assessment of both patients
+        List<AssessmentDTO> result = assessmentService.assessAll(List.of(1, 2)).collectList().block();
+
+        // THEN
+        assertEquals(1, result.size());
+        assertEquals(1, result.get(0).getPatId());
+        assertEquals("None", result.get(0).getDiabetesAssessment());
+    }
+
     @Test
     public void calculateAgeTest() {
         // GIVEN
@@ -117,6 +422,62 @@ public class AssessmentServiceTest {
         assertEquals(expectedCount, result);
     }
 
+    @Test
+    public void calculateTriggerTermsOnlyScansNewOrEditedNotesTest() {
+        // GIVEN
+        // a history already assessed once
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("reaction abnormal height");
+        History history2 = new History();
+        history2.setId("456");
+        history2.setNotes("smoker");
+        assertEquals(4, assessmentService.calculateTriggerTerms(List.of(history1, history2)));
+
+        // WHEN
+        // a note is edited and a new note is added
+        history2.setNotes("smoker, weight");
+        History history3 = new History();
+        history3.setId("789");
+        history3.setNotes("relapse");
+        int result = assessmentService.calculateTriggerTerms(List.of(history1, history2, history3));
+
+        // THEN
+        // only the unchanged note comes from the memo
+        assertEquals(6, result);
+        assertEquals(1, noteTriggerCountCache.stats().hitCount());
+        assertEquals(4, noteTriggerCountCache.stats().missCount());
+        assertEquals(history1.getNotes().length(), noteTriggerCountCache.savedChars());
+    }
+
+    @Test
+    public void assessFromSnapshotTest(@TempDir Path directory) throws IOException {
+        // GIVEN
+        // a patient and their history in a local snapshot
+        Patient testPatient = new Patient(5, "Doe", "Jane", "F", LocalDate.now().minusYears(25), null, null);
+        History history1 = new History();
+        history1.setId("123");
+        history1.setNotes("Réaction ANORMALE, taille");
+        History history2 = new History();
+        history2.setId("456");
+        history2.setNotes("Fumeuse, vertige");
+        List<History> testHistories = List.of(history1, history2);
+        Path file = directory.resolve("patients-0.snap");
+        try (PatientSnapshotWriter writer = new PatientSnapshotWriter(file, Instant.now(), 0, 1)) {
+            writer.write(testPatient, testHistories);
+            writer.commit();
+        }
+
+        // WHEN
+        AssessmentDTO result = assessmentService.assess(PatientSnapshot.open(file), 0);
+
+        // THEN
+        // same assessment as from the microservices, without calling them
+        assertEquals(assessmentService.buildAssessment(testPatient, testHistories), result);
+        assertEquals("In Danger", result.getDiabetesAssessment());
+        verifyNoInteractions(patientWebClient, historyWebClient);
+    }
+
     @Test
     public void calculateLevelOfRiskTest() {
         // GIVEN
@@ -0,0 +1,199 @@
+package com.mediscreen.assessment.snapshotTest;
+
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.scoring.TriggerVocabulary;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.snapshot.PatientSnapshot;
+import com.mediscreen.assessment.snapshot.PatientSnapshotStore;
+import com.mediscreen.assessment.webclient.HistoryBatchLoader;
+import com.mediscreen.assessment.webclient.PatientWebClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PatientSnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private PatientWebClient patientWebClient;
+
+    @Mock
+    private HistoryBatchLoader historyBatchLoader;
+
+    @Mock
+    private AssessmentService assessmentService;
+
+    @Spy
+    private AssessmentResultStore assessmentResultStore = new AssessmentResultStore(1000);
+
+    @Spy
+    private TriggerVocabulary triggerVocabulary = new TriggerVocabulary(null);
+
+    @InjectMocks
+    private PatientSnapshotStore patientSnapshotStore;
+
+    private final List<Patient> patients = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(patientSnapshotStore, "directory", directory);
+        ReflectionTestUtils.setField(patientSnapshotStore, "shardCount", 3);
+        // Patients listed out of ID order
+        for (int id : new int[]{7, 2, 9, 4, 1}) {
+            patients.add(new Patient(id, "Family" + id, "Given" + id, "F", LocalDate.of(1980, 1, id), null, null));
+        }
+        when(patientWebClient.findAll()).thenReturn(Mono.just(patients));
+        when(historyBatchLoader.load(anyInt())).thenAnswer(invocation -> {
+            History history = new History();
+            history.setId("h" + invocation.getArgument(0));
+            history.setPatId(invocation.getArgument(0));
+            history.setNotes("Fumeur, poids " + invocation.getArgument(0));
+            return Mono.just(List.of(history));
+        });
+    }
+
+    @Test
+    public void syncWritesShardsTest() {
+        // GIVEN/WHEN
+        Integer written = patientSnapshotStore.sync().block();
+
+        // THEN
+        // each patient is in the shard of its ID
+        assertEquals(5, written);
+        List<PatientSnapshot> shards = patientSnapshotStore.shards();
+        assertEquals(3, shards.size());
+        assertEquals(List.of(9), List.of(shards.get(0).id(0)));
+        assertEquals(List.of(1, 4, 7), List.of(shards.get(1).id(0), shards.get(1).id(1), shards.get(1).id(2)));
+        assertEquals(List.of(2), List.of(shards.get(2).id(0)));
+        assertEquals(Optional.of(patients.get(0)), patientSnapshotStore.findPatient(7));
+        assertEquals(Optional.empty(), patientSnapshotStore.findPatient(3));
+        assertEquals("fumeur, poids 7", shards.get(1).normalizedNotes(shards.get(1).indexOf(7), 0).toString());
+    }
+
+    @Test
+    public void syncKeepsPreviousSnapshotOnFailureTest() {
+        // GIVEN
+        patientSnapshotStore.sync().block();
+        List<PatientSnapshot> previous = patientSnapshotStore.shards();
+        when(historyBatchLoader.load(4)).thenReturn(Mono.error(new IllegalStateException("History unavailable")));
+
+        // WHEN/THEN
+        assertThrows(IllegalStateException.class, () -> patientSnapshotStore.sync().block());
+        assertEquals(previous, patientSnapshotStore.shards());
+    }
+
+    @Test
+    public void warmStartRestoresAssessmentsTest() {
+        // GIVEN
+        // a snapshot written by a previous run
+        patientSnapshotStore.sync().block();
+        PatientSnapshotStore restarted = new PatientSnapshotStore();
+        ReflectionTestUtils.setField(restarted, "directory", directory);
+        ReflectionTestUtils.setField(restarted, "shardCount", 3);
+        ReflectionTestUtils.setField(restarted, "assessmentService", assessmentService);
+        ReflectionTestUtils.setField(restarted, "assessmentResultStore", assessmentResultStore);
+        ReflectionTestUtils.setField(restarted, "triggerVocabulary", triggerVocabulary);
+        when(assessmentService.assess(any(PatientSnapshot.class), anyInt())).thenAnswer(invocation -> {
+            PatientSnapshot shard = invocation.getArgument(0);
+            int id = shard.id(invocation.getArgument(1));
+            return new AssessmentDTO(id, "Family" + id, "Given" + id, 43, "None");
+        });
+
+        // WHEN
+        restarted.warmStart();
+
+        // THEN
+        // the assessments are served without the microservices
+        assertEquals(5, restarted.shards().stream().mapToInt(PatientSnapshot::size).sum());
+        Optional<AssessmentDTO> stored = assessmentResultStore.get(9, triggerVocabulary.current().version());
+        assertTrue(stored.isPresent());
+        assertEquals("Family9", stored.get().getFamily());
+        verify(assessmentService, times(5)).assess(any(PatientSnapshot.class), anyInt());
+    }
+
+    @Test
+    public void warmStartRestoresAssessmentsUntilSnapshotMaxAgeTest() throws InterruptedException {
+        // GIVEN
+        // a snapshot written by a previous run, almost max-age old
+        patientSnapshotStore.sync().block();
+        PatientSnapshotStore restarted = new PatientSnapshotStore();
+        ReflectionTestUtils.setField(restarted, "directory", directory);
+        ReflectionTestUtils.setField(restarted, "shardCount", 3);
+        ReflectionTestUtils.setField(restarted, "maxAge", Duration.ofMillis(300));
+        ReflectionTestUtils.setField(restarted, "assessmentService", assessmentService);
+        ReflectionTestUtils.setField(restarted, "assessmentResultStore", assessmentResultStore);
+        ReflectionTestUtils.setField(restarted, "triggerVocabulary", triggerVocabulary);
+        when(assessmentService.assess(any(PatientSnapshot.class), anyInt()))
+                .thenReturn(new AssessmentDTO(9, "Family9", "Given9", 43, "None"));
+
+        // WHEN
+        restarted.warmStart();
+
+        // THEN
+        // the changes made since the snapshot were missed, the restored assessments expire with it
+        int version = triggerVocabulary.current().version();
+        Instant expiresAt = restarted.shards().get(0).createdAt().plus(Duration.ofMillis(300));
+        verify(assessmentResultStore, times(5)).put(any(Patient.class), anyLong(), eq(version), any(AssessmentDTO.class),
+                anyLong(), eq(expiresAt));
+        Thread.sleep(Math.max(0, Duration.between(Instant.now(), expiresAt).toMillis()) + 10);
+        assertTrue(assessmentResultStore.get(9, version).isEmpty());
+    }
+
+    @Test
+    public void syncRemovesAssessmentsOfChangedPatientsTest() {
+        // GIVEN
+        // stored assessments, one of a patient whose notes changed without notification
+        patientSnapshotStore.sync().block();
+        int version = triggerVocabulary.current().version();
+        for (PatientSnapshot shard : patientSnapshotStore.shards()) {
+            for (int index = 0; index < shard.size(); index++) {
+                int id = shard.id(index);
+                assessmentResultStore.put(shard.patient(index), shard.fingerprint(index), version,
+                        new AssessmentDTO(id, "Family" + id, "Given" + id, 43, "None"), assessmentResultStore.generation(id));
+            }
+        }
+        when(historyBatchLoader.load(4)).thenAnswer(invocation -> {
+            History history = new History();
+            history.setId("h4");
+            history.setPatId(4);
+            history.setNotes("Fumeur, poids, vertige");
+            return Mono.just(List.of(history));
+        });
+
+        // WHEN
+        patientSnapshotStore.sync().block();
+
+        // THEN
+        assertTrue(assessmentResultStore.get(4, version).isEmpty());
+        assertTrue(assessmentResultStore.get(7, version).isPresent());
+    }
+}
@@ -0,0 +1,111 @@
+package com.mediscreen.assessment.snapshotTest;
+
+import com.mediscreen.assessment.cache.AssessmentResultStore;
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.model.Patient;
+import com.mediscreen.assessment.snapshot.PatientSnapshot;
+import com.mediscreen.assessment.snapshot.PatientSnapshotWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PatientSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private static History history(String id, Integer patId, String notes) {
+        History history = new History();
+        history.setId(id);
+        history.setPatId(patId);
+        history.setCreationDate(LocalDate.of(2023, 10, 18));
+        history.setNotes(notes);
+        return history;
+    }
+
+    @Test
+    public void writeAndReadTest() throws IOException {
+        // GIVEN
+        Path file = directory.resolve("patients-0.snap");
+        Instant createdAt = Instant.parse("2023-10-18T10:00:00Z");
+        Patient helene = new Patient(3, "Dupont", "Hélène", "F", LocalDate.of(1980, 5, 15), "1 rue des Lilas", null);
+        Patient paul = new Patient(8, "Martin", "Paul", "M", null, null, "555-0100");
+        List<History> notes = List.of(history("a", 3, "Hémoglobine A1C ÉLEVÉE"), history("b", 3, null));
+
+        // WHEN
+        try (PatientSnapshotWriter writer = new PatientSnapshotWriter(file, createdAt, 0, 1)) {
+            writer.write(helene, notes);
+            writer.write(paul, List.of());
+            assertEquals(2, writer.commit());
+        }
+        PatientSnapshot snapshot = PatientSnapshot.open(file);
+
+        // THEN
+        // the records are read back, the notes folded
+        assertEquals(createdAt, snapshot.createdAt());
+        assertEquals(2, snapshot.size());
+        assertEquals(2, snapshot.noteCount());
+        assertEquals(0, snapshot.indexOf(3));
+        assertEquals(1, snapshot.indexOf(8));
+        assertEquals(-1, snapshot.indexOf(5));
+        assertEquals(helene, snapshot.patient(0));
+        assertEquals(paul, snapshot.patient(1));
+        assertEquals(AssessmentResultStore.fingerprint(helene, notes), snapshot.fingerprint(0));
+        assertEquals(2, snapshot.noteCount(0));
+        assertEquals("hemoglobine a1c elevee", snapshot.normalizedNotes(0, 0).toString());
+        assertNull(snapshot.normalizedNotes(0, 1));
+        assertEquals("a", snapshot.history(0, 0).getId());
+        assertEquals(LocalDate.of(2023, 10, 18), snapshot.history(0, 0).getCreationDate());
+        assertEquals(0, snapshot.noteCount(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> snapshot.normalizedNotes(1, 0));
+    }
+
+    @Test
+    public void writerRejectsUnorderedPatientsTest() throws IOException {
+        // GIVEN
+        Path file = directory.resolve("patients-0.snap");
+
+        // WHEN
+        try (PatientSnapshotWriter writer = new PatientSnapshotWriter(file, Instant.now(), 0, 1)) {
+            writer.write(new Patient(5, "Martin", "Paul", "M", null, null, null), List.of());
+
+            // THEN
+            assertThrows(IllegalArgumentException.class,
+                    () -> writer.write(new Patient(2, "Dupont", "Luc", "M", null, null, null), List.of()));
+        }
+        // nothing is left behind without a commit
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void openRejectsTruncatedFileTest() throws IOException {
+        // GIVEN
+        Path file = directory.resolve("patients-0.snap");
+        try (PatientSnapshotWriter writer = new PatientSnapshotWriter(file, Instant.now(), 0, 1)) {
+            writer.write(new Patient(1, "Dupont", "Luc", "M", null, null, null), List.of(history("a", 1, "smoker")));
+            writer.commit();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        // WHEN/THEN
+        assertThrows(IllegalArgumentException.class, () -> PatientSnapshot.open(file));
+        assertFalse(Files.exists(directory.resolve("patients-0.snap.tmp")));
+    }
+}
@@ -0,0 +1,146 @@
+package com.mediscreen.assessment.subscriptionTest;
+
+import com.mediscreen.assessment.dto.AssessmentDTO;
+import com.mediscreen.assessment.resilience.AdaptiveConcurrencyLimiter;
+import com.mediscreen.assessment.resilience.ServiceOverloadedException;
+import com.mediscreen.assessment.service.AssessmentService;
+import com.mediscreen.assessment.subscription.RiskSubscriptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RiskSubscriptionsTest {
+
+    @Mock
+    private AssessmentService assessmentService;
+
+    @InjectMocks
+    private RiskSubscriptions riskSubscriptions;
+
+    private static AssessmentDTO assessment(int patId, String level) {
+        return new AssessmentDTO(patId, "Family" + patId, "Given" + patId, 52, level);
+    }
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(riskSubscriptions, "maxPatients", 3);
+        ReflectionTestUtils.setField(riskSubscriptions, "adaptiveConcurrencyLimiter",
+                new AdaptiveConcurrencyLimiter(4, 2, 100, Duration.ofSeconds(1), 0.5, 0.5, Duration.ofSeconds(2)));
+        riskSubscriptions.start();
+        when(assessmentService.assessAll(List.of(1, 2)))
+                .thenReturn(Flux.just(assessment(1, "None"), assessment(2, "Borderline")));
+    }
+
+    @Test
+    public void subscribeSendsOnlyTheChangesTest() {
+        // GIVEN
+        // a dashboard following patients 1 and 2
+        List<AssessmentDTO> received = new CopyOnWriteArrayList<>();
+        Disposable subscription = riskSubscriptions.subscribe(List.of(2, 1, 2)).subscribe(received::add);
+
+        // WHEN
+        // patient 1 is recomputed with the same level, then a higher one, and patient 3 changes
+        riskSubscriptions.record(assessment(1, "None"));
+        riskSubscriptions.record(assessment(1, "In Danger"));
+        riskSubscriptions.record(assessment(3, "None"));
+        riskSubscriptions.record(assessment(3, "Early onset"));
+
+        // THEN
+        // the current assessments, then the change of patient 1 only
+        assertEquals(List.of(assessment(1, "None"), assessment(2, "Borderline"), assessment(1, "In Danger")), received);
+        subscription.dispose();
+    }
+
+    @Test
+    public void recomputeOnlyFollowedPatientsTest() {
+        // GIVEN
+        // two dashboards following the same patients, one leaves
+        when(assessmentService.assess(anyInt())).thenReturn(Mono.just(assessment(2, "Early onset")));
+        List<AssessmentDTO> received = new CopyOnWriteArrayList<>();
+        Disposable first = riskSubscriptions.subscribe(List.of(1, 2)).subscribe(received::add);
+        Disposable second = riskSubscriptions.subscribe(List.of(1, 2)).subscribe();
+        second.dispose();
+
+        // WHEN
+        riskSubscriptions.recompute(2);
+        first.dispose();
+        riskSubscriptions.recompute(1);
+
+        // THEN
+        // the patient is recomputed while followed, no longer once the last dashboard left
+        verify(assessmentService, times(1)).assess(2);
+        verify(assessmentService, never()).assess(1);
+        assertEquals(assessment(2, "Early onset"), received.get(received.size() - 1));
+    }
+
+    @Test
+    public void subscribeRejectsTooManyPatientsTest() {
+        // GIVEN/WHEN/THEN
+        assertThrows(ResponseStatusException.class, () -> riskSubscriptions.subscribe(List.of(1, 2, 3, 4)));
+        assertThrows(ResponseStatusException.class, () -> riskSubscriptions.subscribe(List.of()));
+    }
+
+    @Test
+    public void subscribeDoesNotRepeatTheChangeOfItsCurrentAssessmentTest() {
+        // GIVEN
+        // a dashboard following patients 1 and 2
+        List<AssessmentDTO> first = new CopyOnWriteArrayList<>();
+        Disposable firstSubscription = riskSubscriptions.subscribe(List.of(1, 2)).subscribe(first::add);
+
+        // WHEN
+        // a second dashboard connects, and its current assessment of patient 1 reveals a new level
+        when(assessmentService.assessAll(List.of(1, 2)))
+                .thenReturn(Flux.just(assessment(1, "In Danger"), assessment(2, "Borderline")));
+        List<AssessmentDTO> second = new CopyOnWriteArrayList<>();
+        Disposable secondSubscription = riskSubscriptions.subscribe(List.of(1, 2)).subscribe(second::add);
+
+        // THEN
+        // the change is pushed to the first dashboard, and sent once to the second
+        assertEquals(List.of(assessment(1, "None"), assessment(2, "Borderline"), assessment(1, "In Danger")), first);
+        assertEquals(List.of(assessment(1, "In Danger"), assessment(2, "Borderline")), second);
+        firstSubscription.dispose();
+        secondSubscription.dispose();
+    }
+
+    @Test
+    public void currentAssessmentsAreLimitedAsBulkTest() {
+        // GIVEN
+        // a limit of 4, 2 for the bulk requests, and 2 subscriptions whose current assessments are in progress
+        Sinks.Many<AssessmentDTO> pending = Sinks.many().multicast().onBackpressureBuffer();
+        when(assessmentService.assessAll(List.of(1))).thenReturn(pending.asFlux());
+        Disposable first = riskSubscriptions.subscribe(List.of(1)).subscribe();
+        Disposable second = riskSubscriptions.subscribe(List.of(1)).subscribe();
+
+        // WHEN/THEN
+        // a third is rejected until the current assessments are sent, the open subscriptions then hold no permit
+        assertThrows(ServiceOverloadedException.class, () -> riskSubscriptions.subscribe(List.of(1, 2)));
+        pending.tryEmitNext(assessment(1, "None"));
+        pending.tryEmitComplete();
+        Disposable third = riskSubscriptions.subscribe(List.of(1, 2)).subscribe();
+        verify(assessmentService).assessAll(List.of(1, 2));
+        first.dispose();
+        second.dispose();
+        third.dispose();
+    }
+}
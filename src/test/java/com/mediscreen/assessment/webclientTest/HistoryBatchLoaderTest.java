@@ -0,0 +1,120 @@
+package com.mediscreen.assessment.webclientTest;
+
+import com.mediscreen.assessment.model.History;
+import com.mediscreen.assessment.webclient.HistoryBatchLoader;
+import com.mediscreen.assessment.webclient.HistoryWebClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HistoryBatchLoaderTest {
+
+    @Mock
+    private HistoryWebClient historyWebClient;
+
+    @InjectMocks
+    private HistoryBatchLoader historyBatchLoader;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(historyBatchLoader, "window", Duration.ofMillis(50));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        historyBatchLoader.stop();
+    }
+
+    private static History history(Integer patId, String notes) {
+        History history = new History();
+        history.setPatId(patId);
+        history.setNotes(notes);
+        return history;
+    }
+
+    @Test
+    public void batchModeSendsOneRequestTest() {
+        // GIVEN
+        // the History microservice has a batch route
+        ReflectionTestUtils.setField(historyBatchLoader, "mode", HistoryBatchLoader.Mode.BATCH);
+        historyBatchLoader.start();
+        when(historyWebClient.findByIds(any())).thenReturn(Mono.just(Map.of(
+                1, List.of(history(1, "height")),
+                2, List.of(history(2, "weight"), history(2, "smoker")))));
+
+        // WHEN
+        // three lookups, two for the same patient, are made in the same window
+        Mono<List<History>> first = historyBatchLoader.load(1).cache();
+        Mono<List<History>> second = historyBatchLoader.load(2).cache();
+        Mono<List<History>> third = historyBatchLoader.load(1).cache();
+        first.subscribe();
+        second.subscribe();
+        third.subscribe();
+
+        // THEN
+        // each caller receives the history of its own patient
+        assertEquals(1, first.block().size());
+        assertEquals(2, second.block().size());
+        assertEquals(first.block(), third.block());
+        verify(historyWebClient, times(1)).findByIds(Set.of(1, 2));
+        verify(historyWebClient, never()).findById(any());
+    }
+
+    @Test
+    public void parallelModeOnlyFailsFailingPatientTest() {
+        // GIVEN
+        // the History microservice has no batch route and fails for one patient
+        historyBatchLoader.start();
+        when(historyWebClient.findById(1)).thenReturn(Mono.just(List.of(history(1, "height"))));
+        when(historyWebClient.findById(2)).thenReturn(Mono.error(new IllegalStateException("History unavailable")));
+
+        // WHEN
+        Mono<List<History>> first = historyBatchLoader.load(1).cache();
+        Mono<List<History>> second = historyBatchLoader.load(2).cache();
+        first.subscribe();
+        second.subscribe(histories -> { }, e -> { });
+
+        // THEN
+        assertEquals(1, first.block().size());
+        assertThrows(IllegalStateException.class, second::block);
+        verify(historyWebClient, never()).findByIds(any());
+    }
+
+    @Test
+    public void failedBatchDoesNotStopBatchingTest() {
+        // GIVEN
+        // the first batch can not even be sent
+        ReflectionTestUtils.setField(historyBatchLoader, "mode", HistoryBatchLoader.Mode.BATCH);
+        historyBatchLoader.start();
+        when(historyWebClient.findByIds(any()))
+                .thenThrow(new IllegalStateException("No connection available"))
+                .thenReturn(Mono.just(Map.of(1, List.of(history(1, "height")))));
+
+        // WHEN
+        Mono<List<History>> first = historyBatchLoader.load(1);
+
+        // THEN
+        // its callers fail, the next lookups are still batched
+        assertThrows(IllegalStateException.class, first::block);
+        assertEquals(1, historyBatchLoader.load(1).block().size());
+    }
+}